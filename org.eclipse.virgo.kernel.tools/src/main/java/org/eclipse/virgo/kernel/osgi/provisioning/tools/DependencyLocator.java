@@ -14,6 +14,7 @@ package org.eclipse.virgo.kernel.osgi.provisioning.tools;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -24,6 +25,9 @@ import org.eclipse.virgo.kernel.repository.BundleDefinition;
 import org.eclipse.virgo.kernel.repository.LibraryDefinition;
 import org.eclipse.virgo.kernel.repository.internal.ArtifactDescriptorBundleDefinition;
 import org.eclipse.virgo.kernel.repository.internal.ArtifactDescriptorLibraryDefinition;
+import org.eclipse.virgo.kernel.repository.internal.DefinitionIterators;
+import org.eclipse.virgo.kernel.tools.ArtifactCursor;
+import org.eclipse.virgo.kernel.tools.ArtifactFilter;
 import org.eclipse.virgo.medic.eventlog.EventLogger;
 import org.eclipse.virgo.repository.ArtifactDescriptor;
 import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
@@ -77,6 +81,38 @@ public final class DependencyLocator {
     	this.delegate = new org.eclipse.virgo.kernel.tools.DependencyLocator(serverHomePath, additionalSearchPaths, indexDirectoryPath, eventLogger, FrameworkUtil.getBundle(getClass()).getBundleContext());
     }
 
+    private DependencyLocator(org.eclipse.virgo.kernel.tools.DependencyLocator delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Returns a new <code>DependencyLocator</code> that will search for dependencies within the Server instance located
+     * at the supplied <code>serverHomePath</code> and the supplied <code>additionalSearchPaths</code>, sharing its
+     * repository and indexes with every other shared locator of the same server, search paths and index directory in
+     * the process. Shutting down a shared locator releases its reference to the shared state rather than shutting it
+     * down.
+     * <p>
+     * The shared state is created by the locator that first needs it, and remains bound to that locator's
+     * <code>EventLogger</code> and <code>BundleContext</code>, and to the index state that it found in the index
+     * directory, for as long as it is kept. The <code>eventLogger</code> supplied to later locators that share it is
+     * used only for the events that they log themselves.
+     * 
+     * @param serverHomePath The path to the server installation from within which dependencies are to be located
+     * @param additionalSearchPaths The additional search paths to use to locate the artifacts that can satisfy
+     *        dependencies
+     * @param indexDirectoryPath The path of the directory to which index files should be written
+     * @param eventLogger for logging
+     * @return the new locator
+     * 
+     * @throws IOException if a problem occurs loading and parsing the configuration of the Server instance.
+     * @see org.eclipse.virgo.kernel.tools.DependencyLocator#createShared
+     */
+    public static DependencyLocator createShared(String serverHomePath, String[] additionalSearchPaths, String indexDirectoryPath,
+        EventLogger eventLogger) throws IOException {
+        return new DependencyLocator(org.eclipse.virgo.kernel.tools.DependencyLocator.createShared(serverHomePath, additionalSearchPaths,
+            indexDirectoryPath, eventLogger, FrameworkUtil.getBundle(DependencyLocator.class).getBundleContext(), null));
+    }
+
     /**
      * Locates all of the dependencies defined in the supplied manifest. Dependencies are identified from the manifest's
      * <code>Import-Package</code>, <code>Import-Bundle</code> and <code>Import-Library</code> headers. The dependencies
@@ -161,6 +197,71 @@ public final class DependencyLocator {
     	return libraryDefinitions;
     }
     
+    /**
+     * Picks up the artifacts that have been added to, changed in, or removed from the repository's search paths,
+     * including any additional search paths, since the repository was created or last refreshed. Only the affected
+     * artifacts are re-read and, if any have changed, a new repository generation begins.
+     */
+    public void refresh() {
+        this.delegate.refresh();
+    }
+
+    /**
+     * Returns the generation of the repository within which dependencies are located. Generations increase
+     * monotonically and a new generation begins only when the repository's bundles or libraries change, so a caller
+     * that has retained the generation in which it last located dependencies can skip locating them again while the
+     * generation is unchanged.
+     * 
+     * @return the current repository generation
+     */
+    public long getGeneration() {
+        return this.delegate.getGeneration();
+    }
+
+    /**
+     * Returns a cursor positioned at the start of a snapshot of the bundles in the current repository generation,
+     * including the system bundle. Paging through the bundles with the cursor does not copy them, and every page is
+     * consistent with the generation in which the cursor was created.
+     * 
+     * @return the cursor
+     */
+    public ArtifactCursor getBundleCursor() {
+        return this.delegate.getBundleCursor();
+    }
+
+    /**
+     * Returns a cursor positioned at the start of a snapshot of the libraries in the current repository generation.
+     * 
+     * @return the cursor
+     * @see #getBundleCursor()
+     */
+    public ArtifactCursor getLibraryCursor() {
+        return this.delegate.getLibraryCursor();
+    }
+
+    /**
+     * Returns an iterator over the {@link BundleDefinition BundleDefinitions} of the bundles in the current repository
+     * generation that are selected by the supplied filter. Each definition is created as the iterator reaches it.
+     * 
+     * @param filter the filter that selects bundles, or <code>null</code> to select every bundle
+     * @return the iterator
+     */
+    public Iterator<BundleDefinition> iterateBundles(ArtifactFilter filter) {
+        return DefinitionIterators.bundles(this.delegate.iterateBundles(filter));
+    }
+
+    /**
+     * Returns an iterator over the {@link LibraryDefinition LibraryDefinitions} of the libraries in the current
+     * repository generation that are selected by the supplied filter. Each definition is created as the iterator
+     * reaches it.
+     * 
+     * @param filter the filter that selects libraries, or <code>null</code> to select every library
+     * @return the iterator
+     */
+    public Iterator<LibraryDefinition> iterateLibraries(ArtifactFilter filter) {
+        return DefinitionIterators.libraries(this.delegate.iterateLibraries(filter));
+    }
+
     public void shutdown() {
     	this.delegate.shutdown();
     }
@@ -77,6 +77,37 @@ public final class Pre35DependencyLocator {
     	this.delegate = new org.eclipse.virgo.kernel.tools.Pre35DependencyLocator(serverHomePath, additionalSearchPaths, indexDirectoryPath, eventLogger, FrameworkUtil.getBundle(getClass()).getBundleContext());
     }
 
+    private Pre35DependencyLocator(org.eclipse.virgo.kernel.tools.Pre35DependencyLocator delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Returns a new <code>Pre35DependencyLocator</code> that will search for dependencies within the Server instance
+     * located at the supplied <code>serverHomePath</code> and the supplied <code>additionalSearchPaths</code>, sharing
+     * its repository and indexes with every other shared locator of the same server, additional search paths and
+     * index directory in the process.
+     * <p>
+     * The shared state is created by the locator that first needs it, and remains bound to that locator's
+     * <code>EventLogger</code> and <code>BundleContext</code>, and to the index state that it found in the index
+     * directory, for as long as it is kept. The <code>eventLogger</code> supplied to later locators that share it is
+     * not used.
+     * 
+     * @param serverHomePath The path to the server installation from within which dependencies are to be located
+     * @param additionalSearchPaths The additional search paths to use to locate the artifacts that can satisfy
+     *        dependencies
+     * @param indexDirectoryPath The path of the directory to which index files should be written
+     * @param eventLogger for logging
+     * @return the new locator
+     * 
+     * @throws IOException if a problem occurs loading and parsing the configuration of the Server instance.
+     * @see org.eclipse.virgo.kernel.tools.Pre35DependencyLocator#createShared
+     */
+    public static Pre35DependencyLocator createShared(String serverHomePath, String[] additionalSearchPaths, String indexDirectoryPath,
+        EventLogger eventLogger) throws IOException {
+        return new Pre35DependencyLocator(org.eclipse.virgo.kernel.tools.Pre35DependencyLocator.createShared(serverHomePath,
+            additionalSearchPaths, indexDirectoryPath, eventLogger, FrameworkUtil.getBundle(Pre35DependencyLocator.class).getBundleContext()));
+    }
+
     /**
      * Locates all of the dependencies defined in the supplied manifest. Dependencies are identified from the manifest's
      * <code>Import-Package</code>, <code>Import-Bundle</code> and <code>Import-Library</code> headers. The dependencies
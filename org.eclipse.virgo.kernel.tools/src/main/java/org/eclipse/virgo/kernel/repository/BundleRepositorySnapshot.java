@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.repository;
+
+import static org.eclipse.virgo.kernel.artifact.library.LibraryDefinition.LIBRARY_TYPE;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.osgi.framework.Version;
+
+import org.eclipse.virgo.kernel.artifact.bundle.BundleBridge;
+import org.eclipse.virgo.kernel.repository.internal.ArtifactDescriptorBundleDefinition;
+import org.eclipse.virgo.kernel.repository.internal.ArtifactDescriptorLibraryDefinition;
+import org.eclipse.virgo.kernel.tools.internal.ExportedPackageIndex;
+import org.eclipse.virgo.repository.ArtifactDescriptor;
+import org.eclipse.virgo.util.osgi.manifest.VersionRange;
+
+/**
+ * An immutable snapshot of the contents of a {@link RepositoryBackedBundleRepository} in a single repository
+ * generation. Every query of a snapshot is answered from the same generation, however the repository changes, so the
+ * results of a sequence of queries are consistent with one another.
+ * <p />
+ * Generations increase monotonically. A caller that has retained the generation of an earlier snapshot can compare it
+ * with the generation of the current snapshot to learn, cheaply, whether the repository has changed since.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe.
+ *
+ */
+public final class BundleRepositorySnapshot {
+
+    private final ExportedPackageIndex index;
+
+    private final Object monitor = new Object();
+
+    private volatile Set<BundleDefinition> bundles;
+
+    private volatile Set<LibraryDefinition> libraries;
+
+    BundleRepositorySnapshot(ExportedPackageIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Returns the repository generation that this snapshot describes.
+     *
+     * @return the generation
+     */
+    public long getGeneration() {
+        return this.index.getGeneration();
+    }
+
+    ExportedPackageIndex getIndex() {
+        return this.index;
+    }
+
+    /**
+     * @see BundleRepository#findByExportedPackage(String, VersionRange)
+     */
+    public Set<? extends BundleDefinition> findByExportedPackage(String packageName, VersionRange versionRange) {
+        return createBundleDefinitions(this.index.findByExportedPackage(packageName, versionRange));
+    }
+
+    /**
+     * @see BundleRepository#findByFragmentHost(String, Version)
+     */
+    public Set<? extends BundleDefinition> findByFragmentHost(String bundleSymbolicName, Version version) {
+        return createBundleDefinitions(this.index.getFragmentHostIndex().findFragments(bundleSymbolicName, version));
+    }
+
+    /**
+     * @see BundleRepository#findBySymbolicName(String, VersionRange)
+     */
+    public BundleDefinition findBySymbolicName(String symbolicName, VersionRange versionRange) {
+        ArtifactDescriptor artefact = this.index.getSymbolicNameIndex().get(BundleBridge.BRIDGE_TYPE, symbolicName, versionRange);
+        return artefact == null ? null : new ArtifactDescriptorBundleDefinition(artefact);
+    }
+
+    /**
+     * @see BundleRepository#findLibrary(String, VersionRange)
+     */
+    public LibraryDefinition findLibrary(String libraryName, VersionRange versionRange) {
+        ArtifactDescriptor artefact = this.index.getSymbolicNameIndex().get(LIBRARY_TYPE, libraryName, versionRange);
+        return artefact == null ? null : new ArtifactDescriptorLibraryDefinition(artefact);
+    }
+
+    /**
+     * Returns the {@link BundleDefinition BundleDefinitions} of the bundles in this snapshot. The set is created once
+     * per snapshot.
+     *
+     * @return the unmodifiable <code>BundleDefinitions</code>
+     */
+    public Set<BundleDefinition> getBundles() {
+        Set<BundleDefinition> definitions = this.bundles;
+        if (definitions == null) {
+            synchronized (this.monitor) {
+                definitions = this.bundles;
+                if (definitions == null) {
+                    definitions = Collections.unmodifiableSet(createBundleDefinitions(this.index.getBundles()));
+                    this.bundles = definitions;
+                }
+            }
+        }
+        return definitions;
+    }
+
+    /**
+     * Returns the {@link LibraryDefinition LibraryDefinitions} of the libraries in this snapshot. The set is created
+     * once per snapshot.
+     *
+     * @return the unmodifiable <code>LibraryDefinitions</code>
+     */
+    public Set<LibraryDefinition> getLibraries() {
+        Set<LibraryDefinition> definitions = this.libraries;
+        if (definitions == null) {
+            synchronized (this.monitor) {
+                definitions = this.libraries;
+                if (definitions == null) {
+                    List<ArtifactDescriptor> artefacts = this.index.getLibraries();
+                    Set<LibraryDefinition> libraryDefinitions = new HashSet<LibraryDefinition>(artefacts.size() * 2);
+                    for (ArtifactDescriptor artefact : artefacts) {
+                        libraryDefinitions.add(new ArtifactDescriptorLibraryDefinition(artefact));
+                    }
+                    definitions = Collections.unmodifiableSet(libraryDefinitions);
+                    this.libraries = definitions;
+                }
+            }
+        }
+        return definitions;
+    }
+
+    private static Set<BundleDefinition> createBundleDefinitions(Iterable<? extends ArtifactDescriptor> artefacts) {
+        Set<BundleDefinition> bundleDefinitions = new HashSet<BundleDefinition>();
+        for (ArtifactDescriptor artefact : artefacts) {
+            bundleDefinitions.add(new ArtifactDescriptorBundleDefinition(artefact));
+        }
+        return bundleDefinitions;
+    }
+}
@@ -11,14 +11,21 @@
 
 package org.eclipse.virgo.kernel.repository;
 
-import java.util.HashSet;
+import static org.eclipse.virgo.kernel.artifact.library.LibraryDefinition.LIBRARY_TYPE;
+
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.Set;
 
-import org.osgi.framework.Constants;
 import org.osgi.framework.Version;
 
 import org.eclipse.virgo.kernel.artifact.bundle.BundleBridge;
-import org.eclipse.virgo.kernel.repository.internal.ArtifactDescriptorBundleDefinition;
+import org.eclipse.virgo.kernel.repository.internal.DefinitionIterators;
+import org.eclipse.virgo.kernel.tools.ArtifactCursor;
+import org.eclipse.virgo.kernel.tools.ArtifactFilter;
+import org.eclipse.virgo.kernel.tools.internal.ExportedPackageIndex;
+import org.eclipse.virgo.kernel.tools.internal.RepositoryRefresher;
+import org.eclipse.virgo.repository.ArtifactBridge;
 import org.eclipse.virgo.repository.ArtifactDescriptor;
 import org.eclipse.virgo.repository.Repository;
 import org.eclipse.virgo.repository.RepositoryAwareArtifactDescriptor;
@@ -26,9 +33,22 @@ import org.eclipse.virgo.util.osgi.manifest.VersionRange;
 
 /**
  * A {@link BundleRepository} implementation that is backed by a {@link Repository}.
+ * <p />
+ * Queries are answered from an {@link ExportedPackageIndex} of the repository's contents, which is built when it is
+ * first needed and is advanced to a new generation only when the repository is {@link #refresh() refreshed}, so a
+ * query reads the current index without querying the backing repository. Exporters are filtered by version using the
+ * index's export metadata, so a {@link BundleDefinition} is only created for each bundle that matches a query.
+ * <p />
+ * Each index is published as an immutable {@link BundleRepositorySnapshot}, stamped with a monotonically increasing
+ * generation. Callers that issue a sequence of queries can obtain a snapshot once, with {@link #getSnapshot()}, to
+ * receive consistent results, and can compare generations to learn whether the repository has been refreshed.
+ * <p />
+ * A repository that is created with its search paths and artifact bridges watches the search paths, and
+ * {@link #refresh()} re-indexes only the artifacts that have been added, changed or removed since the previous refresh.
+ * <p />
  * 
  * <strong>Concurrent Semantics</strong><br />
- * Thread-safe.
+ * Thread-safe. Once the first snapshot has been built, queries read it without taking a lock.
 
  */
 public class RepositoryBackedBundleRepository implements BundleRepository {
@@ -37,39 +57,45 @@ public class RepositoryBackedBundleRepository implements BundleRepository {
 
     private static final String TYPE_ATTRIBUTE_KEY = "type";
 
+    private final Object indexMonitor = new Object();
+
+    private final RepositoryRefresher refresher;
+
+    private volatile BundleRepositorySnapshot snapshot;
+
     public RepositoryBackedBundleRepository(Repository repository) {
         this.repository = repository;
+        this.refresher = null;
+    }
+
+    /**
+     * Creates a new <code>RepositoryBackedBundleRepository</code> that watches the supplied search paths of the
+     * supplied repository so that it can be {@link #refresh() refreshed} incrementally. The search paths are watched
+     * from the first refresh onwards.
+     * 
+     * @param repository the backing repository
+     * @param searchPaths the Ant-style search paths from which the repository's artifacts are read
+     * @param artifactBridges the bridges used to create descriptors of the artifacts in the search paths
+     */
+    public RepositoryBackedBundleRepository(Repository repository, Collection<String> searchPaths, Set<ArtifactBridge> artifactBridges) {
+        this.repository = repository;
+        this.refresher = new RepositoryRefresher(searchPaths, artifactBridges);
     }
 
     public Set<? extends BundleDefinition> findByExportedPackage(String packageName, VersionRange versionRange) {
-        Set<RepositoryAwareArtifactDescriptor> artefacts = this.repository.createQuery(Constants.EXPORT_PACKAGE, packageName).run();
-        return createBundleDefinitions(artefacts);
+        return getSnapshot().findByExportedPackage(packageName, versionRange);
     }
 
     public Set<? extends BundleDefinition> findByFragmentHost(String bundleSymbolicName, Version version) {
-        Set<RepositoryAwareArtifactDescriptor> artefacts = this.repository.createQuery(Constants.FRAGMENT_HOST, bundleSymbolicName).run();
-        return createBundleDefinitions(artefacts);
+        return getSnapshot().findByFragmentHost(bundleSymbolicName, version);
     }
 
     public BundleDefinition findBySymbolicName(String symbolicName, VersionRange versionRange) {
-        
-        ArtifactDescriptor artifactDescriptor = this.repository.get(BundleBridge.BRIDGE_TYPE, symbolicName, versionRange);
-        
-        if (artifactDescriptor != null) {
-            return new ArtifactDescriptorBundleDefinition(artifactDescriptor);
-        }
-        
-        return null;
+        return getSnapshot().findBySymbolicName(symbolicName, versionRange);
     }
 
     public LibraryDefinition findLibrary(String libraryName, VersionRange versionRange) {
-        ArtifactDescriptor artefact = this.repository.get("library", libraryName, versionRange);
-        
-        if (artefact != null) {
-            return new org.eclipse.virgo.kernel.repository.internal.ArtifactDescriptorLibraryDefinition(artefact);
-        }
-        
-        return null;                
+        return getSnapshot().findLibrary(libraryName, versionRange);
     }
     
     public ArtifactDescriptor findSubsystem(String subsystemName) {
@@ -77,56 +103,161 @@ public class RepositoryBackedBundleRepository implements BundleRepository {
     }
 
     LibraryDefinition pickLibraryDefinition(Set<ArtifactDescriptor> artefacts, VersionRange versionRange) {
-        LibraryDefinition bestCandidate = null;
+        ArtifactDescriptor bestCandidate = null;
         for (ArtifactDescriptor artefact : artefacts) {
-            LibraryDefinition current = new org.eclipse.virgo.kernel.repository.internal.ArtifactDescriptorLibraryDefinition(artefact);
-            if (versionRange.includes(current.getVersion())) {
-                if (bestCandidate == null || bestCandidate.getVersion().compareTo(current.getVersion()) == -1) {
-                    bestCandidate = current;
+            Version version = artefact.getVersion();
+            if (versionRange.includes(version)) {
+                if (bestCandidate == null || bestCandidate.getVersion().compareTo(version) < 0) {
+                    bestCandidate = artefact;
                 }
             }
         }
-        return bestCandidate;
+        if (bestCandidate != null) {
+            return new org.eclipse.virgo.kernel.repository.internal.ArtifactDescriptorLibraryDefinition(bestCandidate);
+        }
+        return null;
     }
 
-    public Set<? extends BundleDefinition> getBundles() {
-        Set<RepositoryAwareArtifactDescriptor> bundleArtifactDescriptors = this.repository.createQuery(TYPE_ATTRIBUTE_KEY, BundleBridge.BRIDGE_TYPE).run();
-
-        Set<BundleDefinition> bundleDefinitions = new HashSet<BundleDefinition>();
+    /**
+     * Returns an immutable snapshot of the repository's current generation. The first snapshot is built when it is
+     * first needed, and a new generation begins only when the repository is {@link #refresh() refreshed} and its
+     * bundles or libraries have changed.
+     * 
+     * @return the current snapshot
+     */
+    public BundleRepositorySnapshot getSnapshot() {
+        BundleRepositorySnapshot current = this.snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this.indexMonitor) {
+            if (this.snapshot == null) {
+                this.snapshot = reindex(null);
+            }
+            return this.snapshot;
+        }
+    }
 
-        for (ArtifactDescriptor bundleArtifactDescriptor : bundleArtifactDescriptors) {
-            bundleDefinitions.add(new ArtifactDescriptorBundleDefinition(bundleArtifactDescriptor));
+    /**
+     * Queries the backing repository and returns a snapshot of its contents, in the generation after the supplied
+     * snapshot, unless its contents are those of the supplied snapshot, in which case the supplied snapshot is
+     * returned. Must be called while holding the index monitor.
+     */
+    private BundleRepositorySnapshot reindex(BundleRepositorySnapshot current) {
+        Set<? extends ArtifactDescriptor> bundles = query(BundleBridge.BRIDGE_TYPE);
+        Set<? extends ArtifactDescriptor> libraries = query(LIBRARY_TYPE);
+        long fingerprint = ExportedPackageIndex.fingerprint(bundles) * 31 + ExportedPackageIndex.fingerprint(libraries);
+        if (current != null && current.getIndex().getFingerprint() == fingerprint) {
+            return current;
         }
-        return bundleDefinitions;
+        long generation = current == null ? 1 : current.getGeneration() + 1;
+        return new BundleRepositorySnapshot(ExportedPackageIndex.create(bundles, libraries, fingerprint, generation));
+    }
+
+    private Set<? extends ArtifactDescriptor> query(String type) {
+        Set<RepositoryAwareArtifactDescriptor> descriptors = this.repository.createQuery(TYPE_ATTRIBUTE_KEY, type).run();
+        return this.refresher == null ? descriptors : this.refresher.apply(descriptors, type);
     }
 
+    /**
+     * Returns the repository's current generation.
+     * 
+     * @return the current generation
+     * @see #getSnapshot()
+     */
+    public long getGeneration() {
+        return getSnapshot().getGeneration();
+    }
+
+    /**
+     * Returns the {@link BundleDefinition BundleDefinitions} of the current snapshot's bundles. The returned set is
+     * shared by every caller that sees the same generation and cannot be modified.
+     */
+    public Set<? extends BundleDefinition> getBundles() {
+        return getSnapshot().getBundles();
+    }
+
+    /**
+     * Returns the {@link LibraryDefinition LibraryDefinitions} of the current snapshot's libraries. The returned set
+     * is shared by every caller that sees the same generation and cannot be modified.
+     */
     public Set<? extends LibraryDefinition> getLibraries() {
-        Set<RepositoryAwareArtifactDescriptor> libraryArtifactDescriptors = this.repository.createQuery(TYPE_ATTRIBUTE_KEY, "library").run();
+        return getSnapshot().getLibraries();
+    }
 
-        Set<LibraryDefinition> libraryDefinitions = new HashSet<LibraryDefinition>();
+    /**
+     * Returns a cursor positioned at the start of a snapshot of the bundles in the current repository generation. Paging
+     * through the bundles with the cursor does not copy them, and every page is consistent with the generation in which
+     * the cursor was created.
+     * 
+     * @return the cursor
+     */
+    public ArtifactCursor getBundleCursor() {
+        BundleRepositorySnapshot current = getSnapshot();
+        return ArtifactCursor.create(current.getIndex().getBundles(), current.getGeneration());
+    }
 
-        for (ArtifactDescriptor libraryArtifactDescriptor : libraryArtifactDescriptors) {
-            libraryDefinitions.add(new org.eclipse.virgo.kernel.repository.internal.ArtifactDescriptorLibraryDefinition(libraryArtifactDescriptor));
-        }
-        return libraryDefinitions;
+    /**
+     * Returns a cursor positioned at the start of a snapshot of the libraries in the current repository generation.
+     * 
+     * @return the cursor
+     * @see #getBundleCursor()
+     */
+    public ArtifactCursor getLibraryCursor() {
+        BundleRepositorySnapshot current = getSnapshot();
+        return ArtifactCursor.create(current.getIndex().getLibraries(), current.getGeneration());
     }
 
-    public void refresh() {
-    	throw new UnsupportedOperationException();
+    /**
+     * Returns an iterator over the {@link BundleDefinition BundleDefinitions} of the bundles in the current repository
+     * generation that are selected by the supplied filter. Each definition is created as the iterator reaches it.
+     * 
+     * @param filter the filter that selects bundles, or <code>null</code> to select every bundle
+     * @return the iterator
+     */
+    public Iterator<BundleDefinition> iterateBundles(ArtifactFilter filter) {
+        return DefinitionIterators.bundles(getBundleCursor().iterator(filter));
     }
 
-    private Set<? extends BundleDefinition> createBundleDefinitions(Set<RepositoryAwareArtifactDescriptor> artefacts) {
-        Set<BundleDefinition> bundleDefinitions = new HashSet<BundleDefinition>();
+    /**
+     * Returns an iterator over the {@link LibraryDefinition LibraryDefinitions} of the libraries in the current
+     * repository generation that are selected by the supplied filter. Each definition is created as the iterator
+     * reaches it.
+     * 
+     * @param filter the filter that selects libraries, or <code>null</code> to select every library
+     * @return the iterator
+     */
+    public Iterator<LibraryDefinition> iterateLibraries(ArtifactFilter filter) {
+        return DefinitionIterators.libraries(getLibraryCursor().iterator(filter));
+    }
 
-        for (ArtifactDescriptor artefact : artefacts) {
-            bundleDefinitions.add(new ArtifactDescriptorBundleDefinition(artefact));
+    /**
+     * Refreshes the repository's registry of bundles and libraries, beginning a new generation if they have changed.
+     * If the repository was created with its search paths, the artifacts that have been added to, changed in, or
+     * removed from them since the previous refresh are re-read and the current index is patched, rather than rebuilt,
+     * to produce the next generation. Otherwise the registry is rebuilt from the backing repository. Queries continue
+     * to read the current generation while the next is being built.
+     */
+    public void refresh() {
+        synchronized (this.indexMonitor) {
+            BundleRepositorySnapshot current = this.snapshot;
+            if (current == null) {
+                this.snapshot = reindex(null);
+            } else if (this.refresher != null) {
+                ExportedPackageIndex refreshed = this.refresher.refresh(current.getIndex());
+                if (refreshed != current.getIndex()) {
+                    this.snapshot = new BundleRepositorySnapshot(refreshed);
+                }
+            } else {
+                this.snapshot = reindex(current);
+            }
         }
-
-        return bundleDefinitions;
     }
-    
+
     public void shutdown() {
+        if (this.refresher != null) {
+            this.refresher.close();
+        }
     	this.repository.stop();
     }
-
 }
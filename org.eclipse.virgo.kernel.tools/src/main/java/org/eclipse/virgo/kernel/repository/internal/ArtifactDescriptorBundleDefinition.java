@@ -12,40 +12,41 @@
 package org.eclipse.virgo.kernel.repository.internal;
 
 import java.net.URI;
-import java.util.Dictionary;
 
-import org.eclipse.virgo.kernel.artifact.bundle.BundleBridge;
 import org.eclipse.virgo.kernel.repository.BundleDefinition;
-import org.eclipse.virgo.kernel.tools.internal.SystemBundleDescriptor;
+import org.eclipse.virgo.kernel.tools.internal.BundleManifestUtils;
 import org.eclipse.virgo.repository.ArtifactDescriptor;
 import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
-import org.eclipse.virgo.util.osgi.manifest.BundleManifestFactory;
 
+/**
+ * A {@link BundleDefinition} backed by an {@link ArtifactDescriptor}.
+ * <p />
+ * Only the descriptor is held by the definition, so enumerating the definitions of a repository does not parse the
+ * manifest of every bundle in it. The manifest is parsed once, by the kernel tools' shared cache, when it is first
+ * needed, and {@link #getManifest()} returns a copy of it that belongs to the caller, so a caller that modifies its
+ * manifest affects neither the cache nor the other callers that share the definition.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe.
+ *
+ */
 public final class ArtifactDescriptorBundleDefinition implements BundleDefinition {
 	
-	private final URI location;
-	
-	private final BundleManifest bundleManifest;
+	private final ArtifactDescriptor artifactDescriptor;
 		
 	public ArtifactDescriptorBundleDefinition(ArtifactDescriptor artifactDescriptor) {
-		this.location = artifactDescriptor.getUri();
-		this.bundleManifest = getBundleManifest(artifactDescriptor); 
+		this.artifactDescriptor = artifactDescriptor;
 	}
 
+	/**
+	 * Returns a new copy of the bundle's manifest, which the caller may modify freely.
+	 */
 	public BundleManifest getManifest() {
-		return this.bundleManifest;
+		return BundleManifestUtils.createBundleManifest(this.artifactDescriptor);
 	}
 
 	public URI getLocation() {
-		return this.location;
+		return this.artifactDescriptor.getUri();
 	}
-	
-	private static BundleManifest getBundleManifest(ArtifactDescriptor descriptor) {
-		if (descriptor instanceof SystemBundleDescriptor) {
-			return ((SystemBundleDescriptor)descriptor).getBundleManifest();
-		} else {
-			Dictionary<String, String> dictionary = BundleBridge.convertToDictionary(descriptor);
-			return BundleManifestFactory.createBundleManifest(dictionary);
-		}
-    }
 }
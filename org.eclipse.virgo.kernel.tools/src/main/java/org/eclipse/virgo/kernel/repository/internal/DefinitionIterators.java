@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.repository.internal;
+
+import java.util.Iterator;
+
+import org.eclipse.virgo.kernel.repository.BundleDefinition;
+import org.eclipse.virgo.kernel.repository.LibraryDefinition;
+import org.eclipse.virgo.repository.ArtifactDescriptor;
+
+/**
+ * Adapts iterators over {@link ArtifactDescriptor ArtifactDescriptors} into iterators over the definitions that they
+ * describe. Each definition is created as the iterator reaches its descriptor.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe.
+ *
+ */
+public final class DefinitionIterators {
+
+    private DefinitionIterators() {
+    }
+
+    /**
+     * Returns an iterator over the {@link BundleDefinition BundleDefinitions} of the supplied bundle descriptors.
+     *
+     * @param bundleDescriptors the descriptors of the bundles
+     * @return the iterator
+     */
+    public static Iterator<BundleDefinition> bundles(final Iterator<ArtifactDescriptor> bundleDescriptors) {
+        return new Iterator<BundleDefinition>() {
+
+            public boolean hasNext() {
+                return bundleDescriptors.hasNext();
+            }
+
+            public BundleDefinition next() {
+                return new ArtifactDescriptorBundleDefinition(bundleDescriptors.next());
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over the {@link LibraryDefinition LibraryDefinitions} of the supplied library descriptors.
+     *
+     * @param libraryDescriptors the descriptors of the libraries
+     * @return the iterator
+     */
+    public static Iterator<LibraryDefinition> libraries(final Iterator<ArtifactDescriptor> libraryDescriptors) {
+        return new Iterator<LibraryDefinition>() {
+
+            public boolean hasNext() {
+                return libraryDescriptors.hasNext();
+            }
+
+            public LibraryDefinition next() {
+                return new ArtifactDescriptorLibraryDefinition(libraryDescriptors.next());
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.eclipse.virgo.repository.ArtifactDescriptor;
+
+/**
+ * A position within an immutable snapshot of the bundles or libraries of a repository generation. Enumerating the
+ * artifacts from a cursor walks the snapshot directly, so the repository's contents are neither queried nor copied, and
+ * every page obtained from a cursor, and from the cursors that follow it, is consistent with the same generation
+ * however the repository changes in the meantime.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe: instances are immutable.
+ *
+ */
+public final class ArtifactCursor {
+
+    private final List<ArtifactDescriptor> snapshot;
+
+    private final int position;
+
+    private final long generation;
+
+    private ArtifactCursor(List<ArtifactDescriptor> snapshot, int position, long generation) {
+        this.snapshot = snapshot;
+        this.position = position;
+        this.generation = generation;
+    }
+
+    /**
+     * Creates a cursor positioned at the start of the supplied snapshot. The snapshot is not copied and must not be
+     * modified.
+     *
+     * @param snapshot the artifacts to enumerate
+     * @param generation the repository generation that the snapshot describes
+     * @return the new cursor
+     */
+    public static ArtifactCursor create(List<ArtifactDescriptor> snapshot, long generation) {
+        return new ArtifactCursor(snapshot, 0, generation);
+    }
+
+    /**
+     * Returns the repository generation of the snapshot that this cursor enumerates.
+     *
+     * @return the generation
+     */
+    public long getGeneration() {
+        return this.generation;
+    }
+
+    /**
+     * Returns the next page of artifacts that are selected by the supplied filter. The page holds at most
+     * <code>pageSize</code> artifacts, and fewer only if the snapshot has been exhausted.
+     *
+     * @param filter the filter that selects artifacts, or <code>null</code> to select every artifact
+     * @param pageSize the maximum number of artifacts in the page
+     * @return the page
+     */
+    public ArtifactPage nextPage(ArtifactFilter filter, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive but was " + pageSize);
+        }
+        List<ArtifactDescriptor> artifacts = new ArrayList<ArtifactDescriptor>(Math.min(pageSize, this.snapshot.size() - this.position));
+        int next = this.position;
+        while (next < this.snapshot.size() && artifacts.size() < pageSize) {
+            ArtifactDescriptor artifact = this.snapshot.get(next++);
+            if (filter == null || filter.accept(artifact)) {
+                artifacts.add(artifact);
+            }
+        }
+        ArtifactCursor nextCursor = next < this.snapshot.size() ? new ArtifactCursor(this.snapshot, next, this.generation) : null;
+        return new ArtifactPage(artifacts, nextCursor);
+    }
+
+    /**
+     * Returns an iterator over the artifacts from this cursor's position to the end of the snapshot that are selected
+     * by the supplied filter. Artifacts are filtered as the iterator advances.
+     *
+     * @param filter the filter that selects artifacts, or <code>null</code> to select every artifact
+     * @return the iterator
+     */
+    public Iterator<ArtifactDescriptor> iterator(final ArtifactFilter filter) {
+        return new Iterator<ArtifactDescriptor>() {
+
+            private int next = advance(ArtifactCursor.this.position);
+
+            public boolean hasNext() {
+                return this.next < ArtifactCursor.this.snapshot.size();
+            }
+
+            public ArtifactDescriptor next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ArtifactDescriptor artifact = ArtifactCursor.this.snapshot.get(this.next);
+                this.next = advance(this.next + 1);
+                return artifact;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            private int advance(int index) {
+                while (index < ArtifactCursor.this.snapshot.size() && filter != null && !filter.accept(ArtifactCursor.this.snapshot.get(index))) {
+                    index++;
+                }
+                return index;
+            }
+        };
+    }
+}
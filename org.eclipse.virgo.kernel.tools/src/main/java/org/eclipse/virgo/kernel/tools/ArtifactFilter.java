@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools;
+
+import org.eclipse.virgo.repository.ArtifactDescriptor;
+
+/**
+ * A predicate that selects the artifacts returned when enumerating the contents of a repository using an
+ * {@link ArtifactCursor}.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Implementations must be thread-safe if they are shared between threads.
+ *
+ */
+public interface ArtifactFilter {
+
+    /**
+     * Returns whether or not the supplied artifact is selected by this filter.
+     *
+     * @param descriptor the descriptor of the artifact
+     * @return <code>true</code> if the artifact is selected, otherwise <code>false</code>
+     */
+    boolean accept(ArtifactDescriptor descriptor);
+}
@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.virgo.repository.ArtifactDescriptor;
+
+/**
+ * A page of the artifacts in a repository snapshot, see {@link ArtifactCursor#nextPage(ArtifactFilter, int)}.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe: instances are immutable.
+ *
+ */
+public final class ArtifactPage {
+
+    private final List<ArtifactDescriptor> artifacts;
+
+    private final ArtifactCursor nextCursor;
+
+    ArtifactPage(List<ArtifactDescriptor> artifacts, ArtifactCursor nextCursor) {
+        this.artifacts = Collections.unmodifiableList(artifacts);
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Returns the artifacts in this page.
+     *
+     * @return the page's artifacts, never <code>null</code>
+     */
+    public List<ArtifactDescriptor> getArtifacts() {
+        return this.artifacts;
+    }
+
+    /**
+     * Returns a cursor positioned after the last artifact that was examined to fill this page, or <code>null</code> if
+     * the snapshot has been exhausted. The cursor continues to enumerate the same snapshot as this page.
+     *
+     * @return the cursor of the next page, or <code>null</code>
+     */
+    public ArtifactCursor getNextCursor() {
+        return this.nextCursor;
+    }
+}
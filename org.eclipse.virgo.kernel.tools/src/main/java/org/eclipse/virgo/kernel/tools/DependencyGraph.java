@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
+
+/**
+ * The transitive dependencies of a manifest, see {@link DependencyLocator#locateTransitiveDependencies(BundleManifest)}.
+ * The graph's roots are the manifest's direct dependencies. Each bundle in the graph is mapped to the locations of the
+ * bundles that satisfy its own dependencies, and every bundle that is reachable from the roots is in the graph.
+ * <p />
+ * A dependency that is satisfied by the system bundle with no known location, such as a standard JRE package, is not
+ * part of the graph.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * This class is <strong>thread-safe</strong>
+ *
+ */
+public final class DependencyGraph {
+
+    private final BundleManifest manifest;
+
+    private final Map<File, List<String>> directDependencies;
+
+    private final DependencyLocationException failure;
+
+    private final Map<File, Set<File>> dependencies;
+
+    private final Map<File, DependencyLocationException> failures;
+
+    DependencyGraph(BundleManifest manifest, Map<File, List<String>> directDependencies, DependencyLocationException failure,
+        Map<File, Set<File>> dependencies, Map<File, DependencyLocationException> failures) {
+        this.manifest = manifest;
+        this.directDependencies = Collections.unmodifiableMap(directDependencies);
+        this.failure = failure;
+        this.dependencies = Collections.unmodifiableMap(dependencies);
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * Returns the manifest whose dependencies were located.
+     *
+     * @return the manifest
+     */
+    public BundleManifest getManifest() {
+        return this.manifest;
+    }
+
+    /**
+     * Returns the manifest's direct dependencies, as {@link DependencyLocator#locateDependencies(BundleManifest)}
+     * would have returned them. If some of the manifest's dependencies could not be located, the dependencies that
+     * were located are returned.
+     *
+     * @return the locations of the manifest's direct dependencies
+     */
+    public Map<File, List<String>> getDirectDependencies() {
+        return this.directDependencies;
+    }
+
+    /**
+     * Returns the <code>DependencyLocationException</code> describing the manifest's direct dependencies that could
+     * not be located, or <code>null</code> if all of them were located.
+     *
+     * @return the failure, or <code>null</code>
+     */
+    public DependencyLocationException getFailure() {
+        return this.failure;
+    }
+
+    /**
+     * Returns the locations of every bundle in the graph: the manifest's direct dependencies followed, breadth first,
+     * by the bundles on which they transitively depend.
+     *
+     * @return the locations of all of the bundles in the graph
+     */
+    public Set<File> getBundles() {
+        return this.dependencies.keySet();
+    }
+
+    /**
+     * Returns the locations of the bundles that satisfy the dependencies of the bundle at the supplied location, or an
+     * empty set if the bundle has no dependencies or is not in the graph.
+     *
+     * @param bundle the location of a bundle in the graph
+     * @return the locations of the bundle's direct dependencies
+     */
+    public Set<File> getDependencies(File bundle) {
+        Set<File> bundleDependencies = this.dependencies.get(bundle);
+        if (bundleDependencies == null) {
+            return Collections.emptySet();
+        }
+        return bundleDependencies;
+    }
+
+    /**
+     * Returns the <code>DependencyLocationException</code> describing the dependencies of the bundle at the supplied
+     * location that could not be located, or <code>null</code> if all of them were located or the bundle is not in
+     * the graph.
+     *
+     * @param bundle the location of a bundle in the graph
+     * @return the failure, or <code>null</code>
+     */
+    public DependencyLocationException getFailure(File bundle) {
+        return this.failures.get(bundle);
+    }
+}
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
+
+/**
+ * The outcome of locating the dependencies of a single manifest, either as part of a batch, see
+ * {@link DependencyLocator#locateDependencies(java.util.Collection)}, or incrementally, see
+ * {@link DependencyLocator#locateDependencies(BundleManifest, DependencyLocationResult)}. A result retains the
+ * repository lookups that were made to produce it so that they can be reused when the manifest is next resolved.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * This class is <strong>thread-safe</strong>
+ *
+ */
+public final class DependencyLocationResult {
+
+    private final BundleManifest manifest;
+
+    private final Map<File, List<String>> dependencies;
+
+    private final DependencyLocationException failure;
+
+    private final QueryCache queryCache;
+
+    DependencyLocationResult(BundleManifest manifest, Map<File, List<String>> dependencies, DependencyLocationException failure,
+        QueryCache queryCache) {
+        this.manifest = manifest;
+        this.dependencies = dependencies;
+        this.failure = failure;
+        this.queryCache = queryCache;
+    }
+
+    /**
+     * Returns the manifest whose dependencies were located.
+     *
+     * @return the manifest
+     */
+    public BundleManifest getManifest() {
+        return this.manifest;
+    }
+
+    /**
+     * Returns the located dependencies, exactly as {@link DependencyLocator#locateDependencies(BundleManifest)} would
+     * have returned them for the manifest.
+     *
+     * @return the locations of all of the manifest's dependencies
+     * @throws DependencyLocationException if any of the manifest's dependencies could not be located
+     */
+    public Map<File, List<String>> getDependencies() throws DependencyLocationException {
+        if (this.failure != null) {
+            throw this.failure;
+        }
+        return this.dependencies;
+    }
+
+    /**
+     * Returns the <code>DependencyLocationException</code> describing the dependencies that could not be located, or
+     * <code>null</code> if all of the manifest's dependencies were located.
+     *
+     * @return the failure, or <code>null</code>
+     */
+    public DependencyLocationException getFailure() {
+        return this.failure;
+    }
+
+    QueryCache getQueryCache() {
+        return this.queryCache;
+    }
+}
@@ -15,19 +15,39 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
 
-import org.eclipse.virgo.kernel.artifact.bundle.BundleBridge;
 import org.eclipse.virgo.kernel.artifact.library.LibraryBridge;
 import org.eclipse.virgo.kernel.artifact.library.LibraryDefinition;
+import org.eclipse.virgo.kernel.tools.ProviderMemo.Providers;
+import org.eclipse.virgo.kernel.tools.RequireBundleClosures.Closure;
+import org.eclipse.virgo.kernel.tools.ResolutionMemo.Outcome;
 import org.eclipse.virgo.kernel.tools.internal.BundleManifestUtils;
+import org.eclipse.virgo.kernel.tools.internal.ExportedPackageIndex;
+import org.eclipse.virgo.kernel.tools.internal.ImportSignature;
+import org.eclipse.virgo.kernel.tools.internal.RepositorySnapshot;
 import org.eclipse.virgo.kernel.tools.internal.SystemPackageFilteringRepository;
 import org.eclipse.virgo.medic.eventlog.EventLogger;
 import org.eclipse.virgo.repository.ArtifactDescriptor;
@@ -39,20 +59,62 @@ import org.eclipse.virgo.util.osgi.manifest.ImportedLibrary;
 import org.eclipse.virgo.util.osgi.manifest.ImportedPackage;
 import org.eclipse.virgo.util.osgi.manifest.RequiredBundle;
 import org.eclipse.virgo.util.osgi.manifest.Resolution;
-import org.eclipse.virgo.util.osgi.manifest.RequiredBundle.Visibility;
 
 /**
  * A helper class for locating a bundle's dependencies.
  * <p />
+ * Dependencies are located against immutable snapshots of the repository, one per repository generation. Each call
+ * reads the generation that is current when it starts, and reads it throughout, so its result is consistent even if
+ * the repository is {@link #refresh() refreshed} while it runs. A new generation begins only when the repository is
+ * refreshed.
+ * <p />
  * 
  * <strong>Concurrent Semantics</strong><br />
- * The class is <strong>thread-safe</strong>
+ * The class is <strong>thread-safe</strong>. {@link #locateDependencies(BundleManifest)} and its variants,
+ * {@link #getBundles()}, {@link #getLibraries()} and the other queries may be called from any number of threads without
+ * external synchronization. A query that is made before the locator has started, see {@link #getReadiness()}, waits
+ * for startup, which includes building the first generation; a locator that is started synchronously has started by
+ * the time it is created. Once the locator has started, queries read only immutable snapshots and memoize their work
+ * in per-generation memos, and never take the lock that serializes refreshes, so they never wait for a refresh. The
+ * only locks that they take are the brief ones that guard the query cache of a single call, which is shared by the
+ * manifests of a batch, the shared cache of parsed manifests, the bounded memo of resolution outcomes and, when it is
+ * enabled, the persistent resolution cache.
  * 
  */
 public final class DependencyLocator {
 
     private final SystemPackageFilteringRepository repository;
 
+    private final LocatorEngine engine;
+
+    private final LocatorEngineRegistry.Key engineKey;
+
+    private final AtomicBoolean shutdown = new AtomicBoolean();
+
+    private final AtomicLong repositoryLookupCount = new AtomicLong();
+
+    private final ResolutionMemo resolutionMemo;
+
+    private final ResolutionMemo fragmentAwareResolutionMemo;
+
+    private final String indexDirectoryPath;
+
+    private final EventLogger eventLogger;
+
+    private final Object resolutionStoreMonitor = new Object();
+
+    private volatile ResolutionStore resolutionStore;
+
+    private final RequireBundleClosures requireBundleClosures;
+
+    private final ProviderMemo providerMemo;
+
+    private final ProviderMemo fragmentAwareProviderMemo;
+
+    private volatile ExecutorService lookupExecutor;
+
+    private volatile boolean fragmentExportsEnabled;
+
     /**
      * Creates a new <code>DependencyLocator</code> that will search for dependencies within the kernel instance located
      * at the supplied <code>kernelHomePath</code>. To improve search performance, artifacts locations, and the
@@ -88,8 +150,103 @@ public final class DependencyLocator {
      */
     public DependencyLocator(String kernelHomePath, String[] additionalSearchPaths, String indexDirectoryPath, EventLogger eventLogger, BundleContext bundleContext)
         throws IOException {
-        this.repository = new SystemPackageFilteringRepository(kernelHomePath, additionalSearchPaths, indexDirectoryPath,
-            eventLogger, bundleContext);
+        this(kernelHomePath, additionalSearchPaths, indexDirectoryPath, eventLogger, bundleContext, null);
+    }
+
+    /**
+     * Creates a new <code>DependencyLocator</code> that will search for dependencies within the Kernel instance located
+     * at the supplied <code>kernelHomePath</code> and the supplied <code>additionalSearchPaths</code>, exactly as
+     * {@link #DependencyLocator(String, String[], String, EventLogger, BundleContext)} does, except that if a
+     * <code>startupExecutor</code> is supplied the locator is started in the background using it and the constructor
+     * returns immediately.
+     * <p>
+     * Dependencies may be located while the locator is starting: a location waits for the parts of the locator that it
+     * needs to have started. The {@link #getReadiness() readiness} of the locator may be used to wait for startup to
+     * complete and to discover whether it failed.
+     * 
+     * @param kernelHomePath The path to the kernel installation from within which dependencies are to be located
+     * @param additionalSearchPaths The additional search paths to use to locate the artifacts that can satisfy
+     *        dependencies
+     * @param indexDirectoryPath The path of the directory to which index files should be written
+     * @param eventLogger The <code>EventLogger</code> to use to log events during dependency location
+     * @param bundleContext The <code>BundleContext</code> to be used for service lookups
+     * @param startupExecutor The <code>Executor</code> to start the locator in the background, or <code>null</code> to
+     *        start it synchronously
+     * 
+     * @throws IOException if the locator is started synchronously and a problem occurs loading and parsing the
+     *         configuration of the Server instance.
+     */
+    public DependencyLocator(String kernelHomePath, String[] additionalSearchPaths, String indexDirectoryPath, EventLogger eventLogger,
+        BundleContext bundleContext, Executor startupExecutor) throws IOException {
+        this(new LocatorEngine(new SystemPackageFilteringRepository(kernelHomePath, additionalSearchPaths, indexDirectoryPath, eventLogger,
+            bundleContext, startupExecutor)), null, indexDirectoryPath, eventLogger);
+    }
+
+    private DependencyLocator(LocatorEngine engine, LocatorEngineRegistry.Key engineKey, String indexDirectoryPath, EventLogger eventLogger) {
+        this.engine = engine;
+        this.engineKey = engineKey;
+        this.repository = engine.getRepository();
+        this.resolutionMemo = engine.getResolutionMemo();
+        this.fragmentAwareResolutionMemo = engine.getFragmentAwareResolutionMemo();
+        this.requireBundleClosures = engine.getRequireBundleClosures();
+        this.providerMemo = engine.getProviderMemo();
+        this.fragmentAwareProviderMemo = engine.getFragmentAwareProviderMemo();
+        this.indexDirectoryPath = indexDirectoryPath;
+        this.eventLogger = eventLogger;
+    }
+
+    /**
+     * Returns a new <code>DependencyLocator</code> that will search for dependencies within the Kernel instance located
+     * at the supplied <code>kernelHomePath</code> and the supplied <code>additionalSearchPaths</code>, exactly as
+     * {@link #DependencyLocator(String, String[], String, EventLogger, BundleContext)} does, except that the locator
+     * shares its repository, indexes and memos with every other shared locator of the same kernel, additional search
+     * paths and index directory in the process. The cost of starting a locator, and the memory that it retains, is
+     * therefore paid once per distinct kernel.
+     * <p>
+     * Shutting down a shared locator releases its reference to the shared state, which is kept, for reuse by a
+     * subsequent shared locator, until it is evicted. The shared state is created using the <code>EventLogger</code>,
+     * <code>BundleContext</code> and <code>startupExecutor</code> of the locator that first needs it, and remains bound
+     * to them, and to the index state that it found in the index directory, for as long as it is kept. Persistent
+     * resolution caching and the other settings of a locator are not shared.
+     * 
+     * @param kernelHomePath The path to the kernel installation from within which dependencies are to be located
+     * @param additionalSearchPaths The additional search paths to use to locate the artifacts that can satisfy
+     *        dependencies
+     * @param indexDirectoryPath The path of the directory to which index files should be written
+     * @param eventLogger The <code>EventLogger</code> to use to log events during dependency location
+     * @param bundleContext The <code>BundleContext</code> to be used for service lookups
+     * @param startupExecutor The <code>Executor</code> to start the shared state in the background if it is created,
+     *        or <code>null</code> to start it synchronously
+     * @return the new locator
+     * 
+     * @throws IOException if the shared state is created and started synchronously and a problem occurs loading and
+     *         parsing the configuration of the Server instance.
+     */
+    public static DependencyLocator createShared(final String kernelHomePath, final String[] additionalSearchPaths, final String indexDirectoryPath,
+        final EventLogger eventLogger, final BundleContext bundleContext, final Executor startupExecutor) throws IOException {
+        LocatorEngineRegistry registry = LocatorEngineRegistry.getSharedRegistry();
+        LocatorEngineRegistry.Key key = LocatorEngineRegistry.createKey(LocatorEngineRegistry.Layout.CURRENT, kernelHomePath, additionalSearchPaths,
+            indexDirectoryPath);
+        LocatorEngine engine = registry.acquire(key, new Callable<LocatorEngine>() {
+
+            public LocatorEngine call() throws IOException {
+                return new LocatorEngine(new SystemPackageFilteringRepository(kernelHomePath, additionalSearchPaths, indexDirectoryPath,
+                    eventLogger, bundleContext, startupExecutor));
+            }
+        });
+        return new DependencyLocator(engine, key, indexDirectoryPath, eventLogger);
+    }
+
+    /**
+     * Returns a <code>Future</code> that completes once this locator has started. A locator that was started
+     * synchronously is always ready. If a background startup fails the future's {@link Future#get() get} method throws
+     * an <code>ExecutionException</code> whose cause is the failure, and any subsequent attempt to locate dependencies
+     * will fail with an <code>IllegalStateException</code>.
+     * 
+     * @return the locator's readiness
+     */
+    public Future<Void> getReadiness() {
+        return this.repository.getReadiness();
     }
 
     /**
@@ -126,6 +283,197 @@ public final class DependencyLocator {
      * @throws DependencyLocationException if any of the manifest's dependencies cannot be located
      */
     public Map<File, List<String>> locateDependencies(BundleManifest manifest) throws DependencyLocationException {
+        return locateDependencies(manifest, new QueryCache(this.repository, this.repositoryLookupCount));
+    }
+
+    /**
+     * Locates all of the dependencies defined in the supplied manifest, reusing the work done by a previous location
+     * of the dependencies of an earlier version of the manifest. Only the <code>Import-Package</code>,
+     * <code>Import-Bundle</code>, <code>Import-Library</code> and <code>Require-Bundle</code> clauses that have been
+     * added or changed since the previous result was produced are looked up in the repository, while the lookups for
+     * unchanged clauses are reused. The located dependencies are identical to those that would be located by
+     * {@link #locateDependencies(BundleManifest)}.
+     * <p>
+     * The previous result is ignored if it was produced by a different <code>DependencyLocator</code> or if the
+     * repository has changed since it was produced.
+     * 
+     * @param manifest the manifest whose dependencies are to be located
+     * @param previousResult the result of a previous location, or <code>null</code> if there is no such result
+     * @return the result of locating the manifest's dependencies, which may be supplied to a subsequent call
+     */
+    public DependencyLocationResult locateDependencies(BundleManifest manifest, DependencyLocationResult previousResult) {
+        ExportedPackageIndex exportedPackageIndex = this.repository.getExportedPackageIndex();
+        QueryCache previousQueries = previousResult == null ? null : previousResult.getQueryCache();
+
+        QueryCache queries;
+        if (previousQueries != null && previousQueries.isCurrent(this.repository, exportedPackageIndex)) {
+            queries = new QueryCache(previousQueries);
+        } else {
+            queries = new QueryCache(this.repository, exportedPackageIndex, this.repositoryLookupCount);
+        }
+        return createResult(manifest, queries);
+    }
+
+    /**
+     * Locates all of the dependencies defined in each of the supplied manifests. The dependencies of each manifest are
+     * located with exactly the same semantics as {@link #locateDependencies(BundleManifest)} but every distinct
+     * package, bundle, and library import across all of the manifests is looked up in the repository only once.
+     * <p>
+     * A result is returned for each manifest, in the order in which the manifests are supplied. If a manifest's
+     * dependencies cannot all be located the failure is recorded in its result rather than thrown.
+     * 
+     * @param manifests the manifests whose dependencies are to be located
+     * @return a result for each of the supplied manifests
+     */
+    public List<DependencyLocationResult> locateDependencies(Collection<BundleManifest> manifests) {
+        QueryCache sharedQueries = new QueryCache(this.repository, this.repositoryLookupCount);
+        List<DependencyLocationResult> results = new ArrayList<DependencyLocationResult>(manifests.size());
+        for (BundleManifest manifest : manifests) {
+            results.add(createResult(manifest, new QueryCache(sharedQueries)));
+        }
+        return results;
+    }
+
+    /**
+     * Locates the transitive dependencies of the supplied manifest. The manifest's direct dependencies are located
+     * exactly as they are by {@link #locateDependencies(BundleManifest)}, and then the dependencies of each bundle that
+     * satisfies them are located in turn until every bundle on which the manifest transitively depends has been found.
+     * <p>
+     * The dependencies of each bundle in the repository are located at most once for each repository generation, so
+     * the transitive dependencies of many manifests share every sub-graph that they have in common. A bundle's
+     * optional imports are followed if they can be satisfied, as they would be wired at runtime, and a bundle whose
+     * mandatory imports cannot all be satisfied is recorded in the graph rather than causing a failure.
+     * 
+     * @param manifest the manifest whose dependencies are to be located
+     * @return the graph of the manifest's transitive dependencies
+     */
+    public DependencyGraph locateTransitiveDependencies(BundleManifest manifest) {
+        return createGraph(manifest, new QueryCache(this.repository, this.repositoryLookupCount));
+    }
+
+    /**
+     * Locates the transitive dependencies of each of the supplied manifests, with the same semantics as
+     * {@link #locateTransitiveDependencies(BundleManifest)}. Every distinct lookup across all of the manifests is made
+     * only once.
+     * 
+     * @param manifests the manifests whose dependencies are to be located
+     * @return a graph for each of the supplied manifests, in the order in which the manifests are supplied
+     */
+    public List<DependencyGraph> locateTransitiveDependencies(Collection<BundleManifest> manifests) {
+        QueryCache sharedQueries = new QueryCache(this.repository, this.repositoryLookupCount);
+        List<DependencyGraph> graphs = new ArrayList<DependencyGraph>(manifests.size());
+        for (BundleManifest manifest : manifests) {
+            graphs.add(createGraph(manifest, sharedQueries));
+        }
+        return graphs;
+    }
+
+    private DependencyGraph createGraph(BundleManifest manifest, QueryCache queries) {
+        boolean mergeFragments = this.fragmentExportsEnabled;
+        Map<File, List<String>> directDependencies;
+        DependencyLocationException failure = null;
+        try {
+            directDependencies = locateDependencies(manifest, queries, mergeFragments);
+        } catch (DependencyLocationException dle) {
+            directDependencies = dle.getSatisfiedDependencies();
+            failure = dle;
+        }
+
+        Map<File, Set<File>> dependencies = new LinkedHashMap<File, Set<File>>();
+        Map<File, DependencyLocationException> failures = new HashMap<File, DependencyLocationException>();
+        LinkedList<File> pending = new LinkedList<File>(directDependencies.keySet());
+        while (!pending.isEmpty()) {
+            File bundle = pending.removeFirst();
+            if (bundle != null && !dependencies.containsKey(bundle)) {
+                Providers providers = getProviders(bundle, queries, mergeFragments);
+                dependencies.put(bundle, providers.getLocations());
+                if (providers.getFailure() != null) {
+                    failures.put(bundle, providers.getFailure());
+                }
+                pending.addAll(providers.getLocations());
+            }
+        }
+        return new DependencyGraph(manifest, directDependencies, failure, dependencies, failures);
+    }
+
+    private Providers getProviders(File bundle, QueryCache queries, boolean mergeFragments) {
+        ProviderMemo memo = mergeFragments ? this.fragmentAwareProviderMemo : this.providerMemo;
+        long generation = queries.getGeneration();
+        Providers providers = memo.get(bundle, generation);
+        if (providers == null) {
+            ArtifactDescriptor bundleDescriptor = getBundleLocations(queries).get(bundle);
+            if (bundleDescriptor == null) {
+                providers = new Providers(Collections.<File> emptySet(), null);
+            } else {
+                Map<File, List<String>> bundleDependencies;
+                DependencyLocationException failure = null;
+                try {
+                    bundleDependencies = locateDependencies(BundleManifestUtils.getReadOnlyBundleManifest(bundleDescriptor), queries, mergeFragments);
+                } catch (DependencyLocationException dle) {
+                    bundleDependencies = dle.getSatisfiedDependencies();
+                    failure = dle;
+                }
+                Set<File> locations = new LinkedHashSet<File>(bundleDependencies.keySet());
+                locations.remove(null);
+                locations.remove(bundle);
+                providers = new Providers(locations, failure);
+            }
+            memo.put(bundle, generation, providers);
+        }
+        return providers;
+    }
+
+    private Map<File, ArtifactDescriptor> getBundleLocations(QueryCache queries) {
+        long generation = queries.getGeneration();
+        Map<File, ArtifactDescriptor> bundleLocations = this.providerMemo.getBundleLocations(generation);
+        if (bundleLocations == null) {
+            bundleLocations = new HashMap<File, ArtifactDescriptor>();
+            for (ArtifactDescriptor bundleDescriptor : this.repository.getSnapshot(queries.getExportedPackageIndex()).getBundles()) {
+                URI location = bundleDescriptor.getUri();
+                if (location != null && "file".equals(location.getScheme())) {
+                    bundleLocations.put(new File(location), bundleDescriptor);
+                }
+            }
+            this.providerMemo.putBundleLocations(generation, bundleLocations);
+        }
+        return bundleLocations;
+    }
+
+    private DependencyLocationResult createResult(BundleManifest manifest, QueryCache queries) {
+        try {
+            return new DependencyLocationResult(manifest, locateDependencies(manifest, queries), null, queries.detach());
+        } catch (DependencyLocationException dle) {
+            return new DependencyLocationResult(manifest, null, dle, queries.detach());
+        }
+    }
+
+    private Map<File, List<String>> locateDependencies(BundleManifest manifest, QueryCache queries) throws DependencyLocationException {
+        return locateDependencies(manifest, queries, this.fragmentExportsEnabled);
+    }
+
+    private Map<File, List<String>> locateDependencies(BundleManifest manifest, QueryCache queries, boolean mergeFragments)
+        throws DependencyLocationException {
+        ResolutionMemo memo = mergeFragments ? this.fragmentAwareResolutionMemo : this.resolutionMemo;
+        ImportSignature signature = ImportSignature.create(manifest);
+        Outcome outcome = memo.get(signature, queries.getGeneration());
+        if (outcome == null) {
+            ResolutionStore store = this.resolutionStore;
+            if (store != null) {
+                long repositoryFingerprint = queries.getRepositoryFingerprint();
+                outcome = store.get(signature, repositoryFingerprint, mergeFragments);
+                if (outcome == null) {
+                    outcome = resolve(manifest, queries, mergeFragments);
+                    store.put(signature, repositoryFingerprint, mergeFragments, outcome);
+                }
+            } else {
+                outcome = resolve(manifest, queries, mergeFragments);
+            }
+            memo.put(signature, queries.getGeneration(), outcome);
+        }
+        return outcome.getDependencyLocations();
+    }
+
+    private Outcome resolve(BundleManifest manifest, QueryCache queries, boolean mergeFragments) {
 
         List<ImportDescriptor> unsatisfiablePackageImports = new ArrayList<ImportDescriptor>();
         List<ImportDescriptor> unsatisfiableLibraryImports = new ArrayList<ImportDescriptor>();
@@ -134,35 +482,207 @@ public final class DependencyLocator {
 
         Map<File, List<String>> dependencyLocations = new HashMap<File, List<String>>();
 
-        processImportedPackages(manifest.getImportPackage().getImportedPackages(), dependencyLocations, unsatisfiablePackageImports);
+        ExecutorService executorService = this.lookupExecutor;
+        if (executorService != null) {
+            prefetch(manifest, queries, executorService);
+        }
 
-        processImportedLibraries(manifest.getImportLibrary().getImportedLibraries(), dependencyLocations, unsatisfiableLibraryImports);
+        processImportedPackages(manifest.getImportPackage().getImportedPackages(), dependencyLocations, unsatisfiablePackageImports, queries);
 
-        processImportedBundles(manifest.getImportBundle().getImportedBundles(), dependencyLocations, unsatisfiableBundleImports);
+        processImportedLibraries(manifest.getImportLibrary().getImportedLibraries(), dependencyLocations, unsatisfiableLibraryImports, queries,
+            mergeFragments);
 
-        List<String> packageNames = createListOfAllPackagesThatHaveAlreadyBeenSatisfied(dependencyLocations);
-        processRequiredBundles(manifest.getRequireBundle().getRequiredBundles(), dependencyLocations, unsatisfiableRequireBundles, packageNames, true);
+        processImportedBundles(manifest.getImportBundle().getImportedBundles(), dependencyLocations, unsatisfiableBundleImports, queries,
+            mergeFragments);
 
-        throwDependencyLocationExceptionIfNecessary(unsatisfiablePackageImports, unsatisfiableBundleImports, unsatisfiableLibraryImports,
-            unsatisfiableRequireBundles, dependencyLocations);
+        Set<String> packageNames = createSetOfAllPackagesThatHaveAlreadyBeenSatisfied(dependencyLocations);
+        processRequiredBundles(manifest.getRequireBundle().getRequiredBundles(), dependencyLocations, unsatisfiableRequireBundles, packageNames, queries,
+            mergeFragments);
 
-        return dependencyLocations;
+        return new Outcome(dependencyLocations, unsatisfiablePackageImports, unsatisfiableBundleImports, unsatisfiableLibraryImports,
+            unsatisfiableRequireBundles);
     }
     
+    /**
+     * Enables or disables parallel prefetching of lookups. When an <code>ExecutorService</code> is supplied the
+     * repository lookups for a manifest's <code>Import-Package</code>, <code>Import-Bundle</code>,
+     * <code>Import-Library</code> and <code>Require-Bundle</code> headers are fanned out across it, together with the
+     * parsing of the matching bundles' manifests, to warm the lookups that are then used, in the calling thread, to
+     * resolve the manifest. Resolution itself is not parallel. The located dependencies are identical to those located
+     * without prefetching. A {@link java.util.concurrent.ForkJoinPool ForkJoinPool} is a suitable executor.
+     * <p>
+     * If the calling thread is interrupted while waiting for the prefetch, any lookups that have not completed are
+     * cancelled and performed in the calling thread instead, so no prefetch outlives the call.
+     * <p>
+     * The executor is not shut down by this <code>DependencyLocator</code>.
+     * 
+     * @param executorService the executor to use for lookups, or <code>null</code> to perform lookups sequentially
+     *        in the calling thread, which is the default
+     */
+    public void setLookupExecutor(ExecutorService executorService) {
+        this.lookupExecutor = executorService;
+    }
+
+    /**
+     * Enables or disables the persistent resolution cache. When enabled, the outcome of locating a manifest's
+     * dependencies is persisted in the index directory, keyed by the manifest's imports and a fingerprint of the
+     * contents of the kernel and additional search paths. A subsequent <code>DependencyLocator</code> using the same
+     * index directory, including one in a later process, will then answer from the cache for as long as those contents
+     * are unchanged.
+     * 
+     * @param enabled <code>true</code> to enable the persistent cache, <code>false</code>, the default, to disable it
+     */
+    public void setPersistentResolutionCacheEnabled(boolean enabled) {
+        synchronized (this.resolutionStoreMonitor) {
+            if (enabled && this.resolutionStore == null) {
+                this.resolutionStore = new ResolutionStore(new File(this.indexDirectoryPath), this.eventLogger);
+            } else if (!enabled && this.resolutionStore != null) {
+                this.resolutionStore.close();
+                this.resolutionStore = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of times that the outcome of locating a manifest's dependencies has been served from the
+     * persistent resolution cache since it was last enabled.
+     * 
+     * @return the number of hits, or <code>0</code> if the persistent cache is disabled
+     */
+    public long getPersistentResolutionCacheHitCount() {
+        ResolutionStore store = this.resolutionStore;
+        return store == null ? 0 : store.getHitCount();
+    }
+
+    /**
+     * Returns the number of package, bundle and library lookups that this locator has made in the repository's
+     * indexes. A lookup that has already been made for the same import, by the same batch or by the previous result
+     * of an incremental location, is not made again and is not counted.
+     * 
+     * @return the number of lookups
+     */
+    public long getRepositoryLookupCount() {
+        return this.repositoryLookupCount.get();
+    }
+
+    /**
+     * Enables or disables the merging of fragments' exports. When enabled, a bundle that satisfies an
+     * <code>Import-Bundle</code>, <code>Import-Library</code> or <code>Require-Bundle</code> import contributes the
+     * packages exported by each of the fragments in the repository that may attach to it, as well as its own, and the
+     * locations of those fragments are included in the located dependencies. Fragments are found using an index from
+     * host symbolic name and version range to fragment that is built once per repository generation.
+     * 
+     * @param enabled <code>true</code> to merge fragments' exports, <code>false</code>, the default, to ignore
+     *        fragments
+     */
+    public void setFragmentExportsEnabled(boolean enabled) {
+        this.fragmentExportsEnabled = enabled;
+    }
+
+    /**
+     * Returns the bundles in the current repository generation, including the system bundle.
+     * 
+     * @return an unmodifiable snapshot of the bundles
+     */
     public Set<? extends ArtifactDescriptor> getBundles() {
     	return this.repository.getBundles();
     }
     
+    /**
+     * Returns the libraries in the current repository generation.
+     * 
+     * @return an unmodifiable snapshot of the libraries
+     */
     public Set<? extends ArtifactDescriptor> getLibraries() {
     	return this.repository.getLibraries();
     }
 
+    /**
+     * Picks up the artifacts that have been added to, changed in, or removed from the repository's search paths,
+     * including any additional search paths, since the repository was created or last refreshed. Only the affected
+     * artifacts are re-read and, if any have changed, a new repository generation begins.
+     * <p>
+     * Changes are picked up only by a refresh. Between refreshes every query reads the same generation.
+     */
+    public void refresh() {
+        this.repository.refresh();
+    }
+
+    /**
+     * Returns the generation of the repository within which dependencies are located. Generations increase
+     * monotonically and a new generation begins only when the repository's bundles or libraries change, so a caller
+     * that has retained the generation in which it last located dependencies can skip locating them again while the
+     * generation is unchanged.
+     * 
+     * @return the current repository generation
+     */
+    public long getGeneration() {
+        return this.repository.getGeneration();
+    }
+
+    /**
+     * Returns a cursor positioned at the start of a snapshot of the bundles in the current repository generation,
+     * including the system bundle. Paging through the bundles with the cursor does not copy them, and every page is
+     * consistent with the generation in which the cursor was created.
+     * 
+     * @return the cursor
+     */
+    public ArtifactCursor getBundleCursor() {
+        RepositorySnapshot snapshot = this.repository.getSnapshot();
+        return ArtifactCursor.create(snapshot.getBundles(), snapshot.getGeneration());
+    }
+
+    /**
+     * Returns a cursor positioned at the start of a snapshot of the libraries in the current repository generation.
+     * 
+     * @return the cursor
+     * @see #getBundleCursor()
+     */
+    public ArtifactCursor getLibraryCursor() {
+        RepositorySnapshot snapshot = this.repository.getSnapshot();
+        return ArtifactCursor.create(snapshot.getLibraries(), snapshot.getGeneration());
+    }
+
+    /**
+     * Returns an iterator over the bundles in the current repository generation that are selected by the supplied
+     * filter. The bundles are enumerated from a snapshot, as described by {@link #getBundleCursor()}.
+     * 
+     * @param filter the filter that selects bundles, or <code>null</code> to select every bundle
+     * @return the iterator
+     */
+    public Iterator<ArtifactDescriptor> iterateBundles(ArtifactFilter filter) {
+        return getBundleCursor().iterator(filter);
+    }
+
+    /**
+     * Returns an iterator over the libraries in the current repository generation that are selected by the supplied
+     * filter. The libraries are enumerated from a snapshot, as described by {@link #getLibraryCursor()}.
+     * 
+     * @param filter the filter that selects libraries, or <code>null</code> to select every library
+     * @return the iterator
+     */
+    public Iterator<ArtifactDescriptor> iterateLibraries(ArtifactFilter filter) {
+        return getLibraryCursor().iterator(filter);
+    }
+
+    /**
+     * Shuts down this locator. The repository of a locator that was {@link #createShared created shared} is not shut
+     * down, instead the locator's reference to it is released. Subsequent calls have no effect.
+     */
     public void shutdown() {
-        this.repository.shutdown();
+        if (!this.shutdown.compareAndSet(false, true)) {
+            return;
+        }
+        setPersistentResolutionCacheEnabled(false);
+        if (this.engineKey == null) {
+            this.engine.shutdown();
+        } else {
+            LocatorEngineRegistry.getSharedRegistry().release(this.engineKey);
+        }
     }
 
-    private static List<String> createListOfAllPackagesThatHaveAlreadyBeenSatisfied(Map<File, List<String>> dependencyLocations) {
-        List<String> packagesThatHaveBeenSatisfied = new ArrayList<String>();
+    private static Set<String> createSetOfAllPackagesThatHaveAlreadyBeenSatisfied(Map<File, List<String>> dependencyLocations) {
+        Set<String> packagesThatHaveBeenSatisfied = new HashSet<String>();
         for (Entry<File, List<String>> dependencyLocation : dependencyLocations.entrySet()) {
             packagesThatHaveBeenSatisfied.addAll(dependencyLocation.getValue());
 
@@ -171,31 +691,31 @@ public final class DependencyLocator {
     }
 
     private void processImportedBundles(List<ImportedBundle> importedBundles, Map<File, List<String>> dependencyLocations,
-        List<ImportDescriptor> unsatisfiableBundleImports) {
+        List<ImportDescriptor> unsatisfiableBundleImports, QueryCache queries, boolean mergeFragments) {
         for (ImportedBundle importedBundle : importedBundles) {
-            processImportedBundle(importedBundle, dependencyLocations, unsatisfiableBundleImports);
+            processImportedBundle(importedBundle, dependencyLocations, unsatisfiableBundleImports, queries, mergeFragments);
         }
     }
 
     private void processImportedBundle(ImportedBundle importedBundle, Map<File, List<String>> dependencyLocations,
-        List<ImportDescriptor> unsatisfiableBundleImports) {
+        List<ImportDescriptor> unsatisfiableBundleImports, QueryCache queries, boolean mergeFragments) {
         String symbolicName = importedBundle.getBundleSymbolicName();
         VersionRange bundleVersionRange = importedBundle.getVersion();
-        ArtifactDescriptor bundleDescriptor = findBundle(symbolicName, bundleVersionRange);
+        ArtifactDescriptor bundleDescriptor = queries.findBundle(symbolicName, bundleVersionRange);
         
         if (bundleDescriptor == null) {
             unsatisfiableBundleImports.add(new ImportDescriptor(symbolicName, bundleVersionRange.toString(), bundleVersionRange.toParseString()));
         } else {
-            registerDependencyLocationAndPackageNameForEveryExportedPackage(dependencyLocations, BundleManifestUtils.createBundleManifest(bundleDescriptor), null, bundleDescriptor.getUri());
+            registerDependencyLocationAndPackageNameForEveryExportedPackage(dependencyLocations, bundleDescriptor, queries, mergeFragments);
         }
     }
 
     private void processImportedLibraries(List<ImportedLibrary> importedLibraries, Map<File, List<String>> dependencyLocations,
-        List<ImportDescriptor> unsatisfiableLibraryImports) {
+        List<ImportDescriptor> unsatisfiableLibraryImports, QueryCache queries, boolean mergeFragments) {
         for (ImportedLibrary importedLibrary : importedLibraries) {
             String libraryName = importedLibrary.getLibrarySymbolicName();
             VersionRange versionRange = importedLibrary.getVersion();
-            ArtifactDescriptor libraryDescriptor = findLibrary(libraryName, versionRange);            
+            ArtifactDescriptor libraryDescriptor = queries.findLibrary(libraryName, versionRange);            
 
             if (libraryDescriptor != null) {
             	LibraryDefinition libraryDefinition = LibraryBridge.createLibraryDefinition(libraryDescriptor);
@@ -205,12 +725,12 @@ public final class DependencyLocator {
                     String symbolicName = libraryBundle.getBundleSymbolicName();
                     VersionRange bundleVersionRange = libraryBundle.getVersion();
                     
-                    ArtifactDescriptor bundleDescriptor = findBundle(symbolicName, bundleVersionRange);
+                    ArtifactDescriptor bundleDescriptor = queries.findBundle(symbolicName, bundleVersionRange);
 
                     if (bundleDescriptor == null) {
                         unsatisfiableLibraryImports.add(new ImportDescriptor(libraryName, versionRange.toString(), versionRange.toParseString()));
                     } else {
-                        registerDependencyLocationAndPackageNameForEveryExportedPackage(dependencyLocations, BundleManifestUtils.createBundleManifest(bundleDescriptor), null, bundleDescriptor.getUri());
+                        registerDependencyLocationAndPackageNameForEveryExportedPackage(dependencyLocations, bundleDescriptor, queries, mergeFragments);
                     }
                 }
             } else if (Resolution.MANDATORY.equals(importedLibrary.getResolution())) {
@@ -220,21 +740,31 @@ public final class DependencyLocator {
     }
 
     private void registerDependencyLocationAndPackageNameForEveryExportedPackage(Map<File, List<String>> dependencyLocations,
-        BundleManifest manifest, List<String> packagesThatHaveAlreadyBeenSatisfied, URI location) {        
-        for (ExportedPackage exportedPackage : manifest.getExportPackage().getExportedPackages()) {
-            if (packagesThatHaveAlreadyBeenSatisfied == null || !packagesThatHaveAlreadyBeenSatisfied.contains(exportedPackage.getPackageName())) {
-                registerPackageNameAgainstDependencyLocation(location, exportedPackage.getPackageName(), dependencyLocations);
+        ArtifactDescriptor bundleDescriptor, QueryCache queries, boolean mergeFragments) {
+        registerDependencyLocationAndPackageNameForEveryExportedPackage(dependencyLocations, BundleManifestUtils.getReadOnlyBundleManifest(bundleDescriptor),
+            bundleDescriptor.getUri());
+        if (mergeFragments) {
+            for (ArtifactDescriptor fragmentDescriptor : queries.findFragments(bundleDescriptor)) {
+                registerDependencyLocationAndPackageNameForEveryExportedPackage(dependencyLocations,
+                    BundleManifestUtils.getReadOnlyBundleManifest(fragmentDescriptor), fragmentDescriptor.getUri());
             }
         }
     }
 
+    private void registerDependencyLocationAndPackageNameForEveryExportedPackage(Map<File, List<String>> dependencyLocations,
+        BundleManifest manifest, URI location) {        
+        for (ExportedPackage exportedPackage : manifest.getExportPackage().getExportedPackages()) {
+            registerPackageNameAgainstDependencyLocation(location, exportedPackage.getPackageName(), dependencyLocations);
+        }
+    }
+
     private void processImportedPackages(List<ImportedPackage> importedPackages, Map<File, List<String>> dependencyLocations,
-        List<ImportDescriptor> unsatisfiablePackageImports) {
+        List<ImportDescriptor> unsatisfiablePackageImports, QueryCache queries) {
         for (ImportedPackage importedPackage : importedPackages) {
 
             VersionRange versionRange = importedPackage.getVersion();
             String packageName = importedPackage.getPackageName();
-            Set<ArtifactDescriptor> bundleDescriptors = this.repository.findByExportedPackage(packageName, versionRange);
+            Set<ArtifactDescriptor> bundleDescriptors = queries.findByExportedPackage(packageName, versionRange);
             if (bundleDescriptors.size() > 0) {
                 for (ArtifactDescriptor bundleDescriptor : bundleDescriptors) {
                     registerPackageNameAgainstDependencyLocation(bundleDescriptor.getUri(), packageName, dependencyLocations);
@@ -246,43 +776,157 @@ public final class DependencyLocator {
         }
     }
 
+    /**
+     * Registers the packages exported by each required bundle and by every bundle that it transitively re-exports,
+     * other than those that have already been satisfied. Each bundle's re-export closure is computed once per
+     * repository generation, and a bundle that is reached through more than one required bundle is registered once.
+     */
     private void processRequiredBundles(List<RequiredBundle> requiredBundles, Map<File, List<String>> dependencyLocations,
-        List<ImportDescriptor> unsatisfiableRequireBundles, List<String> packagesThatHaveAlreadyBeenSatisfied, boolean root) {
+        List<ImportDescriptor> unsatisfiableRequireBundles, Set<String> packagesThatHaveAlreadyBeenSatisfied, QueryCache queries,
+        boolean mergeFragments) {
+
+        Set<ArtifactDescriptor> registeredBundles = new HashSet<ArtifactDescriptor>();
+        Set<ImportDescriptor> reportedRequireBundles = Collections.newSetFromMap(new IdentityHashMap<ImportDescriptor, Boolean>());
 
         for (RequiredBundle requiredBundle : requiredBundles) {
-            if (root || Visibility.REEXPORT.equals(requiredBundle.getVisibility())) {
-                String bundleSymbolicName = requiredBundle.getBundleSymbolicName();
-                String bundleVersion = requiredBundle.getAttributes().get(Constants.BUNDLE_VERSION_ATTRIBUTE);
-                VersionRange versionRange;
-                if (bundleVersion != null) {
-                    versionRange = new VersionRange(bundleVersion);
-                } else {
-                    versionRange = VersionRange.NATURAL_NUMBER_RANGE;
+            String bundleSymbolicName = requiredBundle.getBundleSymbolicName();
+            VersionRange versionRange = getVersionRange(requiredBundle);
+            ArtifactDescriptor artifactDescriptor = queries.findBundle(bundleSymbolicName, versionRange);
+            if (artifactDescriptor != null) {
+                Closure closure = this.requireBundleClosures.getClosure(artifactDescriptor, queries);
+                for (Entry<ArtifactDescriptor, List<String>> member : closure.getExportedPackages().entrySet()) {
+                    if (registeredBundles.add(member.getKey())) {
+                        registerUnsatisfiedPackages(member.getKey().getUri(), member.getValue(), packagesThatHaveAlreadyBeenSatisfied, dependencyLocations);
+                        if (mergeFragments) {
+                            for (ArtifactDescriptor fragmentDescriptor : queries.findFragments(member.getKey())) {
+                                if (registeredBundles.add(fragmentDescriptor)) {
+                                    registerUnsatisfiedPackages(fragmentDescriptor.getUri(), getExportedPackageNames(fragmentDescriptor),
+                                        packagesThatHaveAlreadyBeenSatisfied, dependencyLocations);
+                                }
+                            }
+                        }
+                    }
                 }
-                ArtifactDescriptor artifactDescriptor = findBundle(bundleSymbolicName, versionRange);
-                if (artifactDescriptor != null) {
-                	BundleManifest bundleManifest = BundleManifestUtils.createBundleManifest(artifactDescriptor);
-                    registerDependencyLocationAndPackageNameForEveryExportedPackage(dependencyLocations, bundleManifest,
-                        packagesThatHaveAlreadyBeenSatisfied, artifactDescriptor.getUri());
-                    List<RequiredBundle> dependencysRequiredBundles = bundleManifest.getRequireBundle().getRequiredBundles();
-                    processRequiredBundles(dependencysRequiredBundles, dependencyLocations, unsatisfiableRequireBundles,
-                        packagesThatHaveAlreadyBeenSatisfied, false);
-                } else if (Resolution.MANDATORY.equals(requiredBundle.getResolution())) {
-                    unsatisfiableRequireBundles.add(new ImportDescriptor(requiredBundle.getBundleSymbolicName(), versionRange.toString(),
-                        versionRange.toParseString()));
+                for (ImportDescriptor unsatisfiableRequireBundle : closure.getUnsatisfiableRequireBundles()) {
+                    if (reportedRequireBundles.add(unsatisfiableRequireBundle)) {
+                        unsatisfiableRequireBundles.add(unsatisfiableRequireBundle);
+                    }
                 }
+            } else if (Resolution.MANDATORY.equals(requiredBundle.getResolution())) {
+                unsatisfiableRequireBundles.add(new ImportDescriptor(bundleSymbolicName, versionRange.toString(), versionRange.toParseString()));
             }
         }
     }
     
-    private ArtifactDescriptor findBundle(String symbolicName, VersionRange versionRange) {
-    	return this.repository.get(BundleBridge.BRIDGE_TYPE, symbolicName, versionRange);
+    private void registerUnsatisfiedPackages(URI location, List<String> packageNames, Set<String> packagesThatHaveAlreadyBeenSatisfied,
+        Map<File, List<String>> dependencyLocations) {
+        for (String packageName : packageNames) {
+            if (!packagesThatHaveAlreadyBeenSatisfied.contains(packageName)) {
+                registerPackageNameAgainstDependencyLocation(location, packageName, dependencyLocations);
+            }
+        }
     }
-    
-    private ArtifactDescriptor findLibrary(String symbolicName, VersionRange versionRange) {
-    	return this.repository.get(LibraryDefinition.LIBRARY_TYPE, symbolicName, versionRange);
+
+    private static List<String> getExportedPackageNames(ArtifactDescriptor bundleDescriptor) {
+        List<String> packageNames = new ArrayList<String>();
+        for (ExportedPackage exportedPackage : BundleManifestUtils.getReadOnlyBundleManifest(bundleDescriptor).getExportPackage().getExportedPackages()) {
+            packageNames.add(exportedPackage.getPackageName());
+        }
+        return packageNames;
     }
-    
+
+    static VersionRange getVersionRange(RequiredBundle requiredBundle) {
+        String bundleVersion = requiredBundle.getAttributes().get(Constants.BUNDLE_VERSION_ATTRIBUTE);
+        if (bundleVersion != null) {
+            return new VersionRange(bundleVersion);
+        } else {
+            return VersionRange.NATURAL_NUMBER_RANGE;
+        }
+    }
+
+    /**
+     * Performs all of the lookups required by the supplied manifest's headers in parallel, recording their results in
+     * the supplied <code>QueryCache</code> and warming the shared manifest cache, so that the subsequent sequential
+     * processing of the headers is served entirely from memory.
+     */
+    private void prefetch(BundleManifest manifest, final QueryCache queries, ExecutorService executorService) {
+        List<Callable<Void>> lookups = new ArrayList<Callable<Void>>();
+
+        for (final ImportedPackage importedPackage : manifest.getImportPackage().getImportedPackages()) {
+            lookups.add(new Callable<Void>() {
+
+                public Void call() {
+                    queries.findByExportedPackage(importedPackage.getPackageName(), importedPackage.getVersion());
+                    return null;
+                }
+            });
+        }
+        for (ImportedBundle importedBundle : manifest.getImportBundle().getImportedBundles()) {
+            lookups.add(createBundleLookup(importedBundle.getBundleSymbolicName(), importedBundle.getVersion(), queries));
+        }
+        for (RequiredBundle requiredBundle : manifest.getRequireBundle().getRequiredBundles()) {
+            lookups.add(createBundleLookup(requiredBundle.getBundleSymbolicName(), getVersionRange(requiredBundle), queries));
+        }
+        for (final ImportedLibrary importedLibrary : manifest.getImportLibrary().getImportedLibraries()) {
+            lookups.add(new Callable<Void>() {
+
+                public Void call() {
+                    ArtifactDescriptor libraryDescriptor = queries.findLibrary(importedLibrary.getLibrarySymbolicName(), importedLibrary.getVersion());
+                    if (libraryDescriptor != null) {
+                        for (ImportedBundle libraryBundle : LibraryBridge.createLibraryDefinition(libraryDescriptor).getLibraryBundles()) {
+                            lookUpBundle(libraryBundle.getBundleSymbolicName(), libraryBundle.getVersion(), queries);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+
+        List<Future<Void>> prefetches = new ArrayList<Future<Void>>(lookups.size());
+        try {
+            for (Callable<Void> lookup : lookups) {
+                prefetches.add(executorService.submit(lookup));
+            }
+            for (Future<Void> prefetch : prefetches) {
+                try {
+                    prefetch.get();
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException("Dependency lookup failed", cause);
+                }
+            }
+        } catch (InterruptedException ie) {
+            // Any lookups that did not complete will be performed sequentially
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Future<Void> prefetch : prefetches) {
+                prefetch.cancel(true);
+            }
+        }
+    }
+
+    private static Callable<Void> createBundleLookup(final String symbolicName, final VersionRange versionRange, final QueryCache queries) {
+        return new Callable<Void>() {
+
+            public Void call() {
+                lookUpBundle(symbolicName, versionRange, queries);
+                return null;
+            }
+        };
+    }
+
+    private static void lookUpBundle(String symbolicName, VersionRange versionRange, QueryCache queries) {
+        ArtifactDescriptor bundleDescriptor = queries.findBundle(symbolicName, versionRange);
+        if (bundleDescriptor != null) {
+            BundleManifestUtils.getReadOnlyBundleManifest(bundleDescriptor);
+        }
+    }
+
     private void registerPackageNameAgainstDependencyLocation(URI location, String packageName, Map<File, List<String>> dependencyLocations) {
         File fileLocation;
         if (location != null) {
@@ -297,19 +941,4 @@ public final class DependencyLocator {
         }
         existingPackageNames.add(packageName);
     }
-
-    private void throwDependencyLocationExceptionIfNecessary(List<ImportDescriptor> unsatisfiablePackageImports,
-        List<ImportDescriptor> unsatisfiableBundleImports, List<ImportDescriptor> unsatisfiableLibraryImports,
-        List<ImportDescriptor> unsatisfiableRequireBundles, Map<File, List<String>> satisfiedDependencies) {
-
-        if (!unsatisfiableLibraryImports.isEmpty() || !unsatisfiablePackageImports.isEmpty() || !unsatisfiableRequireBundles.isEmpty()
-            || !unsatisfiableBundleImports.isEmpty()) {
-            throw new DependencyLocationException(toArray(unsatisfiablePackageImports), toArray(unsatisfiableBundleImports),
-                toArray(unsatisfiableLibraryImports), toArray(unsatisfiableRequireBundles), satisfiedDependencies);
-        }
-    }
-
-    private static ImportDescriptor[] toArray(List<ImportDescriptor> importDescriptors) {
-        return importDescriptors.toArray(new ImportDescriptor[importDescriptors.size()]);
-    }
 }
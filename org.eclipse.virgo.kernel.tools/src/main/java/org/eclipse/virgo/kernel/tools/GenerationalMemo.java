@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Memoizes values for a single repository generation. The memo is replaced by an empty memo when a newer generation is
+ * seen, and values from a generation older than the newest that has been seen are discarded. A memo may be bounded, in
+ * which case the least recently used value is evicted to make room for a new one.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe. The memo moves to a newer generation by atomically replacing the map of the current generation. An
+ * unbounded memo holds its values in a concurrent map and is lock-free; a bounded memo holds them in an access-ordered
+ * map that is guarded by its own monitor.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the memoized values
+ */
+final class GenerationalMemo<K, V> {
+
+    private static final int UNBOUNDED = -1;
+
+    private final int maximumSize;
+
+    private final AtomicReference<Generation<K, V>> current;
+
+    /**
+     * Creates an unbounded memo.
+     */
+    GenerationalMemo() {
+        this(UNBOUNDED);
+    }
+
+    /**
+     * Creates a memo that holds at most <code>maximumSize</code> values for a generation.
+     */
+    GenerationalMemo(int maximumSize) {
+        this.maximumSize = maximumSize;
+        this.current = new AtomicReference<Generation<K, V>>(new Generation<K, V>(-1, createValues()));
+    }
+
+    /**
+     * Returns the value memoized for the supplied key in the supplied repository generation, or <code>null</code> if
+     * there is no such value.
+     */
+    V get(K key, long generation) {
+        Generation<K, V> memo = advanceGeneration(generation);
+        return memo == null ? null : memo.values.get(key);
+    }
+
+    /**
+     * Memoizes the supplied value for the supplied key in the supplied repository generation.
+     */
+    void put(K key, long generation, V value) {
+        Generation<K, V> memo = advanceGeneration(generation);
+        if (memo != null) {
+            memo.values.put(key, value);
+        }
+    }
+
+    /**
+     * Memoizes each of the supplied values in the supplied repository generation.
+     */
+    void putAll(Map<? extends K, ? extends V> values, long generation) {
+        Generation<K, V> memo = advanceGeneration(generation);
+        if (memo != null) {
+            memo.values.putAll(values);
+        }
+    }
+
+    /**
+     * Returns the memo of the supplied generation, replacing the current memo if the generation is newer, or
+     * <code>null</code> if a newer generation has already been seen.
+     */
+    private Generation<K, V> advanceGeneration(long generation) {
+        Generation<K, V> memo = this.current.get();
+        while (memo.generation < generation) {
+            Generation<K, V> next = new Generation<K, V>(generation, createValues());
+            if (this.current.compareAndSet(memo, next)) {
+                return next;
+            }
+            memo = this.current.get();
+        }
+        return memo.generation == generation ? memo : null;
+    }
+
+    private Map<K, V> createValues() {
+        final int maximumSize = this.maximumSize;
+        if (maximumSize == UNBOUNDED) {
+            return new ConcurrentHashMap<K, V>();
+        }
+        return Collections.synchronizedMap(new LinkedHashMap<K, V>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Entry<K, V> eldest) {
+                return size() > maximumSize;
+            }
+        });
+    }
+
+    private static final class Generation<K, V> {
+
+        private final long generation;
+
+        private final Map<K, V> values;
+
+        private Generation(long generation, Map<K, V> values) {
+            this.generation = generation;
+            this.values = values;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+package org.eclipse.virgo.kernel.tools;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.eclipse.virgo.kernel.tools.internal.SystemPackageFilteringRepository;
+
+/**
+ * The state of a {@link DependencyLocator} that depends only upon the kernel and search paths within which
+ * dependencies are located: the repository, with its system package table and indexes, and the memos of the work
+ * done while locating dependencies in each of its generations. An engine may be shared by every locator of the same
+ * kernel and search paths, see {@link LocatorEngineRegistry}.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe.
+ *
+ */
+final class LocatorEngine implements LocatorEngineRegistry.Engine {
+
+    private final SystemPackageFilteringRepository repository;
+
+    private final ResolutionMemo resolutionMemo = new ResolutionMemo();
+
+    private final ResolutionMemo fragmentAwareResolutionMemo = new ResolutionMemo();
+
+    private final RequireBundleClosures requireBundleClosures = new RequireBundleClosures();
+
+    private final ProviderMemo providerMemo = new ProviderMemo();
+
+    private final ProviderMemo fragmentAwareProviderMemo = new ProviderMemo();
+
+    LocatorEngine(SystemPackageFilteringRepository repository) {
+        this.repository = repository;
+    }
+
+    SystemPackageFilteringRepository getRepository() {
+        return this.repository;
+    }
+
+    ResolutionMemo getResolutionMemo() {
+        return this.resolutionMemo;
+    }
+
+    ResolutionMemo getFragmentAwareResolutionMemo() {
+        return this.fragmentAwareResolutionMemo;
+    }
+
+    RequireBundleClosures getRequireBundleClosures() {
+        return this.requireBundleClosures;
+    }
+
+    ProviderMemo getProviderMemo() {
+        return this.providerMemo;
+    }
+
+    ProviderMemo getFragmentAwareProviderMemo() {
+        return this.fragmentAwareProviderMemo;
+    }
+
+    /**
+     * Returns the number of artifacts in the repository generation that this engine has published, or <code>0</code>
+     * if it has yet to publish one, without waiting for it to start.
+     */
+    public long getArtifactCount() {
+        return this.repository.getArtifactCount();
+    }
+
+    /**
+     * Returns <code>true</code> if this engine's startup has failed or been cancelled, such that it can never be used.
+     */
+    public boolean hasFailed() {
+        Future<Void> readiness = this.repository.getReadiness();
+        if (!readiness.isDone()) {
+            return false;
+        }
+        try {
+            readiness.get();
+            return false;
+        } catch (CancellationException ce) {
+            return true;
+        } catch (ExecutionException ee) {
+            return true;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public void shutdown() {
+        this.repository.shutdown();
+    }
+}
@@ -0,0 +1,363 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+package org.eclipse.virgo.kernel.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A process-wide registry of the {@link Engine engines} that are shared by {@link DependencyLocator DependencyLocators}
+ * and {@link Pre35DependencyLocator Pre35DependencyLocators}. Engines are keyed by their kernel's {@link Layout layout},
+ * the canonical paths of their kernel's home, additional search paths and index directory, so the cost of starting an
+ * engine, and the memory that it retains, is paid once for each distinct kernel however many locators use it, and
+ * engines never share index files.
+ * <p />
+ * Engines are reference counted. An engine that is no longer referenced is kept idle so that a subsequent locator of
+ * the same kernel may reuse it, and idle engines are shut down, least recently used first, once there are more than
+ * <code>org.eclipse.virgo.kernel.tools.maxIdleEngines</code> of them or they hold more than
+ * <code>org.eclipse.virgo.kernel.tools.idleEngineArtifacts</code> artifacts between them. The number of artifacts that
+ * an engine holds stands in for the memory that it retains, which is not measured. An engine whose startup has failed
+ * is never kept.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe. An engine is created at most once, in the thread that first acquires it, and other threads that
+ * acquire it meanwhile wait for its creation rather than creating their own.
+ *
+ */
+final class LocatorEngineRegistry {
+
+    private static final String MAXIMUM_IDLE_ENGINES_PROPERTY = "org.eclipse.virgo.kernel.tools.maxIdleEngines";
+
+    private static final String IDLE_ARTIFACTS_PROPERTY = "org.eclipse.virgo.kernel.tools.idleEngineArtifacts";
+
+    private static final int DEFAULT_MAXIMUM_IDLE_ENGINES = 4;
+
+    private static final long DEFAULT_IDLE_ARTIFACTS = 32 * 1024;
+
+    private static final LocatorEngineRegistry SHARED_REGISTRY = new LocatorEngineRegistry(Integer.getInteger(MAXIMUM_IDLE_ENGINES_PROPERTY,
+        DEFAULT_MAXIMUM_IDLE_ENGINES), Long.getLong(IDLE_ARTIFACTS_PROPERTY, DEFAULT_IDLE_ARTIFACTS));
+
+    private final Object monitor = new Object();
+
+    private final Map<Key, Entry> entries = new HashMap<Key, Entry>();
+
+    private final LinkedHashMap<Key, Entry> idleEntries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+    private final int maximumIdleEngines;
+
+    private final long maximumIdleArtifacts;
+
+    private long idleArtifacts;
+
+    LocatorEngineRegistry(int maximumIdleEngines, long maximumIdleArtifacts) {
+        this.maximumIdleEngines = maximumIdleEngines;
+        this.maximumIdleArtifacts = maximumIdleArtifacts;
+    }
+
+    /**
+     * Returns the registry shared by all of the locators in the process.
+     */
+    static LocatorEngineRegistry getSharedRegistry() {
+        return SHARED_REGISTRY;
+    }
+
+    /**
+     * Creates the key of the engine of the kernel with the supplied layout at the supplied home, with the supplied
+     * additional search paths, that writes its index files to the supplied directory.
+     *
+     * @throws IOException if a path cannot be canonicalized
+     */
+    static Key createKey(Layout layout, String kernelHomePath, String[] additionalSearchPaths, String indexDirectoryPath) throws IOException {
+        List<String> searchPaths;
+        if (additionalSearchPaths == null) {
+            searchPaths = Collections.<String> emptyList();
+        } else {
+            String[] canonicalSearchPaths = new String[additionalSearchPaths.length];
+            for (int i = 0; i < additionalSearchPaths.length; i++) {
+                canonicalSearchPaths[i] = canonicalizeSearchPath(additionalSearchPaths[i]);
+            }
+            searchPaths = Arrays.asList(canonicalSearchPaths);
+        }
+        return new Key(layout, new File(kernelHomePath).getCanonicalPath(), searchPaths, new File(indexDirectoryPath).getCanonicalPath());
+    }
+
+    /**
+     * Canonicalizes the directories of the supplied search path that precede its first wildcard, leaving the wildcards
+     * and whatever follows them untouched.
+     */
+    private static String canonicalizeSearchPath(String searchPath) throws IOException {
+        int wildcard = indexOfWildcard(searchPath);
+        if (wildcard < 0) {
+            return new File(searchPath).getCanonicalPath();
+        }
+        int separator = Math.max(searchPath.lastIndexOf('/', wildcard), searchPath.lastIndexOf(File.separatorChar, wildcard));
+        String directory;
+        if (separator < 0) {
+            directory = ".";
+        } else if (separator == 0) {
+            directory = File.separator;
+        } else {
+            directory = searchPath.substring(0, separator);
+        }
+        String canonicalDirectory = new File(directory).getCanonicalPath();
+        if (!canonicalDirectory.endsWith(File.separator)) {
+            canonicalDirectory += File.separator;
+        }
+        return canonicalDirectory + searchPath.substring(separator + 1);
+    }
+
+    private static int indexOfWildcard(String searchPath) {
+        for (int i = 0; i < searchPath.length(); i++) {
+            char c = searchPath.charAt(i);
+            if (c == '*' || c == '?' || c == '{') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Acquires a reference to the engine with the supplied key, using the supplied factory to create it if there is no
+     * such engine. Each successful acquisition must be balanced by a {@link #release(Key) release}.
+     *
+     * @throws IOException if the engine cannot be created
+     */
+    @SuppressWarnings("unchecked")
+    <E extends Engine> E acquire(Key key, Callable<E> factory) throws IOException {
+        FutureTask<E> creation = null;
+        Entry entry;
+        synchronized (this.monitor) {
+            entry = this.entries.get(key);
+            if (entry == null) {
+                creation = new FutureTask<E>(factory);
+                entry = new Entry(creation);
+                this.entries.put(key, entry);
+            } else if (entry.references == 0) {
+                this.idleEntries.remove(key);
+                this.idleArtifacts -= entry.artifactCount;
+            }
+            entry.references++;
+        }
+
+        if (creation != null) {
+            creation.run();
+        }
+
+        try {
+            // The layout in the key determines the type of the engine, so every factory for a key creates the same type
+            return (E) entry.engine.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            abandon(key, entry);
+            throw new IllegalStateException("Interrupted while waiting for the locator engine to be created", ie);
+        } catch (ExecutionException ee) {
+            abandon(key, entry);
+            Throwable cause = ee.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Locator engine creation failed", cause);
+        }
+    }
+
+    /**
+     * Releases a reference to the engine with the supplied key. An engine that is no longer referenced becomes idle,
+     * unless its startup has failed, and idle engines are then shut down as necessary to stay within the registry's
+     * limits.
+     */
+    void release(Key key) {
+        Entry entry;
+        synchronized (this.monitor) {
+            entry = this.entries.get(key);
+        }
+        if (entry == null) {
+            return;
+        }
+
+        Engine engine = getCreatedEngine(entry);
+        boolean failed = engine == null || engine.hasFailed();
+        long artifactCount = failed ? 0 : engine.getArtifactCount();
+
+        List<Engine> evicted = new ArrayList<Engine>();
+        synchronized (this.monitor) {
+            if (--entry.references > 0) {
+                return;
+            }
+            if (failed) {
+                this.entries.remove(key);
+                if (engine != null) {
+                    evicted.add(engine);
+                }
+            } else {
+                entry.artifactCount = artifactCount;
+                this.idleEntries.put(key, entry);
+                this.idleArtifacts += artifactCount;
+                evictIdleEntries(evicted);
+            }
+        }
+
+        for (Engine evictedEngine : evicted) {
+            evictedEngine.shutdown();
+        }
+    }
+
+    private void evictIdleEntries(List<Engine> evicted) {
+        Iterator<Map.Entry<Key, Entry>> eldest = this.idleEntries.entrySet().iterator();
+        while (eldest.hasNext() && (this.idleEntries.size() > this.maximumIdleEngines || this.idleArtifacts > this.maximumIdleArtifacts)) {
+            Map.Entry<Key, Entry> idleEntry = eldest.next();
+            eldest.remove();
+            this.entries.remove(idleEntry.getKey());
+            this.idleArtifacts -= idleEntry.getValue().artifactCount;
+            Engine engine = getCreatedEngine(idleEntry.getValue());
+            if (engine != null) {
+                evicted.add(engine);
+            }
+        }
+    }
+
+    /**
+     * Drops an acquisition that failed to obtain its engine. An engine whose creation failed is forgotten so that a
+     * subsequent acquisition will attempt to create it again.
+     */
+    private void abandon(Key key, Entry entry) {
+        synchronized (this.monitor) {
+            entry.references--;
+            if (this.entries.get(key) == entry && entry.engine.isDone()) {
+                this.entries.remove(key);
+            }
+        }
+    }
+
+    private static Engine getCreatedEngine(Entry entry) {
+        if (!entry.engine.isDone()) {
+            return null;
+        }
+        try {
+            return entry.engine.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException ee) {
+            return null;
+        }
+    }
+
+    private static final class Entry {
+
+        private final FutureTask<? extends Engine> engine;
+
+        private int references;
+
+        private long artifactCount;
+
+        private Entry(FutureTask<? extends Engine> engine) {
+            this.engine = engine;
+        }
+    }
+
+    /**
+     * The state shared by the locators of a kernel.
+     */
+    interface Engine {
+
+        /**
+         * Returns the number of artifacts held by this engine, which bounds the memory that it retains. Must be cheap
+         * and must not block, as it is called as a reference to the engine is released.
+         */
+        long getArtifactCount();
+
+        /**
+         * Returns <code>true</code> if this engine's startup has failed, such that it can never be used.
+         */
+        boolean hasFailed();
+
+        void shutdown();
+    }
+
+    /**
+     * The layouts of kernel installation, each of which is searched by a different type of engine.
+     */
+    enum Layout {
+
+        /**
+         * The layout searched by a {@link DependencyLocator} and its {@link LocatorEngine}.
+         */
+        CURRENT,
+
+        /**
+         * The layout searched by a {@link Pre35DependencyLocator} and its {@link Pre35LocatorEngine}.
+         */
+        PRE_35
+    }
+
+    /**
+     * The immutable key of an engine.
+     */
+    static final class Key {
+
+        private final Layout layout;
+
+        private final String kernelHome;
+
+        private final List<String> additionalSearchPaths;
+
+        private final String indexDirectory;
+
+        private Key(Layout layout, String kernelHome, List<String> additionalSearchPaths, String indexDirectory) {
+            this.layout = layout;
+            this.kernelHome = kernelHome;
+            this.additionalSearchPaths = additionalSearchPaths;
+            this.indexDirectory = indexDirectory;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = this.layout.hashCode();
+            hash = hash * 31 + this.kernelHome.hashCode();
+            hash = hash * 31 + this.additionalSearchPaths.hashCode();
+            return hash * 31 + this.indexDirectory.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return this.layout == other.layout && this.kernelHome.equals(other.kernelHome)
+                && this.additionalSearchPaths.equals(other.additionalSearchPaths) && this.indexDirectory.equals(other.indexDirectory);
+        }
+
+        @Override
+        public String toString() {
+            return this.layout + " " + this.kernelHome + " " + this.additionalSearchPaths + " " + this.indexDirectory;
+        }
+    }
+}
@@ -16,15 +16,19 @@ import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.eclipse.virgo.kernel.artifact.bundle.BundleBridge;
 import org.eclipse.virgo.kernel.artifact.library.LibraryBridge;
 import org.eclipse.virgo.kernel.artifact.library.LibraryDefinition;
 import org.eclipse.virgo.kernel.tools.internal.BundleManifestUtils;
+import org.eclipse.virgo.kernel.tools.internal.ExportedPackageIndex;
 import org.eclipse.virgo.kernel.tools.internal.Pre35SystemPackageFilteringRepository;
 import org.eclipse.virgo.medic.eventlog.EventLogger;
 import org.eclipse.virgo.repository.ArtifactDescriptor;
@@ -52,6 +56,12 @@ public final class Pre35DependencyLocator {
 
     private final Pre35SystemPackageFilteringRepository repository;
 
+    private final Pre35LocatorEngine engine;
+
+    private final LocatorEngineRegistry.Key engineKey;
+
+    private final AtomicBoolean shutdown = new AtomicBoolean();
+
     /**
      * Creates a new <code>DependencyLocator</code> that will search for dependencies within the kernel instance located
      * at the supplied <code>kernelHomePath</code>. To improve search performance, artifacts locations, and the
@@ -87,8 +97,51 @@ public final class Pre35DependencyLocator {
      */
     public Pre35DependencyLocator(String kernelHomePath, String[] additionalSearchPaths, String indexDirectoryPath, EventLogger eventLogger, BundleContext bundleContext)
         throws IOException {
-        this.repository = new Pre35SystemPackageFilteringRepository(kernelHomePath, additionalSearchPaths, indexDirectoryPath,
-            eventLogger, bundleContext);
+        this(new Pre35LocatorEngine(new Pre35SystemPackageFilteringRepository(kernelHomePath, additionalSearchPaths, indexDirectoryPath,
+            eventLogger, bundleContext)), null);
+    }
+
+    private Pre35DependencyLocator(Pre35LocatorEngine engine, LocatorEngineRegistry.Key engineKey) {
+        this.engine = engine;
+        this.engineKey = engineKey;
+        this.repository = engine.getRepository();
+    }
+
+    /**
+     * Returns a new <code>Pre35DependencyLocator</code> that will search for dependencies within the Kernel instance
+     * located at the supplied <code>kernelHomePath</code> and the supplied <code>additionalSearchPaths</code>, exactly
+     * as {@link #Pre35DependencyLocator(String, String[], String, EventLogger, BundleContext)} does, except that the
+     * locator shares its repository and indexes with every other shared <code>Pre35DependencyLocator</code> of the
+     * same kernel, additional search paths and index directory in the process.
+     * <p>
+     * Shutting down a shared locator releases its reference to the shared state, which is kept, for reuse by a
+     * subsequent shared locator, until it is evicted. The shared state is created using the <code>EventLogger</code>
+     * and <code>BundleContext</code> of the locator that first needs it, and remains bound to them, and to the index
+     * state that it found in the index directory, for as long as it is kept.
+     * 
+     * @param kernelHomePath The path to the kernel installation from within which dependencies are to be located
+     * @param additionalSearchPaths The additional search paths to use to locate the artifacts that can satisfy
+     *        dependencies
+     * @param indexDirectoryPath The path of the directory to which index files should be written
+     * @param eventLogger The <code>EventLogger</code> to use to log events during dependency location
+     * @param bundleContext The <code>BundleContext</code> to be used for service lookups
+     * @return the new locator
+     * 
+     * @throws IOException if the shared state is created and a problem occurs loading and parsing the configuration of
+     *         the Server instance.
+     */
+    public static Pre35DependencyLocator createShared(final String kernelHomePath, final String[] additionalSearchPaths,
+        final String indexDirectoryPath, final EventLogger eventLogger, final BundleContext bundleContext) throws IOException {
+        LocatorEngineRegistry.Key key = LocatorEngineRegistry.createKey(LocatorEngineRegistry.Layout.PRE_35, kernelHomePath, additionalSearchPaths,
+            indexDirectoryPath);
+        Pre35LocatorEngine engine = LocatorEngineRegistry.getSharedRegistry().acquire(key, new Callable<Pre35LocatorEngine>() {
+
+            public Pre35LocatorEngine call() throws IOException {
+                return new Pre35LocatorEngine(new Pre35SystemPackageFilteringRepository(kernelHomePath, additionalSearchPaths,
+                    indexDirectoryPath, eventLogger, bundleContext));
+            }
+        });
+        return new Pre35DependencyLocator(engine, key);
     }
 
     /**
@@ -133,14 +186,17 @@ public final class Pre35DependencyLocator {
 
         Map<File, List<String>> dependencyLocations = new HashMap<File, List<String>>();
 
-        processImportedPackages(manifest.getImportPackage().getImportedPackages(), dependencyLocations, unsatisfiablePackageImports);
+        ExportedPackageIndex exportedPackageIndex = this.repository.getExportedPackageIndex();
+
+        processImportedPackages(manifest.getImportPackage().getImportedPackages(), dependencyLocations, unsatisfiablePackageImports, exportedPackageIndex);
 
-        processImportedLibraries(manifest.getImportLibrary().getImportedLibraries(), dependencyLocations, unsatisfiableLibraryImports);
+        processImportedLibraries(manifest.getImportLibrary().getImportedLibraries(), dependencyLocations, unsatisfiableLibraryImports, exportedPackageIndex);
 
-        processImportedBundles(manifest.getImportBundle().getImportedBundles(), dependencyLocations, unsatisfiableBundleImports);
+        processImportedBundles(manifest.getImportBundle().getImportedBundles(), dependencyLocations, unsatisfiableBundleImports, exportedPackageIndex);
 
         List<String> packageNames = createListOfAllPackagesThatHaveAlreadyBeenSatisfied(dependencyLocations);
-        processRequiredBundles(manifest.getRequireBundle().getRequiredBundles(), dependencyLocations, unsatisfiableRequireBundles, packageNames, true);
+        processRequiredBundles(manifest.getRequireBundle().getRequiredBundles(), dependencyLocations, unsatisfiableRequireBundles, packageNames, true,
+            new HashSet<ArtifactDescriptor>(), exportedPackageIndex);
 
         throwDependencyLocationExceptionIfNecessary(unsatisfiablePackageImports, unsatisfiableBundleImports, unsatisfiableLibraryImports,
             unsatisfiableRequireBundles, dependencyLocations);
@@ -156,8 +212,19 @@ public final class Pre35DependencyLocator {
     	return this.repository.getLibraries();
     }
 
+    /**
+     * Shuts down this locator. The repository of a locator that was {@link #createShared created shared} is not shut
+     * down, instead the locator's reference to it is released. Subsequent calls have no effect.
+     */
     public void shutdown() {
-        this.repository.shutdown();
+        if (!this.shutdown.compareAndSet(false, true)) {
+            return;
+        }
+        if (this.engineKey == null) {
+            this.engine.shutdown();
+        } else {
+            LocatorEngineRegistry.getSharedRegistry().release(this.engineKey);
+        }
     }
 
     private static List<String> createListOfAllPackagesThatHaveAlreadyBeenSatisfied(Map<File, List<String>> dependencyLocations) {
@@ -170,31 +237,31 @@ public final class Pre35DependencyLocator {
     }
 
     private void processImportedBundles(List<ImportedBundle> importedBundles, Map<File, List<String>> dependencyLocations,
-        List<ImportDescriptor> unsatisfiableBundleImports) {
+        List<ImportDescriptor> unsatisfiableBundleImports, ExportedPackageIndex exportedPackageIndex) {
         for (ImportedBundle importedBundle : importedBundles) {
-            processImportedBundle(importedBundle, dependencyLocations, unsatisfiableBundleImports);
+            processImportedBundle(importedBundle, dependencyLocations, unsatisfiableBundleImports, exportedPackageIndex);
         }
     }
 
     private void processImportedBundle(ImportedBundle importedBundle, Map<File, List<String>> dependencyLocations,
-        List<ImportDescriptor> unsatisfiableBundleImports) {
+        List<ImportDescriptor> unsatisfiableBundleImports, ExportedPackageIndex exportedPackageIndex) {
         String symbolicName = importedBundle.getBundleSymbolicName();
         VersionRange bundleVersionRange = importedBundle.getVersion();
-        ArtifactDescriptor bundleDescriptor = findBundle(symbolicName, bundleVersionRange);
+        ArtifactDescriptor bundleDescriptor = findBundle(exportedPackageIndex, symbolicName, bundleVersionRange);
         
         if (bundleDescriptor == null) {
             unsatisfiableBundleImports.add(new ImportDescriptor(symbolicName, bundleVersionRange.toString(), bundleVersionRange.toParseString()));
         } else {
-            registerDependencyLocationAndPackageNameForEveryExportedPackage(dependencyLocations, BundleManifestUtils.createBundleManifest(bundleDescriptor), null, bundleDescriptor.getUri());
+            registerDependencyLocationAndPackageNameForEveryExportedPackage(dependencyLocations, BundleManifestUtils.getReadOnlyBundleManifest(bundleDescriptor), null, bundleDescriptor.getUri());
         }
     }
 
     private void processImportedLibraries(List<ImportedLibrary> importedLibraries, Map<File, List<String>> dependencyLocations,
-        List<ImportDescriptor> unsatisfiableLibraryImports) {
+        List<ImportDescriptor> unsatisfiableLibraryImports, ExportedPackageIndex exportedPackageIndex) {
         for (ImportedLibrary importedLibrary : importedLibraries) {
             String libraryName = importedLibrary.getLibrarySymbolicName();
             VersionRange versionRange = importedLibrary.getVersion();
-            ArtifactDescriptor libraryDescriptor = findLibrary(libraryName, versionRange);            
+            ArtifactDescriptor libraryDescriptor = findLibrary(exportedPackageIndex, libraryName, versionRange);            
 
             if (libraryDescriptor != null) {
             	LibraryDefinition libraryDefinition = LibraryBridge.createLibraryDefinition(libraryDescriptor);
@@ -204,12 +271,12 @@ public final class Pre35DependencyLocator {
                     String symbolicName = libraryBundle.getBundleSymbolicName();
                     VersionRange bundleVersionRange = libraryBundle.getVersion();
                     
-                    ArtifactDescriptor bundleDescriptor = findBundle(symbolicName, bundleVersionRange);
+                    ArtifactDescriptor bundleDescriptor = findBundle(exportedPackageIndex, symbolicName, bundleVersionRange);
 
                     if (bundleDescriptor == null) {
                         unsatisfiableLibraryImports.add(new ImportDescriptor(libraryName, versionRange.toString(), versionRange.toParseString()));
                     } else {
-                        registerDependencyLocationAndPackageNameForEveryExportedPackage(dependencyLocations, BundleManifestUtils.createBundleManifest(bundleDescriptor), null, bundleDescriptor.getUri());
+                        registerDependencyLocationAndPackageNameForEveryExportedPackage(dependencyLocations, BundleManifestUtils.getReadOnlyBundleManifest(bundleDescriptor), null, bundleDescriptor.getUri());
                     }
                 }
             } else if (Resolution.MANDATORY.equals(importedLibrary.getResolution())) {
@@ -228,12 +295,12 @@ public final class Pre35DependencyLocator {
     }
 
     private void processImportedPackages(List<ImportedPackage> importedPackages, Map<File, List<String>> dependencyLocations,
-        List<ImportDescriptor> unsatisfiablePackageImports) {
+        List<ImportDescriptor> unsatisfiablePackageImports, ExportedPackageIndex exportedPackageIndex) {
         for (ImportedPackage importedPackage : importedPackages) {
 
             VersionRange versionRange = importedPackage.getVersion();
             String packageName = importedPackage.getPackageName();
-            Set<ArtifactDescriptor> bundleDescriptors = this.repository.findByExportedPackage(packageName, versionRange);
+            Set<ArtifactDescriptor> bundleDescriptors = this.repository.findByExportedPackage(exportedPackageIndex, packageName, versionRange);
             if (bundleDescriptors.size() > 0) {
                 for (ArtifactDescriptor bundleDescriptor : bundleDescriptors) {
                     registerPackageNameAgainstDependencyLocation(bundleDescriptor.getUri(), packageName, dependencyLocations);
@@ -246,7 +313,8 @@ public final class Pre35DependencyLocator {
     }
 
     private void processRequiredBundles(List<RequiredBundle> requiredBundles, Map<File, List<String>> dependencyLocations,
-        List<ImportDescriptor> unsatisfiableRequireBundles, List<String> packagesThatHaveAlreadyBeenSatisfied, boolean root) {
+        List<ImportDescriptor> unsatisfiableRequireBundles, List<String> packagesThatHaveAlreadyBeenSatisfied, boolean root,
+        Set<ArtifactDescriptor> visitedBundles, ExportedPackageIndex exportedPackageIndex) {
 
         for (RequiredBundle requiredBundle : requiredBundles) {
             if (root || Visibility.REEXPORT.equals(requiredBundle.getVisibility())) {
@@ -258,14 +326,18 @@ public final class Pre35DependencyLocator {
                 } else {
                     versionRange = VersionRange.NATURAL_NUMBER_RANGE;
                 }
-                ArtifactDescriptor artifactDescriptor = findBundle(bundleSymbolicName, versionRange);
+                ArtifactDescriptor artifactDescriptor = findBundle(exportedPackageIndex, bundleSymbolicName, versionRange);
                 if (artifactDescriptor != null) {
-                	BundleManifest bundleManifest = BundleManifestUtils.createBundleManifest(artifactDescriptor);
+                    if (!visitedBundles.add(artifactDescriptor)) {
+                        // Already registered, possibly through a cycle of re-exports
+                        continue;
+                    }
+                	BundleManifest bundleManifest = BundleManifestUtils.getReadOnlyBundleManifest(artifactDescriptor);
                     registerDependencyLocationAndPackageNameForEveryExportedPackage(dependencyLocations, bundleManifest,
                         packagesThatHaveAlreadyBeenSatisfied, artifactDescriptor.getUri());
                     List<RequiredBundle> dependencysRequiredBundles = bundleManifest.getRequireBundle().getRequiredBundles();
                     processRequiredBundles(dependencysRequiredBundles, dependencyLocations, unsatisfiableRequireBundles,
-                        packagesThatHaveAlreadyBeenSatisfied, false);
+                        packagesThatHaveAlreadyBeenSatisfied, false, visitedBundles, exportedPackageIndex);
                 } else if (Resolution.MANDATORY.equals(requiredBundle.getResolution())) {
                     unsatisfiableRequireBundles.add(new ImportDescriptor(requiredBundle.getBundleSymbolicName(), versionRange.toString(),
                         versionRange.toParseString()));
@@ -274,12 +346,12 @@ public final class Pre35DependencyLocator {
         }
     }
     
-    private ArtifactDescriptor findBundle(String symbolicName, VersionRange versionRange) {
-    	return this.repository.get(BundleBridge.BRIDGE_TYPE, symbolicName, versionRange);
+    private ArtifactDescriptor findBundle(ExportedPackageIndex exportedPackageIndex, String symbolicName, VersionRange versionRange) {
+    	return this.repository.get(exportedPackageIndex, BundleBridge.BRIDGE_TYPE, symbolicName, versionRange);
     }
     
-    private ArtifactDescriptor findLibrary(String symbolicName, VersionRange versionRange) {
-    	return this.repository.get(LibraryDefinition.LIBRARY_TYPE, symbolicName, versionRange);
+    private ArtifactDescriptor findLibrary(ExportedPackageIndex exportedPackageIndex, String symbolicName, VersionRange versionRange) {
+    	return this.repository.get(exportedPackageIndex, LibraryDefinition.LIBRARY_TYPE, symbolicName, versionRange);
     }
     
     private void registerPackageNameAgainstDependencyLocation(URI location, String packageName, Map<File, List<String>> dependencyLocations) {
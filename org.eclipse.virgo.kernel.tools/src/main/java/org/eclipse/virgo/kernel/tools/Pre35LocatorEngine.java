@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+package org.eclipse.virgo.kernel.tools;
+
+import org.eclipse.virgo.kernel.tools.internal.Pre35SystemPackageFilteringRepository;
+
+/**
+ * The state of a {@link Pre35DependencyLocator} that depends only upon the kernel and search paths within which
+ * dependencies are located. An engine may be shared by every locator of the same kernel and search paths, see
+ * {@link LocatorEngineRegistry}.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe.
+ *
+ */
+final class Pre35LocatorEngine implements LocatorEngineRegistry.Engine {
+
+    private final Pre35SystemPackageFilteringRepository repository;
+
+    Pre35LocatorEngine(Pre35SystemPackageFilteringRepository repository) {
+        this.repository = repository;
+    }
+
+    Pre35SystemPackageFilteringRepository getRepository() {
+        return this.repository;
+    }
+
+    /**
+     * Returns the number of artifacts in the repository index that this engine has most recently built, or
+     * <code>0</code> if it has yet to build one.
+     */
+    public long getArtifactCount() {
+        return this.repository.getArtifactCount();
+    }
+
+    /**
+     * Returns <code>false</code>, as an engine is started synchronously, by its creation, and cannot fail thereafter.
+     */
+    public boolean hasFailed() {
+        return false;
+    }
+
+    public void shutdown() {
+        this.repository.shutdown();
+    }
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.virgo.repository.ArtifactDescriptor;
+
+/**
+ * Memoizes, for a single repository generation, the bundles that satisfy the dependencies of each bundle in the
+ * repository, so that the transitive dependencies of many manifests can share the sub-graphs that they have in
+ * common. The memo is replaced by an empty memo when a newer generation is seen.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe and lock-free: the providers of a generation are held in an unbounded {@link GenerationalMemo}.
+ *
+ */
+final class ProviderMemo {
+
+    private static final String BUNDLE_LOCATIONS = "bundle-locations";
+
+    private final GenerationalMemo<File, Providers> providers = new GenerationalMemo<File, Providers>();
+
+    private final GenerationalMemo<String, Map<File, ArtifactDescriptor>> bundleLocations = new GenerationalMemo<String, Map<File, ArtifactDescriptor>>();
+
+    /**
+     * Returns the memoized providers of the bundle at the supplied location in the supplied repository generation, or
+     * <code>null</code> if there are no such providers.
+     */
+    Providers get(File bundle, long generation) {
+        return this.providers.get(bundle, generation);
+    }
+
+    /**
+     * Memoizes the providers of the bundle at the supplied location. Providers from a repository generation older
+     * than the newest that has been seen are discarded.
+     */
+    void put(File bundle, long generation, Providers bundleProviders) {
+        this.providers.put(bundle, generation, bundleProviders);
+    }
+
+    /**
+     * Returns the memoized descriptors of the repository's bundles, keyed by location, in the supplied repository
+     * generation, or <code>null</code> if they have not been memoized.
+     */
+    Map<File, ArtifactDescriptor> getBundleLocations(long generation) {
+        return this.bundleLocations.get(BUNDLE_LOCATIONS, generation);
+    }
+
+    void putBundleLocations(long generation, Map<File, ArtifactDescriptor> bundleLocations) {
+        this.bundleLocations.put(BUNDLE_LOCATIONS, generation, Collections.unmodifiableMap(bundleLocations));
+    }
+
+    /**
+     * The immutable locations of the bundles that satisfy a bundle's dependencies.
+     */
+    static final class Providers {
+
+        private final Set<File> locations;
+
+        private final DependencyLocationException failure;
+
+        Providers(Set<File> locations, DependencyLocationException failure) {
+            this.locations = Collections.unmodifiableSet(locations);
+            this.failure = failure;
+        }
+
+        Set<File> getLocations() {
+            return this.locations;
+        }
+
+        DependencyLocationException getFailure() {
+            return this.failure;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.virgo.kernel.artifact.bundle.BundleBridge;
+import org.eclipse.virgo.kernel.artifact.library.LibraryDefinition;
+import org.eclipse.virgo.kernel.tools.internal.ExportedPackageIndex;
+import org.eclipse.virgo.kernel.tools.internal.SystemPackageFilteringRepository;
+import org.eclipse.virgo.repository.ArtifactDescriptor;
+import org.eclipse.virgo.util.osgi.manifest.VersionRange;
+
+/**
+ * Memoizes the repository queries made while locating dependencies so that each distinct package, bundle, and library
+ * import is looked up only once.
+ * <p />
+ * A <code>QueryCache</code> reads a single generation of the repository's exported package index and records every
+ * lookup that is made through it. A lookup that it has not yet recorded is delegated to its parent, if it has one,
+ * before falling back to the repository. This allows a batch of manifests to share one parent cache, and allows the
+ * lookups recorded while resolving a manifest to be reused when the manifest is resolved again. Each lookup that
+ * falls back to the repository is counted by a counter that a cache shares with its parent.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe.
+ *
+ */
+final class QueryCache {
+
+    private final SystemPackageFilteringRepository repository;
+
+    private final ExportedPackageIndex exportedPackageIndex;
+
+    private final QueryCache parent;
+
+    private final AtomicLong lookupCount;
+
+    private final ConcurrentMap<String, Set<ArtifactDescriptor>> packageExporters;
+
+    private final Map<String, ArtifactDescriptor> bundles;
+
+    private final Map<String, ArtifactDescriptor> libraries;
+
+    QueryCache(SystemPackageFilteringRepository repository, AtomicLong lookupCount) {
+        this(repository, repository.getExportedPackageIndex(), lookupCount);
+    }
+
+    QueryCache(SystemPackageFilteringRepository repository, ExportedPackageIndex exportedPackageIndex, AtomicLong lookupCount) {
+        this(repository, exportedPackageIndex, null, lookupCount);
+    }
+
+    /**
+     * Creates a new <code>QueryCache</code> that delegates unrecorded lookups to the supplied parent. The parent must
+     * read the same repository generation as the new cache.
+     */
+    QueryCache(QueryCache parent) {
+        this(parent.repository, parent.exportedPackageIndex, parent, parent.lookupCount);
+    }
+
+    private QueryCache(SystemPackageFilteringRepository repository, ExportedPackageIndex exportedPackageIndex, QueryCache parent,
+        AtomicLong lookupCount) {
+        this.repository = repository;
+        this.exportedPackageIndex = exportedPackageIndex;
+        this.parent = parent;
+        this.lookupCount = lookupCount;
+        this.packageExporters = new ConcurrentHashMap<String, Set<ArtifactDescriptor>>();
+        this.bundles = Collections.synchronizedMap(new HashMap<String, ArtifactDescriptor>());
+        this.libraries = Collections.synchronizedMap(new HashMap<String, ArtifactDescriptor>());
+    }
+
+    /**
+     * Returns a copy of this cache, containing only the lookups that it has recorded, that does not delegate to a
+     * parent.
+     */
+    QueryCache detach() {
+        QueryCache detached = new QueryCache(this.repository, this.exportedPackageIndex, null, this.lookupCount);
+        detached.packageExporters.putAll(this.packageExporters);
+        synchronized (this.bundles) {
+            detached.bundles.putAll(this.bundles);
+        }
+        synchronized (this.libraries) {
+            detached.libraries.putAll(this.libraries);
+        }
+        return detached;
+    }
+
+    /**
+     * Returns the index of the main repository against which this cache's lookups are made.
+     */
+    ExportedPackageIndex getExportedPackageIndex() {
+        return this.exportedPackageIndex;
+    }
+
+    /**
+     * Returns the generation of the repository against which this cache's lookups are made.
+     */
+    long getGeneration() {
+        return this.exportedPackageIndex.getGeneration();
+    }
+
+    /**
+     * Returns the fingerprint of the contents of the repository generation against which this cache's lookups are
+     * made.
+     */
+    long getRepositoryFingerprint() {
+        return this.repository.getRepositoryFingerprint(this.exportedPackageIndex);
+    }
+
+    /**
+     * Returns <code>true</code> if this cache's lookups were made against the supplied repository and index, and can
+     * therefore be reused by a cache that reads them.
+     */
+    boolean isCurrent(SystemPackageFilteringRepository repository, ExportedPackageIndex exportedPackageIndex) {
+        return this.repository == repository && this.exportedPackageIndex == exportedPackageIndex;
+    }
+
+    Set<ArtifactDescriptor> findByExportedPackage(String packageName, VersionRange versionRange) {
+        String key = createKey(packageName, versionRange);
+        Set<ArtifactDescriptor> exporters = this.packageExporters.get(key);
+        if (exporters == null) {
+            if (this.parent != null) {
+                exporters = this.parent.findByExportedPackage(packageName, versionRange);
+            } else {
+                this.lookupCount.incrementAndGet();
+                exporters = this.repository.findByExportedPackage(this.exportedPackageIndex, packageName, versionRange);
+            }
+            this.packageExporters.putIfAbsent(key, exporters);
+        }
+        return exporters;
+    }
+
+    ArtifactDescriptor findBundle(String symbolicName, VersionRange versionRange) {
+        String key = createKey(symbolicName, versionRange);
+        synchronized (this.bundles) {
+            if (this.bundles.containsKey(key)) {
+                return this.bundles.get(key);
+            }
+        }
+        ArtifactDescriptor bundle;
+        if (this.parent != null) {
+            bundle = this.parent.findBundle(symbolicName, versionRange);
+        } else {
+            this.lookupCount.incrementAndGet();
+            bundle = this.repository.get(this.exportedPackageIndex, BundleBridge.BRIDGE_TYPE, symbolicName, versionRange);
+        }
+        this.bundles.put(key, bundle);
+        return bundle;
+    }
+
+    ArtifactDescriptor findLibrary(String symbolicName, VersionRange versionRange) {
+        String key = createKey(symbolicName, versionRange);
+        synchronized (this.libraries) {
+            if (this.libraries.containsKey(key)) {
+                return this.libraries.get(key);
+            }
+        }
+        ArtifactDescriptor library;
+        if (this.parent != null) {
+            library = this.parent.findLibrary(symbolicName, versionRange);
+        } else {
+            this.lookupCount.incrementAndGet();
+            library = this.repository.get(this.exportedPackageIndex, LibraryDefinition.LIBRARY_TYPE, symbolicName, versionRange);
+        }
+        this.libraries.put(key, library);
+        return library;
+    }
+
+    /**
+     * Returns the descriptors of the fragments that may attach to the supplied host bundle.
+     */
+    Set<ArtifactDescriptor> findFragments(ArtifactDescriptor hostDescriptor) {
+        return this.exportedPackageIndex.getFragmentHostIndex().findFragments(hostDescriptor.getName(), hostDescriptor.getVersion());
+    }
+
+    private static String createKey(String name, VersionRange versionRange) {
+        return name + ';' + versionRange.toParseString();
+    }
+}
@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.eclipse.virgo.kernel.tools.internal.BundleManifestUtils;
+import org.eclipse.virgo.repository.ArtifactDescriptor;
+import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
+import org.eclipse.virgo.util.osgi.manifest.ExportedPackage;
+import org.eclipse.virgo.util.osgi.manifest.RequiredBundle;
+import org.eclipse.virgo.util.osgi.manifest.RequiredBundle.Visibility;
+import org.eclipse.virgo.util.osgi.manifest.Resolution;
+import org.eclipse.virgo.util.osgi.manifest.VersionRange;
+
+/**
+ * Computes and memoizes the <code>Require-Bundle</code> re-export closure of bundles: the bundle itself together with
+ * every bundle that it transitively re-exports using <code>visibility:=reexport</code>, and the packages that each of
+ * them exports.
+ * <p />
+ * Closures are computed by finding the strongly connected components of the re-export graph, so a cycle of
+ * re-exports terminates and every bundle in the cycle shares a single closure. Each bundle's closure is computed once
+ * per repository generation, however many paths lead to it, and the closures are replaced by an empty set of closures
+ * when a newer generation is seen.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe and lock-free. Two threads that walk the same part of the re-export graph at the same time may both
+ * compute its closures, but the closures that they compute are equal.
+ *
+ */
+final class RequireBundleClosures {
+
+    private final GenerationalMemo<ArtifactDescriptor, Closure> closures = new GenerationalMemo<ArtifactDescriptor, Closure>();
+
+    /**
+     * Returns the re-export closure of the supplied bundle, looking up re-exported bundles using the supplied
+     * <code>QueryCache</code>.
+     */
+    Closure getClosure(ArtifactDescriptor bundleDescriptor, QueryCache queries) {
+        long generation = queries.getGeneration();
+        Closure closure = get(bundleDescriptor, generation);
+        if (closure == null) {
+            closure = new Walk(queries, generation).getClosure(bundleDescriptor);
+        }
+        return closure;
+    }
+
+    private Closure get(ArtifactDescriptor bundleDescriptor, long generation) {
+        return this.closures.get(bundleDescriptor, generation);
+    }
+
+    private void putAll(Map<ArtifactDescriptor, Closure> closures, long generation) {
+        this.closures.putAll(closures, generation);
+    }
+
+    /**
+     * The immutable re-export closure of a bundle.
+     */
+    static final class Closure {
+
+        private final Map<ArtifactDescriptor, List<String>> exportedPackages;
+
+        private final List<ImportDescriptor> unsatisfiableRequireBundles;
+
+        private Closure(Map<ArtifactDescriptor, List<String>> exportedPackages, List<ImportDescriptor> unsatisfiableRequireBundles) {
+            this.exportedPackages = Collections.unmodifiableMap(exportedPackages);
+            this.unsatisfiableRequireBundles = Collections.unmodifiableList(unsatisfiableRequireBundles);
+        }
+
+        /**
+         * Returns each bundle in the closure, in the order in which it is reached, mapped to the names of the packages
+         * that it exports.
+         */
+        Map<ArtifactDescriptor, List<String>> getExportedPackages() {
+            return this.exportedPackages;
+        }
+
+        /**
+         * Returns the mandatory, re-exported <code>Require-Bundle</code> imports of the bundles in the closure that
+         * could not be satisfied. The same <code>ImportDescriptor</code> instance is shared by every closure that
+         * reaches the bundle that declares the import.
+         */
+        List<ImportDescriptor> getUnsatisfiableRequireBundles() {
+            return this.unsatisfiableRequireBundles;
+        }
+    }
+
+    /**
+     * A single depth-first walk of the re-export graph that finds its strongly connected components using Tarjan's
+     * algorithm. Closures that have already been memoized are not walked again.
+     */
+    private final class Walk {
+
+        private final QueryCache queries;
+
+        private final long generation;
+
+        private final Map<ArtifactDescriptor, Node> nodes = new HashMap<ArtifactDescriptor, Node>();
+
+        private final LinkedList<Node> stack = new LinkedList<Node>();
+
+        private final Map<ArtifactDescriptor, Closure> completed = new HashMap<ArtifactDescriptor, Closure>();
+
+        private int nextIndex;
+
+        private Walk(QueryCache queries, long generation) {
+            this.queries = queries;
+            this.generation = generation;
+        }
+
+        private Closure getClosure(ArtifactDescriptor bundleDescriptor) {
+            Node node = createNode(bundleDescriptor);
+            visit(node);
+            putAll(this.completed, this.generation);
+            return this.completed.get(bundleDescriptor);
+        }
+
+        private void visit(Node node) {
+            node.index = this.nextIndex++;
+            node.lowLink = node.index;
+            this.stack.push(node);
+            node.onStack = true;
+
+            for (ArtifactDescriptor reexportedBundle : node.reexportedBundles) {
+                if (isCompleted(reexportedBundle)) {
+                    continue;
+                }
+                Node successor = this.nodes.get(reexportedBundle);
+                if (successor == null) {
+                    successor = createNode(reexportedBundle);
+                    visit(successor);
+                    node.lowLink = Math.min(node.lowLink, successor.lowLink);
+                } else if (successor.onStack) {
+                    node.lowLink = Math.min(node.lowLink, successor.index);
+                }
+            }
+
+            if (node.lowLink == node.index) {
+                List<Node> component = new ArrayList<Node>();
+                Node member;
+                do {
+                    member = this.stack.pop();
+                    member.onStack = false;
+                    component.add(0, member);
+                } while (member != node);
+                completeComponent(component);
+            }
+        }
+
+        private boolean isCompleted(ArtifactDescriptor bundleDescriptor) {
+            if (this.completed.containsKey(bundleDescriptor)) {
+                return true;
+            }
+            Closure closure = get(bundleDescriptor, this.generation);
+            if (closure != null) {
+                this.completed.put(bundleDescriptor, closure);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Creates the closure shared by the members of a strongly connected component. Every bundle that the component
+         * re-exports from outside itself has already been completed.
+         */
+        private void completeComponent(List<Node> component) {
+            Map<ArtifactDescriptor, List<String>> exportedPackages = new LinkedHashMap<ArtifactDescriptor, List<String>>();
+            List<ImportDescriptor> unsatisfiableRequireBundles = new ArrayList<ImportDescriptor>();
+            Set<ImportDescriptor> reported = Collections.newSetFromMap(new IdentityHashMap<ImportDescriptor, Boolean>());
+
+            for (Node member : component) {
+                exportedPackages.put(member.bundleDescriptor, member.exportedPackages);
+                addAll(member.unsatisfiableRequireBundles, unsatisfiableRequireBundles, reported);
+            }
+            for (Node member : component) {
+                for (ArtifactDescriptor reexportedBundle : member.reexportedBundles) {
+                    if (!exportedPackages.containsKey(reexportedBundle)) {
+                        Closure closure = this.completed.get(reexportedBundle);
+                        for (Entry<ArtifactDescriptor, List<String>> entry : closure.exportedPackages.entrySet()) {
+                            if (!exportedPackages.containsKey(entry.getKey())) {
+                                exportedPackages.put(entry.getKey(), entry.getValue());
+                            }
+                        }
+                        addAll(closure.unsatisfiableRequireBundles, unsatisfiableRequireBundles, reported);
+                    }
+                }
+            }
+
+            Closure closure = new Closure(exportedPackages, unsatisfiableRequireBundles);
+            for (Node member : component) {
+                this.completed.put(member.bundleDescriptor, closure);
+            }
+        }
+
+        private void addAll(List<ImportDescriptor> source, List<ImportDescriptor> target, Set<ImportDescriptor> reported) {
+            for (ImportDescriptor importDescriptor : source) {
+                if (reported.add(importDescriptor)) {
+                    target.add(importDescriptor);
+                }
+            }
+        }
+
+        private Node createNode(ArtifactDescriptor bundleDescriptor) {
+            BundleManifest bundleManifest = BundleManifestUtils.getReadOnlyBundleManifest(bundleDescriptor);
+
+            List<String> exportedPackages = new ArrayList<String>();
+            for (ExportedPackage exportedPackage : bundleManifest.getExportPackage().getExportedPackages()) {
+                exportedPackages.add(exportedPackage.getPackageName());
+            }
+
+            List<ArtifactDescriptor> reexportedBundles = new ArrayList<ArtifactDescriptor>();
+            List<ImportDescriptor> unsatisfiableRequireBundles = new ArrayList<ImportDescriptor>();
+            for (RequiredBundle requiredBundle : bundleManifest.getRequireBundle().getRequiredBundles()) {
+                if (Visibility.REEXPORT.equals(requiredBundle.getVisibility())) {
+                    VersionRange versionRange = DependencyLocator.getVersionRange(requiredBundle);
+                    ArtifactDescriptor reexportedBundle = this.queries.findBundle(requiredBundle.getBundleSymbolicName(), versionRange);
+                    if (reexportedBundle != null) {
+                        reexportedBundles.add(reexportedBundle);
+                    } else if (Resolution.MANDATORY.equals(requiredBundle.getResolution())) {
+                        unsatisfiableRequireBundles.add(new ImportDescriptor(requiredBundle.getBundleSymbolicName(), versionRange.toString(),
+                            versionRange.toParseString()));
+                    }
+                }
+            }
+
+            Node node = new Node(bundleDescriptor, Collections.unmodifiableList(exportedPackages), reexportedBundles, unsatisfiableRequireBundles);
+            this.nodes.put(bundleDescriptor, node);
+            return node;
+        }
+    }
+
+    private static final class Node {
+
+        private final ArtifactDescriptor bundleDescriptor;
+
+        private final List<String> exportedPackages;
+
+        private final List<ArtifactDescriptor> reexportedBundles;
+
+        private final List<ImportDescriptor> unsatisfiableRequireBundles;
+
+        private int index;
+
+        private int lowLink;
+
+        private boolean onStack;
+
+        private Node(ArtifactDescriptor bundleDescriptor, List<String> exportedPackages, List<ArtifactDescriptor> reexportedBundles,
+            List<ImportDescriptor> unsatisfiableRequireBundles) {
+            this.bundleDescriptor = bundleDescriptor;
+            this.exportedPackages = exportedPackages;
+            this.reexportedBundles = reexportedBundles;
+            this.unsatisfiableRequireBundles = unsatisfiableRequireBundles;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.eclipse.virgo.kernel.tools.internal.ImportSignature;
+
+/**
+ * Memoizes the outcome of locating a manifest's dependencies against its {@link ImportSignature}. The memo holds the
+ * outcomes for a single repository generation and is replaced by an empty memo when a newer generation is seen. Once
+ * full, the least recently used outcome is evicted to make room for a new one.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe. The outcomes of a generation are held in a {@link GenerationalMemo} whose monitor is held only
+ * briefly, while an outcome is read or memoized.
+ *
+ */
+final class ResolutionMemo {
+
+    private static final int MAXIMUM_SIZE = 1024;
+
+    private final GenerationalMemo<ImportSignature, Outcome> outcomes = new GenerationalMemo<ImportSignature, Outcome>(MAXIMUM_SIZE);
+
+    /**
+     * Returns the memoized outcome for the supplied signature in the supplied repository generation, or
+     * <code>null</code> if there is no such outcome.
+     */
+    Outcome get(ImportSignature signature, long generation) {
+        return this.outcomes.get(signature, generation);
+    }
+
+    /**
+     * Memoizes the supplied outcome for the supplied signature. Outcomes from a repository generation older than the
+     * newest that has been seen are discarded.
+     */
+    void put(ImportSignature signature, long generation, Outcome outcome) {
+        this.outcomes.put(signature, generation, outcome);
+    }
+
+    /**
+     * The immutable outcome of locating a manifest's dependencies.
+     */
+    static final class Outcome {
+
+        private final Map<File, List<String>> dependencyLocations;
+
+        private final ImportDescriptor[] unsatisfiablePackageImports;
+
+        private final ImportDescriptor[] unsatisfiableBundleImports;
+
+        private final ImportDescriptor[] unsatisfiableLibraryImports;
+
+        private final ImportDescriptor[] unsatisfiableRequireBundles;
+
+        Outcome(Map<File, List<String>> dependencyLocations, List<ImportDescriptor> unsatisfiablePackageImports,
+            List<ImportDescriptor> unsatisfiableBundleImports, List<ImportDescriptor> unsatisfiableLibraryImports,
+            List<ImportDescriptor> unsatisfiableRequireBundles) {
+            Map<File, List<String>> locations = new HashMap<File, List<String>>();
+            for (Entry<File, List<String>> entry : dependencyLocations.entrySet()) {
+                locations.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<String>(entry.getValue())));
+            }
+            this.dependencyLocations = Collections.unmodifiableMap(locations);
+            this.unsatisfiablePackageImports = toArray(unsatisfiablePackageImports);
+            this.unsatisfiableBundleImports = toArray(unsatisfiableBundleImports);
+            this.unsatisfiableLibraryImports = toArray(unsatisfiableLibraryImports);
+            this.unsatisfiableRequireBundles = toArray(unsatisfiableRequireBundles);
+        }
+
+        /**
+         * Returns a new, modifiable copy of the located dependencies.
+         *
+         * @throws DependencyLocationException if any of the dependencies could not be located
+         */
+        Map<File, List<String>> getDependencyLocations() throws DependencyLocationException {
+            Map<File, List<String>> locations = new HashMap<File, List<String>>();
+            for (Entry<File, List<String>> entry : this.dependencyLocations.entrySet()) {
+                locations.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+            }
+
+            if (this.unsatisfiablePackageImports.length > 0 || this.unsatisfiableBundleImports.length > 0
+                || this.unsatisfiableLibraryImports.length > 0 || this.unsatisfiableRequireBundles.length > 0) {
+                throw new DependencyLocationException(this.unsatisfiablePackageImports.clone(), this.unsatisfiableBundleImports.clone(),
+                    this.unsatisfiableLibraryImports.clone(), this.unsatisfiableRequireBundles.clone(), locations);
+            }
+            return locations;
+        }
+
+        Map<File, List<String>> getLocatedDependencies() {
+            return this.dependencyLocations;
+        }
+
+        ImportDescriptor[] getUnsatisfiablePackageImports() {
+            return this.unsatisfiablePackageImports.clone();
+        }
+
+        ImportDescriptor[] getUnsatisfiableBundleImports() {
+            return this.unsatisfiableBundleImports.clone();
+        }
+
+        ImportDescriptor[] getUnsatisfiableLibraryImports() {
+            return this.unsatisfiableLibraryImports.clone();
+        }
+
+        ImportDescriptor[] getUnsatisfiableRequireBundles() {
+            return this.unsatisfiableRequireBundles.clone();
+        }
+
+        private static ImportDescriptor[] toArray(List<ImportDescriptor> importDescriptors) {
+            return importDescriptors.toArray(new ImportDescriptor[importDescriptors.size()]);
+        }
+    }
+}
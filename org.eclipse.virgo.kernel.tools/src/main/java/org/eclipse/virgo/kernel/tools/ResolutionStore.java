@@ -0,0 +1,698 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+
+import org.eclipse.virgo.kernel.tools.ResolutionMemo.Outcome;
+import org.eclipse.virgo.kernel.tools.internal.ImportSignature;
+import org.eclipse.virgo.medic.eventlog.EventLogger;
+import org.eclipse.virgo.medic.eventlog.Level;
+
+/**
+ * A persistent store of the outcomes of locating manifests' dependencies, held in a single file in the index
+ * directory. Outcomes are keyed by the manifest's {@link ImportSignature}, by a fingerprint of the repository's
+ * contents and by whether fragments' exports were merged, so an outcome is only ever served for the repository
+ * contents and mode against which it was produced.
+ * <p />
+ * The file starts with a header and is followed by an append-only sequence of records. Each record is prefixed with
+ * its length and a CRC-32 of its contents so that a record that was only partially written, for example because the
+ * process was killed, is detected and discarded along with anything that follows it. Records are read with positional
+ * reads of the file, whose channel is closed before the file is truncated or replaced. When the file is loaded and is
+ * found to be mostly made up of records that are stale, because they have been superseded or were produced against
+ * different repository contents, it is compacted by writing its live records to a temporary file that atomically
+ * replaces it. A failed compaction leaves the original file intact.
+ * <p />
+ * The file may grow to at most 64MB. An append that would take it beyond that compacts it first, or, if its live
+ * records alone would still fill more than half of it, rolls it over by replacing it with an empty file; either is
+ * logged. The directory is synced after the file has been replaced, where the platform allows it. Where it does not, a
+ * crash soon after a replacement may leave the original file in place of its replacement, which is harmless as the
+ * original file remains valid.
+ * <p />
+ * The store is an optimization: any failure to read or write the file disables the affected operation rather than
+ * failing dependency location.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe. Several processes may share a store: appending, truncation and compaction are performed while holding
+ * an exclusive lock on a lock file alongside the store, and the file is rescanned once the lock is held so that
+ * compaction retains the records appended by other processes. A store that finds that its file has been replaced by
+ * another process's compaction discards what it has loaded and loads the file again.
+ *
+ */
+final class ResolutionStore {
+
+    private static final String FILE_NAME = "resolutions.cache";
+
+    private static final String LOCK_FILE_NAME = FILE_NAME + ".lock";
+
+    private static final int MAGIC = 0x56524353;
+
+    private static final int FORMAT_VERSION = 2;
+
+    private static final int HEADER_LENGTH = 8;
+
+    private static final int RECORD_PREFIX_LENGTH = 12;
+
+    private static final int RECORD_KEY_LENGTH = 17;
+
+    private static final long COMPACTION_THRESHOLD = 256 * 1024;
+
+    private static final long MAXIMUM_FILE_SIZE = 64 * 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String SIZE_LIMIT_REACHED_CODE = "KT0002I";
+
+    /**
+     * File locks are held on behalf of the whole process, so stores in the same process that share a directory
+     * serialize their use of the lock file here rather than overlapping their locks.
+     */
+    private static final Object FILE_LOCK_MONITOR = new Object();
+
+    private final Object monitor = new Object();
+
+    private final File file;
+
+    private final File lockFile;
+
+    private final EventLogger eventLogger;
+
+    private final Map<RecordKey, Long> recordOffsets = new HashMap<RecordKey, Long>();
+
+    private boolean loaded;
+
+    private boolean writable = true;
+
+    private long length;
+
+    private Object loadedFileKey;
+
+    private FileChannel readChannel;
+
+    private FileChannel appendChannel;
+
+    private long hitCount;
+
+    ResolutionStore(File directory, EventLogger eventLogger) {
+        this.file = new File(directory, FILE_NAME);
+        this.lockFile = new File(directory, LOCK_FILE_NAME);
+        this.eventLogger = eventLogger;
+    }
+
+    /**
+     * Returns the persisted outcome for the supplied signature against the repository contents with the supplied
+     * fingerprint in the supplied mode, or <code>null</code> if there is no such outcome.
+     */
+    Outcome get(ImportSignature signature, long repositoryFingerprint, boolean mergeFragments) {
+        synchronized (this.monitor) {
+            load(repositoryFingerprint);
+            RecordKey key = new RecordKey(repositoryFingerprint, signature.getHash(), mergeFragments);
+            Long offset = this.recordOffsets.get(key);
+            if (offset == null) {
+                return null;
+            }
+            try {
+                ByteBuffer record = getRecord(offset);
+                if (record != null && key.equals(readRecordKey(record)) && signature.getCanonicalForm().equals(readString(record))) {
+                    Outcome outcome = readOutcome(record);
+                    this.hitCount++;
+                    return outcome;
+                }
+            } catch (IOException ioe) {
+                // Treated as a miss
+            } catch (RuntimeException re) {
+                // A corrupt record is treated as a miss
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Appends the supplied outcome for the supplied signature against the repository contents with the supplied
+     * fingerprint in the supplied mode to the store.
+     */
+    void put(ImportSignature signature, long repositoryFingerprint, boolean mergeFragments, Outcome outcome) {
+        synchronized (this.monitor) {
+            load(repositoryFingerprint);
+            if (!this.writable) {
+                return;
+            }
+            try {
+                RecordKey key = new RecordKey(repositoryFingerprint, signature.getHash(), mergeFragments);
+                byte[] record = createRecord(key, signature, outcome);
+                synchronized (FILE_LOCK_MONITOR) {
+                    FileLock lock = lock();
+                    try {
+                        if (!isLoadedFileCurrent()) {
+                            // Another process has compacted the store; the outcome is dropped and the store reloaded
+                            reset();
+                            return;
+                        }
+                        FileChannel channel = getAppendChannel();
+                        long offset = channel.size();
+                        if (offset + record.length > MAXIMUM_FILE_SIZE) {
+                            if (record.length > MAXIMUM_FILE_SIZE / 2 || !reduce(repositoryFingerprint, offset, record.length)) {
+                                return;
+                            }
+                            channel = getAppendChannel();
+                            offset = channel.size();
+                        }
+                        channel.write(ByteBuffer.wrap(record), offset);
+                        this.recordOffsets.put(key, offset);
+                        this.length = offset + record.length;
+                    } finally {
+                        release(lock);
+                    }
+                }
+            } catch (IOException ioe) {
+                this.writable = false;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of outcomes that have been served from the store.
+     */
+    long getHitCount() {
+        synchronized (this.monitor) {
+            return this.hitCount;
+        }
+    }
+
+    /**
+     * Releases the resources held by the store. The store may continue to be used, and will reacquire them as needed.
+     */
+    void close() {
+        synchronized (this.monitor) {
+            closeAppendChannel();
+            closeReadChannel();
+        }
+    }
+
+    private void load(long repositoryFingerprint) {
+        if (this.loaded) {
+            return;
+        }
+        this.loaded = true;
+        this.length = HEADER_LENGTH;
+        this.loadedFileKey = null;
+
+        if (!this.file.isFile()) {
+            return;
+        }
+
+        try {
+            this.loadedFileKey = getFileKey();
+            long liveLength = scan(repositoryFingerprint);
+            if (liveLength >= 0 && (isCompactionRequired(liveLength) || this.length < this.file.length())) {
+                synchronized (FILE_LOCK_MONITOR) {
+                    FileLock lock = lock();
+                    try {
+                        // Other processes may have appended to, or replaced, the file since it was scanned
+                        closeAppendChannel();
+                        closeReadChannel();
+                        this.loadedFileKey = getFileKey();
+                        liveLength = scan(repositoryFingerprint);
+                        if (liveLength < 0) {
+                            return;
+                        } else if (isCompactionRequired(liveLength)) {
+                            compact(this.recordOffsets);
+                        } else if (this.length < this.file.length()) {
+                            // A partially written record is discarded before anything is appended
+                            truncate();
+                        }
+                    } finally {
+                        release(lock);
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            this.writable = false;
+        }
+    }
+
+    /**
+     * Scans the records in the file, retaining the offsets of those that were produced against the repository contents
+     * with the supplied fingerprint. Returns the combined length of those records, or <code>-1</code> if the file's
+     * header is not valid.
+     */
+    private long scan(long repositoryFingerprint) throws IOException {
+        this.recordOffsets.clear();
+        this.length = HEADER_LENGTH;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        if (!read(header, 0) || header.getInt(0) != MAGIC || header.getInt(4) != FORMAT_VERSION) {
+            return -1;
+        }
+
+        Map<RecordKey, Long> offsets = new LinkedHashMap<RecordKey, Long>();
+        Map<RecordKey, Integer> lengths = new HashMap<RecordKey, Integer>();
+        long offset = HEADER_LENGTH;
+        ByteBuffer record;
+        while ((record = getRecord(offset)) != null) {
+            RecordKey key = readRecordKey(record);
+            offsets.put(key, offset);
+            lengths.put(key, RECORD_PREFIX_LENGTH + record.capacity());
+            offset += RECORD_PREFIX_LENGTH + record.capacity();
+        }
+        this.length = offset;
+
+        long liveLength = 0;
+        for (Entry<RecordKey, Long> entry : offsets.entrySet()) {
+            if (entry.getKey().repositoryFingerprint == repositoryFingerprint) {
+                this.recordOffsets.put(entry.getKey(), entry.getValue());
+                liveLength += lengths.get(entry.getKey());
+            }
+        }
+        return liveLength;
+    }
+
+    private boolean isCompactionRequired(long liveLength) {
+        return this.length > COMPACTION_THRESHOLD && liveLength < (this.length - HEADER_LENGTH) / 2;
+    }
+
+    /**
+     * Makes room for a record of the supplied length in a file that has reached its maximum size, with the supplied
+     * current length, by compacting it or, if its live records would still fill more than half of it, by rolling it
+     * over. Returns <code>true</code> if room was made. Must be called while holding the lock.
+     */
+    private boolean reduce(long repositoryFingerprint, long currentLength, int recordLength) throws IOException {
+        closeAppendChannel();
+        closeReadChannel();
+        long liveLength = scan(repositoryFingerprint);
+        Map<RecordKey, Long> retained = this.recordOffsets;
+        if (liveLength < 0 || HEADER_LENGTH + liveLength + recordLength > MAXIMUM_FILE_SIZE / 2) {
+            retained = new HashMap<RecordKey, Long>();
+        }
+        if (!compact(retained)) {
+            return false;
+        }
+        this.eventLogger.log(SIZE_LIMIT_REACHED_CODE, Level.INFO, this.file, MAXIMUM_FILE_SIZE, currentLength, this.length);
+        return true;
+    }
+
+    /**
+     * Replaces the file with one that holds only the supplied records, returning <code>true</code> if it was replaced.
+     * Must be called while holding the lock.
+     */
+    private boolean compact(Map<RecordKey, Long> retainedRecords) throws IOException {
+        File compactedFile = new File(this.file.getParentFile(), FILE_NAME + ".tmp");
+        Map<RecordKey, Long> compactedOffsets = new HashMap<RecordKey, Long>();
+        long offset = HEADER_LENGTH;
+
+        RandomAccessFile compacted = new RandomAccessFile(compactedFile, "rw");
+        try {
+            compacted.setLength(0);
+            compacted.writeInt(MAGIC);
+            compacted.writeInt(FORMAT_VERSION);
+            for (Entry<RecordKey, Long> entry : retainedRecords.entrySet()) {
+                ByteBuffer record = readRecordWithPrefix(entry.getValue());
+                if (record == null) {
+                    continue;
+                }
+                compacted.write(record.array());
+                compactedOffsets.put(entry.getKey(), offset);
+                offset += record.capacity();
+            }
+            compacted.getChannel().force(true);
+        } finally {
+            compacted.close();
+        }
+
+        // A file that is open cannot be replaced on some platforms
+        closeAppendChannel();
+        closeReadChannel();
+        try {
+            Files.move(compactedFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ioe) {
+            // The original file is still intact, and can continue to be used
+            compactedFile.delete();
+            return false;
+        }
+        syncDirectory();
+
+        this.recordOffsets.clear();
+        this.recordOffsets.putAll(compactedOffsets);
+        this.length = offset;
+        this.loadedFileKey = getFileKey();
+        return true;
+    }
+
+    /**
+     * Makes the replacement of the file durable, where the platform allows a directory to be synced.
+     */
+    private void syncDirectory() {
+        File directory = this.file.getAbsoluteFile().getParentFile();
+        try {
+            FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException ioe) {
+            // The platform cannot sync a directory, so a crash may yet undo the replacement
+        }
+    }
+
+    /**
+     * Truncates the file to the end of its last intact record. Must be called while holding the lock.
+     */
+    private void truncate() throws IOException {
+        // A file that is open for reading cannot be truncated on some platforms
+        closeReadChannel();
+        getAppendChannel().truncate(this.length);
+    }
+
+    /**
+     * Returns <code>true</code> if the file is the one that was loaded, rather than a replacement written by another
+     * process. Must be called while holding the lock.
+     */
+    private boolean isLoadedFileCurrent() throws IOException {
+        Object fileKey = getFileKey();
+        return fileKey == null ? this.loadedFileKey == null || !this.file.isFile() : fileKey.equals(this.loadedFileKey);
+    }
+
+    private void reset() {
+        closeAppendChannel();
+        closeReadChannel();
+        this.recordOffsets.clear();
+        this.loaded = false;
+    }
+
+    /**
+     * Returns the key that identifies the file, or <code>null</code> if the file does not exist or the platform does
+     * not provide such keys.
+     */
+    private Object getFileKey() throws IOException {
+        if (!this.file.isFile()) {
+            return null;
+        }
+        return Files.readAttributes(this.file.toPath(), BasicFileAttributes.class).fileKey();
+    }
+
+    private FileLock lock() throws IOException {
+        File directory = this.lockFile.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create directory '" + directory + "'");
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(this.lockFile, "rw");
+        boolean locked = false;
+        try {
+            FileLock lock = randomAccessFile.getChannel().lock();
+            locked = true;
+            return lock;
+        } finally {
+            if (!locked) {
+                randomAccessFile.close();
+            }
+        }
+    }
+
+    private static void release(FileLock lock) throws IOException {
+        try {
+            lock.release();
+        } finally {
+            lock.channel().close();
+        }
+    }
+
+    /**
+     * Returns the channel used to append to the file, creating the file, or replacing a file whose header is not
+     * valid, if necessary. Must be called while holding the lock.
+     */
+    private FileChannel getAppendChannel() throws IOException {
+        if (this.appendChannel == null) {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(this.file, "rw");
+            boolean initialized = false;
+            try {
+                if (randomAccessFile.length() < HEADER_LENGTH || randomAccessFile.readInt() != MAGIC
+                    || randomAccessFile.readInt() != FORMAT_VERSION) {
+                    closeReadChannel();
+                    this.recordOffsets.clear();
+                    randomAccessFile.setLength(0);
+                    randomAccessFile.writeInt(MAGIC);
+                    randomAccessFile.writeInt(FORMAT_VERSION);
+                    this.length = HEADER_LENGTH;
+                }
+                initialized = true;
+            } finally {
+                if (!initialized) {
+                    randomAccessFile.close();
+                }
+            }
+            this.appendChannel = randomAccessFile.getChannel();
+            this.loadedFileKey = getFileKey();
+        }
+        return this.appendChannel;
+    }
+
+    private void closeAppendChannel() {
+        if (this.appendChannel != null) {
+            try {
+                this.appendChannel.close();
+            } catch (IOException ioe) {
+            }
+            this.appendChannel = null;
+        }
+    }
+
+    /**
+     * Returns a buffer holding the contents of the record at the supplied offset, or <code>null</code> if there is no
+     * complete, intact, record at that offset.
+     */
+    private ByteBuffer getRecord(long offset) throws IOException {
+        ByteBuffer prefix = ByteBuffer.allocate(RECORD_PREFIX_LENGTH);
+        if (!read(prefix, offset)) {
+            return null;
+        }
+
+        int recordLength = prefix.getInt(0);
+        long checksum = prefix.getLong(4);
+        if (recordLength < RECORD_KEY_LENGTH || recordLength > MAXIMUM_FILE_SIZE) {
+            return null;
+        }
+        ByteBuffer record = ByteBuffer.allocate(recordLength);
+        if (!read(record, offset + RECORD_PREFIX_LENGTH)) {
+            return null;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array());
+        return crc.getValue() == checksum ? record : null;
+    }
+
+    /**
+     * Returns a buffer holding the record at the supplied offset, including its prefix, or <code>null</code> if there
+     * is no complete, intact, record at that offset.
+     */
+    private ByteBuffer readRecordWithPrefix(long offset) throws IOException {
+        ByteBuffer contents = getRecord(offset);
+        if (contents == null) {
+            return null;
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_PREFIX_LENGTH + contents.capacity());
+        return read(record, offset) ? record : null;
+    }
+
+    /**
+     * Fills the supplied buffer from the file, starting at the supplied position, and flips it. Returns
+     * <code>false</code> if the file ends before the buffer is full.
+     */
+    private boolean read(ByteBuffer buffer, long position) throws IOException {
+        FileChannel channel = getReadChannel();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    private FileChannel getReadChannel() throws IOException {
+        if (this.readChannel == null) {
+            this.readChannel = new RandomAccessFile(this.file, "r").getChannel();
+        }
+        return this.readChannel;
+    }
+
+    private void closeReadChannel() {
+        if (this.readChannel != null) {
+            try {
+                this.readChannel.close();
+            } catch (IOException ioe) {
+            }
+            this.readChannel = null;
+        }
+    }
+
+    private static RecordKey readRecordKey(ByteBuffer record) {
+        return new RecordKey(record.getLong(), record.getLong(), record.get() != 0);
+    }
+
+    private static byte[] createRecord(RecordKey key, ImportSignature signature, Outcome outcome) throws IOException {
+        ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(contents);
+        output.writeLong(key.repositoryFingerprint);
+        output.writeLong(key.signatureHash);
+        output.writeBoolean(key.mergeFragments);
+        writeString(output, signature.getCanonicalForm());
+
+        Map<File, List<String>> dependencyLocations = outcome.getLocatedDependencies();
+        output.writeInt(dependencyLocations.size());
+        for (Entry<File, List<String>> entry : dependencyLocations.entrySet()) {
+            writeString(output, entry.getKey() == null ? null : entry.getKey().getPath());
+            writeStrings(output, entry.getValue());
+        }
+        writeImportDescriptors(output, outcome.getUnsatisfiablePackageImports());
+        writeImportDescriptors(output, outcome.getUnsatisfiableBundleImports());
+        writeImportDescriptors(output, outcome.getUnsatisfiableLibraryImports());
+        writeImportDescriptors(output, outcome.getUnsatisfiableRequireBundles());
+        output.flush();
+
+        byte[] bytes = contents.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_PREFIX_LENGTH + bytes.length);
+        record.putInt(bytes.length).putLong(crc.getValue()).put(bytes);
+        return record.array();
+    }
+
+    private static Outcome readOutcome(ByteBuffer record) {
+        Map<File, List<String>> dependencyLocations = new HashMap<File, List<String>>();
+        int dependencyCount = record.getInt();
+        for (int i = 0; i < dependencyCount; i++) {
+            String path = readString(record);
+            dependencyLocations.put(path == null ? null : new File(path), readStrings(record));
+        }
+        List<ImportDescriptor> unsatisfiablePackageImports = readImportDescriptors(record);
+        List<ImportDescriptor> unsatisfiableBundleImports = readImportDescriptors(record);
+        List<ImportDescriptor> unsatisfiableLibraryImports = readImportDescriptors(record);
+        List<ImportDescriptor> unsatisfiableRequireBundles = readImportDescriptors(record);
+        if (record.hasRemaining()) {
+            throw new BufferUnderflowException();
+        }
+        return new Outcome(dependencyLocations, unsatisfiablePackageImports, unsatisfiableBundleImports, unsatisfiableLibraryImports,
+            unsatisfiableRequireBundles);
+    }
+
+    private static void writeImportDescriptors(DataOutputStream output, ImportDescriptor[] importDescriptors) throws IOException {
+        output.writeInt(importDescriptors.length);
+        for (ImportDescriptor importDescriptor : importDescriptors) {
+            writeString(output, importDescriptor.getName());
+            writeString(output, importDescriptor.getVersion());
+            writeString(output, importDescriptor.getParseVersion());
+        }
+    }
+
+    private static List<ImportDescriptor> readImportDescriptors(ByteBuffer record) {
+        int count = record.getInt();
+        List<ImportDescriptor> importDescriptors = new ArrayList<ImportDescriptor>(count);
+        for (int i = 0; i < count; i++) {
+            importDescriptors.add(new ImportDescriptor(readString(record), readString(record), readString(record)));
+        }
+        return importDescriptors;
+    }
+
+    private static void writeStrings(DataOutputStream output, List<String> strings) throws IOException {
+        output.writeInt(strings.size());
+        for (String string : strings) {
+            writeString(output, string);
+        }
+    }
+
+    private static List<String> readStrings(ByteBuffer record) {
+        int count = record.getInt();
+        List<String> strings = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(readString(record));
+        }
+        return strings;
+    }
+
+    private static void writeString(DataOutputStream output, String string) throws IOException {
+        if (string == null) {
+            output.writeInt(-1);
+        } else {
+            byte[] bytes = string.getBytes(UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    private static String readString(ByteBuffer record) {
+        int length = record.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static final class RecordKey {
+
+        private final long repositoryFingerprint;
+
+        private final long signatureHash;
+
+        private final boolean mergeFragments;
+
+        private RecordKey(long repositoryFingerprint, long signatureHash, boolean mergeFragments) {
+            this.repositoryFingerprint = repositoryFingerprint;
+            this.signatureHash = signatureHash;
+            this.mergeFragments = mergeFragments;
+        }
+
+        @Override
+        public int hashCode() {
+            long hash = (this.repositoryFingerprint * 31 + this.signatureHash) * 31 + (this.mergeFragments ? 1 : 0);
+            return (int) (hash ^ (hash >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof RecordKey)) {
+                return false;
+            }
+            RecordKey other = (RecordKey) obj;
+            return this.repositoryFingerprint == other.repositoryFingerprint && this.signatureHash == other.signatureHash
+                && this.mergeFragments == other.mergeFragments;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools.internal;
+
+import java.lang.ref.SoftReference;
+import java.net.URI;
+import java.util.Dictionary;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.framework.Version;
+
+import org.eclipse.virgo.kernel.artifact.bundle.BundleBridge;
+import org.eclipse.virgo.repository.ArtifactDescriptor;
+import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
+import org.eclipse.virgo.util.osgi.manifest.BundleManifestFactory;
+
+/**
+ * A size-bounded cache of the {@link BundleManifest BundleManifests} created from {@link ArtifactDescriptor
+ * ArtifactDescriptors}.
+ * <p />
+ * Entries are keyed by the artifact's URI, version and {@link ContentHashGenerator content fingerprint} so that a
+ * changed artifact is never served a stale manifest, without touching the file system. A descriptor that does not
+ * record a content fingerprint is keyed by its identity instead, since a changed artifact is always described by a
+ * new descriptor. The least recently used entry is evicted once the cache is full, and manifests are held softly so
+ * that they can be reclaimed under memory pressure. The maximum size of the shared cache is read from the
+ * <code>org.eclipse.virgo.kernel.tools.manifestCacheSize</code> system property.
+ * <p />
+ * Manifests returned by the cache are shared by every user of the cache and must not be modified. They are only
+ * handed to the read-only paths of the kernel tools, see {@link BundleManifestUtils#getReadOnlyBundleManifest}; public
+ * APIs hand out {@link BundleManifestUtils#createBundleManifest copies}.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe.
+ *
+ */
+public final class BundleManifestCache {
+
+    private static final String MAXIMUM_SIZE_PROPERTY = "org.eclipse.virgo.kernel.tools.manifestCacheSize";
+
+    private static final int DEFAULT_MAXIMUM_SIZE = 2048;
+
+    private static final BundleManifestCache SHARED_CACHE = new BundleManifestCache(Integer.getInteger(MAXIMUM_SIZE_PROPERTY,
+        DEFAULT_MAXIMUM_SIZE));
+
+    private final Object monitor = new Object();
+
+    private final Map<CacheKey, SoftReference<BundleManifest>> manifests;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Creates a new, empty, <code>BundleManifestCache</code> that will hold at most <code>maximumSize</code> manifests.
+     *
+     * @param maximumSize the maximum number of manifests held by the cache
+     */
+    public BundleManifestCache(final int maximumSize) {
+        this.manifests = new LinkedHashMap<CacheKey, SoftReference<BundleManifest>>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, SoftReference<BundleManifest>> eldest) {
+                return size() > maximumSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cache shared by all of the kernel tools.
+     *
+     * @return the shared cache
+     */
+    public static BundleManifestCache getSharedCache() {
+        return SHARED_CACHE;
+    }
+
+    /**
+     * Returns the {@link BundleManifest} of the artifact described by the supplied descriptor, creating and caching it
+     * if it is not already cached. Descriptors without a location are not cached.
+     *
+     * @param descriptor the descriptor of the bundle
+     * @return the bundle's manifest
+     */
+    public BundleManifest getBundleManifest(ArtifactDescriptor descriptor) {
+        URI uri = descriptor.getUri();
+        if (uri == null) {
+            this.missCount.incrementAndGet();
+            return createBundleManifest(descriptor);
+        }
+
+        String contentFingerprint = ContentHashGenerator.getFingerprint(descriptor);
+        CacheKey key = new CacheKey(uri, descriptor.getVersion(), contentFingerprint, contentFingerprint == null ? descriptor : null);
+
+        synchronized (this.monitor) {
+            SoftReference<BundleManifest> reference = this.manifests.get(key);
+            BundleManifest manifest = reference == null ? null : reference.get();
+            if (manifest != null) {
+                this.hitCount.incrementAndGet();
+                return manifest;
+            }
+        }
+
+        this.missCount.incrementAndGet();
+        BundleManifest manifest = createBundleManifest(descriptor);
+
+        synchronized (this.monitor) {
+            this.manifests.put(key, new SoftReference<BundleManifest>(manifest));
+        }
+        return manifest;
+    }
+
+    /**
+     * Returns the number of requests that were satisfied from the cache.
+     *
+     * @return the hit count
+     */
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     * Returns the number of requests that required a manifest to be created.
+     *
+     * @return the miss count
+     */
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    /**
+     * Returns the number of entries currently held by the cache. Entries whose manifest has been reclaimed by the
+     * garbage collector are included until they are evicted.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        synchronized (this.monitor) {
+            return this.manifests.size();
+        }
+    }
+
+    /**
+     * Removes all of the entries from the cache. The hit and miss counts are not reset.
+     */
+    public void clear() {
+        synchronized (this.monitor) {
+            this.manifests.clear();
+        }
+    }
+
+    private static BundleManifest createBundleManifest(ArtifactDescriptor descriptor) {
+        Dictionary<String, String> dictionary = BundleBridge.convertToDictionary(descriptor);
+        return BundleManifestFactory.createBundleManifest(dictionary);
+    }
+
+    private static final class CacheKey {
+
+        private final URI uri;
+
+        private final Version version;
+
+        private final String contentFingerprint;
+
+        private final ArtifactDescriptor descriptor;
+
+        private CacheKey(URI uri, Version version, String contentFingerprint, ArtifactDescriptor descriptor) {
+            this.uri = uri;
+            this.version = version;
+            this.contentFingerprint = contentFingerprint;
+            this.descriptor = descriptor;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + this.uri.hashCode();
+            result = prime * result + (this.version == null ? 0 : this.version.hashCode());
+            result = prime * result + (this.contentFingerprint == null ? 0 : this.contentFingerprint.hashCode());
+            result = prime * result + System.identityHashCode(this.descriptor);
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) obj;
+            return this.descriptor == other.descriptor && this.uri.equals(other.uri)
+                && (this.version == null ? other.version == null : this.version.equals(other.version))
+                && (this.contentFingerprint == null ? other.contentFingerprint == null : this.contentFingerprint.equals(other.contentFingerprint));
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.osgi.framework.Constants;
+
+import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
+import org.eclipse.virgo.util.osgi.manifest.BundleManifestFactory;
+
+/**
+ * Finds the manifest of the bundle with a given symbolic name in a directory of jars.
+ * <p />
+ * Only the <code>META-INF/MANIFEST.MF</code> entry of each jar is read, located using the jar's central directory,
+ * and only the <code>Bundle-SymbolicName</code> header of a candidate is examined until a match is found. Jars whose
+ * names start with the symbolic name, for example <code>org.eclipse.osgi_3.7.1.R37x_v20110808-1106.jar</code>, are
+ * examined first. If none of them match, the remaining jars are examined in parallel. Every jar is closed once it has
+ * been examined.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe.
+ *
+ */
+final class BundleManifestFinder {
+
+    private static final int MAXIMUM_SCAN_THREADS = 4;
+
+    private static final String MANIFEST_CHARSET = "UTF-8";
+
+    private BundleManifestFinder() {
+    }
+
+    /**
+     * Returns the manifest of the bundle with the supplied symbolic name in the supplied directory, or
+     * <code>null</code> if there is no such bundle. Jars that cannot be read are ignored.
+     *
+     * @param searchDirectory the directory to search
+     * @param symbolicName the symbolic name of the bundle
+     * @return the bundle's manifest, or <code>null</code>
+     */
+    static BundleManifest findBundleManifest(File searchDirectory, String symbolicName) {
+        FoundBundle foundBundle = findBundle(searchDirectory, symbolicName);
+        return foundBundle == null ? null : foundBundle.getManifest();
+    }
+
+    /**
+     * Returns the jar and manifest of the bundle with the supplied symbolic name in the supplied directory, or
+     * <code>null</code> if there is no such bundle. Jars that cannot be read are ignored.
+     *
+     * @param searchDirectory the directory to search
+     * @param symbolicName the symbolic name of the bundle
+     * @return the bundle, or <code>null</code>
+     */
+    static FoundBundle findBundle(File searchDirectory, String symbolicName) {
+        File[] filesInDir = searchDirectory.listFiles();
+        if (filesInDir == null) {
+            return null;
+        }
+
+        List<File> likelyJars = new ArrayList<File>();
+        List<File> otherJars = new ArrayList<File>();
+        for (File fileInDir : filesInDir) {
+            String name = fileInDir.getName();
+            if (name.endsWith(".jar")) {
+                if (isLikelyName(name, symbolicName)) {
+                    likelyJars.add(fileInDir);
+                } else {
+                    otherJars.add(fileInDir);
+                }
+            }
+        }
+
+        for (File likelyJar : likelyJars) {
+            FoundBundle foundBundle = readBundleManifest(likelyJar, symbolicName);
+            if (foundBundle != null) {
+                return foundBundle;
+            }
+        }
+
+        return findBundleInParallel(otherJars, symbolicName);
+    }
+
+    private static boolean isLikelyName(String fileName, String symbolicName) {
+        if (!fileName.startsWith(symbolicName)) {
+            return false;
+        }
+        char next = fileName.charAt(symbolicName.length());
+        return next == '_' || next == '-' || next == '.';
+    }
+
+    private static FoundBundle findBundleInParallel(List<File> jars, final String symbolicName) {
+        int threadCount = Math.min(Math.min(jars.size(), MAXIMUM_SCAN_THREADS), Runtime.getRuntime().availableProcessors());
+        if (threadCount < 2) {
+            for (File jar : jars) {
+                FoundBundle foundBundle = readBundleManifest(jar, symbolicName);
+                if (foundBundle != null) {
+                    return foundBundle;
+                }
+            }
+            return null;
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "kernel-tools-manifest-scanner");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            CompletionService<FoundBundle> completionService = new ExecutorCompletionService<FoundBundle>(executorService);
+            for (final File jar : jars) {
+                completionService.submit(new Callable<FoundBundle>() {
+
+                    public FoundBundle call() {
+                        return readBundleManifest(jar, symbolicName);
+                    }
+                });
+            }
+            for (int i = 0; i < jars.size(); i++) {
+                Future<FoundBundle> result = completionService.take();
+                FoundBundle foundBundle = result.get();
+                if (foundBundle != null) {
+                    return foundBundle;
+                }
+            }
+            return null;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Manifest scan failed", cause);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the supplied jar, with its manifest, if it is the bundle with the supplied symbolic name, otherwise
+     * <code>null</code>.
+     */
+    private static FoundBundle readBundleManifest(File jar, String symbolicName) {
+        try {
+            byte[] manifestBytes = readManifestBytes(jar);
+            if (manifestBytes == null) {
+                return null;
+            }
+
+            String bundleSymbolicName = new Manifest(new ByteArrayInputStream(manifestBytes)).getMainAttributes().getValue(
+                Constants.BUNDLE_SYMBOLICNAME);
+            if (bundleSymbolicName == null) {
+                return null;
+            }
+            int directives = bundleSymbolicName.indexOf(';');
+            if (directives >= 0) {
+                bundleSymbolicName = bundleSymbolicName.substring(0, directives);
+            }
+            if (!symbolicName.equals(bundleSymbolicName.trim())) {
+                return null;
+            }
+
+            return new FoundBundle(jar, BundleManifestFactory.createBundleManifest(new InputStreamReader(new ByteArrayInputStream(manifestBytes),
+                MANIFEST_CHARSET)));
+        } catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    private static byte[] readManifestBytes(File jar) throws IOException {
+        ZipFile zipFile = new ZipFile(jar);
+        try {
+            ZipEntry manifestEntry = zipFile.getEntry(JarFile.MANIFEST_NAME);
+            if (manifestEntry == null) {
+                return null;
+            }
+            InputStream inputStream = zipFile.getInputStream(manifestEntry);
+            try {
+                long size = manifestEntry.getSize();
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(size > 0 && size < Integer.MAX_VALUE ? (int) size : 1024);
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    bytes.write(buffer, 0, read);
+                }
+                return bytes.toByteArray();
+            } finally {
+                inputStream.close();
+            }
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    /**
+     * A bundle found by a <code>BundleManifestFinder</code>.
+     */
+    static final class FoundBundle {
+
+        private final File jar;
+
+        private final BundleManifest manifest;
+
+        private FoundBundle(File jar, BundleManifest manifest) {
+            this.jar = jar;
+            this.manifest = manifest;
+        }
+
+        File getJar() {
+            return this.jar;
+        }
+
+        BundleManifest getManifest() {
+            return this.manifest;
+        }
+    }
+}
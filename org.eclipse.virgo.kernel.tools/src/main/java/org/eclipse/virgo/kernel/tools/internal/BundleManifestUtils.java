@@ -11,9 +11,6 @@
 
 package org.eclipse.virgo.kernel.tools.internal;
 
-import java.util.Dictionary;
-
-import org.eclipse.virgo.kernel.artifact.bundle.BundleBridge;
 import org.eclipse.virgo.repository.ArtifactDescriptor;
 import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
 import org.eclipse.virgo.util.osgi.manifest.BundleManifestFactory;
@@ -31,12 +28,29 @@ import org.eclipse.virgo.util.osgi.manifest.BundleManifestFactory;
 public final class BundleManifestUtils {
 
     /**
-     * Creates a {@link BundleManifest} from the supplied {@link ArtifactDescriptor}.
-     * @param descriptor The <code>ArtifactDescriptor> from which the manifest is created
+     * Creates a new {@link BundleManifest} from the supplied {@link ArtifactDescriptor}. The manifest belongs to the
+     * caller, who may modify it freely.
+     * 
+     * @param descriptor The <code>ArtifactDescriptor</code> from which the manifest is created
      * @return the created manifest
      */
     public static BundleManifest createBundleManifest(ArtifactDescriptor descriptor) {
-    	Dictionary<String, String> dictionary = BundleBridge.convertToDictionary(descriptor);
-    	return BundleManifestFactory.createBundleManifest(dictionary);
+        return BundleManifestFactory.createBundleManifest(getReadOnlyBundleManifest(descriptor).toDictionary());
+    }
+
+    /**
+     * Returns the {@link BundleManifest} of the supplied {@link ArtifactDescriptor}, shared through the
+     * {@link BundleManifestCache#getSharedCache() shared cache}. The manifest is shared by every locator in the process,
+     * so it is for the read-only use of the kernel tools alone: it must not be modified, nor handed to callers outside
+     * the kernel tools, who should use {@link #createBundleManifest(ArtifactDescriptor)} instead.
+     * 
+     * @param descriptor The <code>ArtifactDescriptor</code> whose manifest is required
+     * @return the shared, read-only manifest
+     */
+    public static BundleManifest getReadOnlyBundleManifest(ArtifactDescriptor descriptor) {
+        if (descriptor instanceof SystemBundleDescriptor) {
+            return ((SystemBundleDescriptor) descriptor).getBundleManifest();
+        }
+        return BundleManifestCache.getSharedCache().getBundleManifest(descriptor);
     }
 }
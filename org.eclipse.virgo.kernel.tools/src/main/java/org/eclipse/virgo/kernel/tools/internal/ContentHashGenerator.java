@@ -0,0 +1,295 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Set;
+
+import org.eclipse.virgo.repository.ArtifactDescriptor;
+import org.eclipse.virgo.repository.Attribute;
+import org.eclipse.virgo.repository.HashGenerator;
+import org.eclipse.virgo.repository.builder.ArtifactDescriptorBuilder;
+import org.eclipse.virgo.repository.builder.AttributeBuilder;
+
+/**
+ * A {@link HashGenerator} that records a cheap, 128-bit, non-cryptographic fingerprint of an artifact's content in
+ * its descriptor's {@link #FINGERPRINT_ATTRIBUTE} attribute.
+ * <p />
+ * The fingerprint of a jar is a MurmurHash3 of its length and its central directory. The central directory records the
+ * name, size and CRC-32 of every entry, including the manifest, so it changes whenever any entry's content changes,
+ * yet it is usually a small fraction of the jar and no entry needs to be inflated. The fingerprint of a directory, such
+ * as an exploded bundle, covers the relative path, size and last-modified time of every file within it, and that of
+ * any other file covers its entire content.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe.
+ *
+ */
+public final class ContentHashGenerator implements HashGenerator {
+
+    /**
+     * The name of the attribute in which an artifact's fingerprint is recorded.
+     */
+    public static final String FINGERPRINT_ATTRIBUTE = "content-fingerprint";
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+
+    private static final int END_OF_CENTRAL_DIRECTORY_LENGTH = 22;
+
+    private static final int MAXIMUM_COMMENT_LENGTH = 0xffff;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    public void generateHash(ArtifactDescriptorBuilder artifactDescriptorBuilder, File artifactFile) {
+        String fingerprint = fingerprint(artifactFile);
+        if (fingerprint != null) {
+            artifactDescriptorBuilder.addAttribute(new AttributeBuilder().setName(FINGERPRINT_ATTRIBUTE).setValue(fingerprint).build());
+        }
+    }
+
+    /**
+     * Returns the fingerprint recorded in the supplied descriptor, or <code>null</code> if it has none.
+     *
+     * @param descriptor the descriptor
+     * @return the recorded fingerprint, or <code>null</code>
+     */
+    public static String getFingerprint(ArtifactDescriptor descriptor) {
+        Set<Attribute> attributes = descriptor.getAttribute(FINGERPRINT_ATTRIBUTE);
+        if (attributes == null || attributes.isEmpty()) {
+            return null;
+        }
+        return attributes.iterator().next().getValue();
+    }
+
+    /**
+     * Computes the fingerprint of the supplied file or directory.
+     *
+     * @param file the artifact's file
+     * @return the fingerprint, or <code>null</code> if the artifact does not exist or cannot be read
+     */
+    public static String fingerprint(File file) {
+        try {
+            Murmur3 hash = new Murmur3();
+            if (file.isDirectory()) {
+                hashDirectory(file, "", hash);
+            } else if (file.isFile()) {
+                if (!hashCentralDirectory(file, hash)) {
+                    hash = new Murmur3();
+                    hashContent(file, hash);
+                }
+            } else {
+                return null;
+            }
+            return hash.finish();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Hashes the length and central directory of the supplied file, returning <code>false</code>, having hashed
+     * nothing, if it is not a zip file with a central directory that can be located.
+     */
+    private static boolean hashCentralDirectory(File file, Murmur3 hash) throws IOException {
+        RandomAccessFile zip = new RandomAccessFile(file, "r");
+        try {
+            long length = zip.length();
+            if (length < END_OF_CENTRAL_DIRECTORY_LENGTH) {
+                return false;
+            }
+
+            int tailLength = (int) Math.min(length, END_OF_CENTRAL_DIRECTORY_LENGTH + MAXIMUM_COMMENT_LENGTH);
+            byte[] tail = new byte[tailLength];
+            zip.seek(length - tailLength);
+            zip.readFully(tail);
+
+            for (int i = tailLength - END_OF_CENTRAL_DIRECTORY_LENGTH; i >= 0; i--) {
+                if (readInt(tail, i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                    long centralDirectorySize = readInt(tail, i + 12) & 0xffffffffL;
+                    long centralDirectoryOffset = readInt(tail, i + 16) & 0xffffffffL;
+                    if (centralDirectoryOffset + centralDirectorySize > length) {
+                        return false;
+                    }
+                    hash.update(length);
+                    zip.seek(centralDirectoryOffset);
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    long remaining = centralDirectorySize;
+                    while (remaining > 0) {
+                        int read = zip.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                        if (read < 0) {
+                            return false;
+                        }
+                        hash.update(buffer, 0, read);
+                        remaining -= read;
+                    }
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static void hashContent(File file, Murmur3 hash) throws IOException {
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                hash.update(buffer, 0, read);
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    private static void hashDirectory(File directory, String relativePath, Murmur3 hash) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Unable to list the contents of " + directory);
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            String path = relativePath + '/' + file.getName();
+            byte[] pathBytes = path.getBytes("UTF-8");
+            hash.update(pathBytes, 0, pathBytes.length);
+            if (file.isDirectory()) {
+                hashDirectory(file, path, hash);
+            } else {
+                hash.update(file.length());
+                hash.update(file.lastModified());
+            }
+        }
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8 | (bytes[offset + 2] & 0xff) << 16 | (bytes[offset + 3] & 0xff) << 24;
+    }
+
+    /**
+     * A streaming implementation of the 128-bit, x64 variant of MurmurHash3.
+     */
+    private static final class Murmur3 {
+
+        private static final long C1 = 0x87c37b91114253d5L;
+
+        private static final long C2 = 0x4cf5ad432745937fL;
+
+        private final byte[] block = new byte[16];
+
+        private int blockLength;
+
+        private long length;
+
+        private long h1;
+
+        private long h2;
+
+        private void update(long value) {
+            for (int i = 0; i < 8; i++) {
+                update((byte) (value >>> (i * 8)));
+            }
+        }
+
+        private void update(byte[] bytes, int offset, int count) {
+            for (int i = offset; i < offset + count; i++) {
+                update(bytes[i]);
+            }
+        }
+
+        private void update(byte value) {
+            this.block[this.blockLength++] = value;
+            this.length++;
+            if (this.blockLength == this.block.length) {
+                mixBlock(readLong(0), readLong(8));
+                this.blockLength = 0;
+            }
+        }
+
+        private void mixBlock(long k1, long k2) {
+            this.h1 ^= mixK1(k1);
+            this.h1 = Long.rotateLeft(this.h1, 27);
+            this.h1 += this.h2;
+            this.h1 = this.h1 * 5 + 0x52dce729;
+
+            this.h2 ^= mixK2(k2);
+            this.h2 = Long.rotateLeft(this.h2, 31);
+            this.h2 += this.h1;
+            this.h2 = this.h2 * 5 + 0x38495ab5;
+        }
+
+        private String finish() {
+            long k1 = 0;
+            long k2 = 0;
+            for (int i = this.blockLength - 1; i >= 0; i--) {
+                if (i >= 8) {
+                    k2 = (k2 << 8) | (this.block[i] & 0xff);
+                } else {
+                    k1 = (k1 << 8) | (this.block[i] & 0xff);
+                }
+            }
+            if (this.blockLength > 8) {
+                this.h2 ^= mixK2(k2);
+            }
+            if (this.blockLength > 0) {
+                this.h1 ^= mixK1(k1);
+            }
+
+            this.h1 ^= this.length;
+            this.h2 ^= this.length;
+            this.h1 += this.h2;
+            this.h2 += this.h1;
+            this.h1 = fmix(this.h1);
+            this.h2 = fmix(this.h2);
+            this.h1 += this.h2;
+            this.h2 += this.h1;
+
+            return String.format("%016x%016x", this.h1, this.h2);
+        }
+
+        private long readLong(int offset) {
+            long value = 0;
+            for (int i = offset + 7; i >= offset; i--) {
+                value = (value << 8) | (this.block[i] & 0xff);
+            }
+            return value;
+        }
+
+        private static long mixK1(long k1) {
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            return k1 * C2;
+        }
+
+        private static long mixK2(long k2) {
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            return k2 * C1;
+        }
+
+        private static long fmix(long k) {
+            k ^= k >>> 33;
+            k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33;
+            k *= 0xc4ceb9fe1a85ec53L;
+            k ^= k >>> 33;
+            return k;
+        }
+    }
+}
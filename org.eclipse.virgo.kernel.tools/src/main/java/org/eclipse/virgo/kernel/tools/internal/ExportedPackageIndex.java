@@ -0,0 +1,415 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools.internal;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Map.Entry;
+
+import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
+
+import org.eclipse.virgo.repository.ArtifactDescriptor;
+import org.eclipse.virgo.repository.Attribute;
+import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
+import org.eclipse.virgo.util.osgi.manifest.ExportedPackage;
+import org.eclipse.virgo.util.osgi.manifest.VersionRange;
+
+/**
+ * An index of the packages exported by a set of bundle {@link ArtifactDescriptor ArtifactDescriptors}, mapping each
+ * package name to the exported version and the descriptor that exports it.
+ * <p />
+ * The index is built once per repository generation. Export versions are read from the descriptors'
+ * <code>Export-Package</code> attributes so queries never need to parse a {@link BundleManifest}. A descriptor whose
+ * attributes do not carry a version is parsed once, while the index is being built.
+ * <p />
+ * The exports of each package are held sorted by version, so the exports within a version range, or the highest of
+ * them, are found with a binary search rather than by testing every export against the range.
+ * <p />
+ * The index also holds the bundles and libraries of its generation, ordered by name and version, so that they can be
+ * enumerated against a consistent snapshot of the repository without being copied.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe: instances are immutable.
+ *
+ */
+public final class ExportedPackageIndex {
+
+    private static final Comparator<ArtifactDescriptor> NAME_AND_VERSION_ORDER = new Comparator<ArtifactDescriptor>() {
+
+        public int compare(ArtifactDescriptor first, ArtifactDescriptor second) {
+            int result = compare(first.getName(), second.getName());
+            if (result == 0) {
+                result = compare(first.getVersion(), second.getVersion());
+            }
+            if (result == 0) {
+                result = compare(String.valueOf(first.getUri()), String.valueOf(second.getUri()));
+            }
+            return result;
+        }
+
+        private int compare(String first, String second) {
+            if (first == null) {
+                return second == null ? 0 : -1;
+            }
+            return second == null ? 1 : first.compareTo(second);
+        }
+
+        private int compare(Version first, Version second) {
+            if (first == null) {
+                return second == null ? 0 : -1;
+            }
+            return second == null ? 1 : first.compareTo(second);
+        }
+    };
+
+    private final Map<String, VersionedDescriptors> exportsByPackageName;
+
+    private final SymbolicNameIndex symbolicNameIndex;
+
+    private final FragmentHostIndex fragmentHostIndex;
+
+    private final List<ArtifactDescriptor> bundles;
+
+    private final List<ArtifactDescriptor> libraries;
+
+    private final long fingerprint;
+
+    private final long generation;
+
+    private ExportedPackageIndex(Map<String, VersionedDescriptors> exportsByPackageName, SymbolicNameIndex symbolicNameIndex,
+        FragmentHostIndex fragmentHostIndex, List<ArtifactDescriptor> bundles, List<ArtifactDescriptor> libraries, long fingerprint,
+        long generation) {
+        this.exportsByPackageName = exportsByPackageName;
+        this.symbolicNameIndex = symbolicNameIndex;
+        this.fragmentHostIndex = fragmentHostIndex;
+        this.bundles = bundles;
+        this.libraries = libraries;
+        this.fingerprint = fingerprint;
+        this.generation = generation;
+    }
+
+    /**
+     * Creates a new <code>ExportedPackageIndex</code> of the packages exported by the supplied bundle descriptors.
+     *
+     * @param bundleDescriptors the descriptors of the bundles to index
+     * @param generation the repository generation that the index describes
+     * @return the new index
+     */
+    public static ExportedPackageIndex create(Set<? extends ArtifactDescriptor> bundleDescriptors, long generation) {
+        return create(bundleDescriptors, Collections.<ArtifactDescriptor> emptySet(), fingerprint(bundleDescriptors), generation);
+    }
+
+    /**
+     * Creates a new <code>ExportedPackageIndex</code> of the packages exported by the supplied bundle descriptors,
+     * recording the supplied fingerprint rather than the fingerprint of the descriptors. This allows the fingerprint to
+     * cover other artifacts, such as libraries, whose changes should also advance the repository generation. The
+     * bundles and the supplied library descriptors are also indexed by symbolic name, and the bundles that are fragments
+     * by the symbolic name of their host.
+     *
+     * @param bundleDescriptors the descriptors of the bundles to index
+     * @param libraryDescriptors the descriptors of the libraries to index by symbolic name
+     * @param fingerprint the fingerprint of the repository contents
+     * @param generation the repository generation that the index describes
+     * @return the new index
+     */
+    public static ExportedPackageIndex create(Set<? extends ArtifactDescriptor> bundleDescriptors, Set<? extends ArtifactDescriptor> libraryDescriptors,
+        long fingerprint, long generation) {
+        Map<String, VersionedDescriptors.Builder> builders = new HashMap<String, VersionedDescriptors.Builder>();
+
+        for (ArtifactDescriptor bundleDescriptor : bundleDescriptors) {
+            if (!addExportsFromAttributes(bundleDescriptor, builders)) {
+                addExportsFromManifest(bundleDescriptor, builders);
+            }
+        }
+
+        Map<String, VersionedDescriptors> exportsByPackageName = new HashMap<String, VersionedDescriptors>(builders.size() * 2);
+        for (Entry<String, VersionedDescriptors.Builder> entry : builders.entrySet()) {
+            exportsByPackageName.put(entry.getKey(), entry.getValue().build());
+        }
+
+        Set<ArtifactDescriptor> namedDescriptors = new HashSet<ArtifactDescriptor>(bundleDescriptors);
+        namedDescriptors.addAll(libraryDescriptors);
+
+        return new ExportedPackageIndex(exportsByPackageName, SymbolicNameIndex.create(namedDescriptors, fingerprint),
+            FragmentHostIndex.create(bundleDescriptors), sort(bundleDescriptors), sort(libraryDescriptors), fingerprint, generation);
+    }
+
+    /**
+     * Creates a new <code>ExportedPackageIndex</code> that differs from this index by the removal and addition of the
+     * supplied descriptors, as the next repository generation. Only the added bundles' exports are read, and only the
+     * packages, names and hosts that are affected by the change are rebuilt. Everything else is shared with this index,
+     * which is unchanged and continues to describe its own generation.
+     *
+     * @param removed the descriptors of the bundles and libraries to remove
+     * @param addedBundles the descriptors of the bundles to add
+     * @param addedLibraries the descriptors of the libraries to add
+     * @param fingerprint the fingerprint of the repository contents
+     * @param generation the repository generation that the new index describes
+     * @return the new index
+     */
+    public ExportedPackageIndex patch(Set<? extends ArtifactDescriptor> removed, Set<? extends ArtifactDescriptor> addedBundles,
+        Set<? extends ArtifactDescriptor> addedLibraries, long fingerprint, long generation) {
+        Set<ArtifactDescriptor> removedBundles = new HashSet<ArtifactDescriptor>();
+        for (ArtifactDescriptor bundle : this.bundles) {
+            if (removed.contains(bundle)) {
+                removedBundles.add(bundle);
+            }
+        }
+
+        Map<String, VersionedDescriptors.Builder> removals = new HashMap<String, VersionedDescriptors.Builder>();
+        for (ArtifactDescriptor bundleDescriptor : removedBundles) {
+            if (!addExportsFromAttributes(bundleDescriptor, removals)) {
+                addExportsFromManifest(bundleDescriptor, removals);
+            }
+        }
+        Map<String, VersionedDescriptors.Builder> additions = new HashMap<String, VersionedDescriptors.Builder>();
+        for (ArtifactDescriptor bundleDescriptor : addedBundles) {
+            if (!addExportsFromAttributes(bundleDescriptor, additions)) {
+                addExportsFromManifest(bundleDescriptor, additions);
+            }
+        }
+
+        Set<String> affectedPackages = new HashSet<String>(removals.keySet());
+        affectedPackages.addAll(additions.keySet());
+        Map<String, VersionedDescriptors> exportsByPackageName = new HashMap<String, VersionedDescriptors>(this.exportsByPackageName);
+        for (String packageName : affectedPackages) {
+            VersionedDescriptors.Builder builder = new VersionedDescriptors.Builder();
+            VersionedDescriptors existing = this.exportsByPackageName.get(packageName);
+            if (existing != null) {
+                builder.addAll(existing, removedBundles);
+            }
+            VersionedDescriptors.Builder addition = additions.get(packageName);
+            if (addition != null) {
+                builder.addAll(addition);
+            }
+            if (builder.isEmpty()) {
+                exportsByPackageName.remove(packageName);
+            } else {
+                exportsByPackageName.put(packageName, builder.build());
+            }
+        }
+
+        Set<ArtifactDescriptor> addedDescriptors = new HashSet<ArtifactDescriptor>(addedBundles);
+        addedDescriptors.addAll(addedLibraries);
+
+        return new ExportedPackageIndex(exportsByPackageName, this.symbolicNameIndex.patch(removed, addedDescriptors, fingerprint),
+            this.fragmentHostIndex.patch(removedBundles, addedBundles), patch(this.bundles, removed, addedBundles), patch(this.libraries,
+                removed, addedLibraries), fingerprint, generation);
+    }
+
+    /**
+     * Computes a cheap fingerprint of the supplied descriptors that changes when a descriptor is added, removed, or
+     * replaced by one with a different type, location or version or, if the descriptors record their
+     * {@link ContentHashGenerator content fingerprint}, different content. The descriptors' hashes are mixed and
+     * combined with exclusive-or, together with their count, so the fingerprint does not depend on iteration order and
+     * changes to different descriptors do not cancel one another out, as they could if the hashes were summed.
+     *
+     * @param descriptors the descriptors to fingerprint
+     * @return the fingerprint
+     */
+    public static long fingerprint(Collection<? extends ArtifactDescriptor> descriptors) {
+        long fingerprint = 0;
+        for (ArtifactDescriptor descriptor : descriptors) {
+            fingerprint ^= mix(hash(descriptor));
+        }
+        return mix(fingerprint ^ mix(descriptors.size()));
+    }
+
+    private static long hash(ArtifactDescriptor descriptor) {
+        String type = descriptor.getType();
+        URI uri = descriptor.getUri();
+        Version version = descriptor.getVersion();
+        String contentFingerprint = ContentHashGenerator.getFingerprint(descriptor);
+        long hash = type == null ? 0 : type.hashCode();
+        hash = hash * 31 + (uri == null ? 0 : uri.hashCode());
+        hash = hash * 31 + (version == null ? 0 : version.hashCode());
+        hash = hash * 31 + (contentFingerprint == null ? 0 : contentFingerprint.hashCode());
+        return hash;
+    }
+
+    /**
+     * Returns the descriptors of all of the bundles that export the supplied package at a version within the supplied
+     * range.
+     *
+     * @param packageName the name of the package
+     * @param versionRange the range of acceptable export versions
+     * @return the matching descriptors, never <code>null</code>
+     */
+    public Set<ArtifactDescriptor> findByExportedPackage(String packageName, VersionRange versionRange) {
+        VersionedDescriptors exports = this.exportsByPackageName.get(packageName);
+        if (exports == null) {
+            return Collections.emptySet();
+        }
+        return exports.find(versionRange);
+    }
+
+    /**
+     * Returns the descriptor of a bundle that exports the supplied package at the highest version within the supplied
+     * range, or <code>null</code> if there is no such bundle. If more than one bundle exports the package at that
+     * version, which of them is returned is undefined.
+     *
+     * @param packageName the name of the package
+     * @param versionRange the range of acceptable export versions
+     * @return the matching descriptor, or <code>null</code>
+     */
+    public ArtifactDescriptor findHighestByExportedPackage(String packageName, VersionRange versionRange) {
+        VersionedDescriptors exports = this.exportsByPackageName.get(packageName);
+        if (exports == null) {
+            return null;
+        }
+        return exports.findHighest(versionRange);
+    }
+
+    /**
+     * Returns the descriptors of all of the bundles that export the supplied package, mapped to the version at which
+     * they export it.
+     *
+     * @param packageName the name of the package
+     * @return the exporting descriptors and their export versions, never <code>null</code>
+     */
+    Map<ArtifactDescriptor, Version> getExporters(String packageName) {
+        VersionedDescriptors exports = this.exportsByPackageName.get(packageName);
+        if (exports == null) {
+            return Collections.emptyMap();
+        }
+        return exports.getVersions();
+    }
+
+    /**
+     * Returns the index, by type and symbolic name, of the bundles and libraries of the repository generation that this
+     * index describes.
+     *
+     * @return the symbolic name index
+     */
+    public SymbolicNameIndex getSymbolicNameIndex() {
+        return this.symbolicNameIndex;
+    }
+
+    /**
+     * Returns the index, by host, of the fragments of the repository generation that this index describes.
+     *
+     * @return the fragment host index
+     */
+    public FragmentHostIndex getFragmentHostIndex() {
+        return this.fragmentHostIndex;
+    }
+
+    /**
+     * Returns the bundles of the repository generation that this index describes, ordered by name and version.
+     *
+     * @return the unmodifiable bundle descriptors
+     */
+    public List<ArtifactDescriptor> getBundles() {
+        return this.bundles;
+    }
+
+    /**
+     * Returns the libraries of the repository generation that this index describes, ordered by name and version.
+     *
+     * @return the unmodifiable library descriptors
+     */
+    public List<ArtifactDescriptor> getLibraries() {
+        return this.libraries;
+    }
+
+    /**
+     * Returns the fingerprint of the repository contents from which this index was built.
+     *
+     * @return the fingerprint
+     * @see #fingerprint(Collection)
+     */
+    public long getFingerprint() {
+        return this.fingerprint;
+    }
+
+    /**
+     * Returns the repository generation that this index describes.
+     *
+     * @return the generation
+     */
+    public long getGeneration() {
+        return this.generation;
+    }
+
+    private static boolean addExportsFromAttributes(ArtifactDescriptor bundleDescriptor, Map<String, VersionedDescriptors.Builder> builders) {
+        Set<Attribute> exportAttributes = bundleDescriptor.getAttribute(Constants.EXPORT_PACKAGE);
+        if (exportAttributes == null) {
+            return true;
+        }
+
+        List<String> packageNames = new ArrayList<String>();
+        List<Version> versions = new ArrayList<Version>();
+        for (Attribute exportAttribute : exportAttributes) {
+            Set<String> exportVersions = exportAttribute.getProperties().get(Constants.VERSION_ATTRIBUTE);
+            if (exportVersions == null || exportVersions.isEmpty()) {
+                return false;
+            }
+            packageNames.add(exportAttribute.getValue());
+            versions.add(new Version(exportVersions.iterator().next()));
+        }
+
+        for (int i = 0; i < packageNames.size(); i++) {
+            getBuilder(packageNames.get(i), builders).add(versions.get(i), bundleDescriptor);
+        }
+        return true;
+    }
+
+    private static void addExportsFromManifest(ArtifactDescriptor bundleDescriptor, Map<String, VersionedDescriptors.Builder> builders) {
+        BundleManifest manifest = BundleManifestUtils.getReadOnlyBundleManifest(bundleDescriptor);
+        for (ExportedPackage exportedPackage : manifest.getExportPackage().getExportedPackages()) {
+            getBuilder(exportedPackage.getPackageName(), builders).add(exportedPackage.getVersion(), bundleDescriptor);
+        }
+    }
+
+    private static List<ArtifactDescriptor> patch(List<ArtifactDescriptor> descriptors, Set<? extends ArtifactDescriptor> removed,
+        Set<? extends ArtifactDescriptor> added) {
+        Set<ArtifactDescriptor> patched = new HashSet<ArtifactDescriptor>(added);
+        for (ArtifactDescriptor descriptor : descriptors) {
+            if (!removed.contains(descriptor)) {
+                patched.add(descriptor);
+            }
+        }
+        return sort(patched);
+    }
+
+    private static List<ArtifactDescriptor> sort(Set<? extends ArtifactDescriptor> descriptors) {
+        List<ArtifactDescriptor> sorted = new ArrayList<ArtifactDescriptor>(descriptors);
+        Collections.sort(sorted, NAME_AND_VERSION_ORDER);
+        return Collections.unmodifiableList(sorted);
+    }
+
+    private static VersionedDescriptors.Builder getBuilder(String packageName, Map<String, VersionedDescriptors.Builder> builders) {
+        VersionedDescriptors.Builder builder = builders.get(packageName);
+        if (builder == null) {
+            builder = new VersionedDescriptors.Builder();
+            builders.put(packageName, builder);
+        }
+        return builder;
+    }
+
+    static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools.internal;
+
+/**
+ * The 64-bit FNV-1a hash, used for the fingerprints and signatures that are persisted alongside the indexes. A hash is
+ * started from {@link #OFFSET_BASIS} and each character or byte is folded into it in turn, so values that are hashed in
+ * pieces hash as they would if they had been concatenated.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe.
+ *
+ */
+final class Fnv1a {
+
+    static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long PRIME = 0x100000001b3L;
+
+    private Fnv1a() {
+    }
+
+    /**
+     * Returns the hash of the supplied value's characters.
+     */
+    static long hash(CharSequence value) {
+        return update(OFFSET_BASIS, value);
+    }
+
+    /**
+     * Folds the supplied value, a character or an unsigned byte, into the supplied hash.
+     */
+    static long update(long hash, int value) {
+        return (hash ^ value) * PRIME;
+    }
+
+    /**
+     * Folds the characters of the supplied value into the supplied hash.
+     */
+    static long update(long hash, CharSequence value) {
+        long result = hash;
+        for (int i = 0; i < value.length(); i++) {
+            result = update(result, value.charAt(i));
+        }
+        return result;
+    }
+
+    /**
+     * Folds the supplied range of bytes into the supplied hash.
+     */
+    static long update(long hash, byte[] bytes, int offset, int length) {
+        long result = hash;
+        for (int i = offset; i < offset + length; i++) {
+            result = update(result, bytes[i] & 0xff);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
+
+import org.eclipse.virgo.repository.ArtifactDescriptor;
+import org.eclipse.virgo.repository.Attribute;
+import org.eclipse.virgo.util.osgi.manifest.FragmentHost;
+import org.eclipse.virgo.util.osgi.manifest.VersionRange;
+
+/**
+ * An index of the fragments in a set of bundle {@link ArtifactDescriptor ArtifactDescriptors}, mapping each host
+ * symbolic name to the fragments that name it in their <code>Fragment-Host</code> header and the range of host
+ * versions to which each of them may attach.
+ * <p />
+ * Fragments are recognised by their <code>Fragment-Host</code> attribute, so only the manifests of fragments are
+ * parsed, once, while the index is being built.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe: instances are immutable.
+ *
+ */
+public final class FragmentHostIndex {
+
+    private static final FragmentHostIndex EMPTY = new FragmentHostIndex(Collections.<String, List<Fragment>> emptyMap());
+
+    private final Map<String, List<Fragment>> fragmentsByHostName;
+
+    private FragmentHostIndex(Map<String, List<Fragment>> fragmentsByHostName) {
+        this.fragmentsByHostName = fragmentsByHostName;
+    }
+
+    /**
+     * Creates a new <code>FragmentHostIndex</code> of the fragments among the supplied bundle descriptors.
+     *
+     * @param bundleDescriptors the descriptors of the bundles to index
+     * @return the new index
+     */
+    public static FragmentHostIndex create(Set<? extends ArtifactDescriptor> bundleDescriptors) {
+        Map<String, List<Fragment>> fragmentsByHostName = new HashMap<String, List<Fragment>>();
+        for (ArtifactDescriptor bundleDescriptor : bundleDescriptors) {
+            Set<Attribute> fragmentHostAttributes = bundleDescriptor.getAttribute(Constants.FRAGMENT_HOST);
+            if (fragmentHostAttributes == null || fragmentHostAttributes.isEmpty()) {
+                continue;
+            }
+
+            FragmentHost fragmentHost = BundleManifestUtils.getReadOnlyBundleManifest(bundleDescriptor).getFragmentHost();
+            String hostName = fragmentHost == null ? null : fragmentHost.getBundleSymbolicName();
+            if (hostName == null) {
+                continue;
+            }
+            VersionRange hostVersionRange = fragmentHost.getBundleVersion();
+            if (hostVersionRange == null) {
+                hostVersionRange = VersionRange.NATURAL_NUMBER_RANGE;
+            }
+
+            List<Fragment> fragments = fragmentsByHostName.get(hostName);
+            if (fragments == null) {
+                fragments = new ArrayList<Fragment>();
+                fragmentsByHostName.put(hostName, fragments);
+            }
+            fragments.add(new Fragment(hostVersionRange, bundleDescriptor));
+        }
+        return fragmentsByHostName.isEmpty() ? EMPTY : new FragmentHostIndex(fragmentsByHostName);
+    }
+
+    /**
+     * Creates a new <code>FragmentHostIndex</code> that differs from this index by the removal and addition of the
+     * supplied bundle descriptors. Only the manifests of added fragments are parsed and the fragments of unaffected
+     * hosts are shared with this index, which is unchanged.
+     *
+     * @param removed the descriptors of the bundles to remove
+     * @param added the descriptors of the bundles to add
+     * @return the new index
+     */
+    public FragmentHostIndex patch(Set<? extends ArtifactDescriptor> removed, Set<? extends ArtifactDescriptor> added) {
+        Map<String, List<Fragment>> fragmentsByHostName = new HashMap<String, List<Fragment>>();
+        for (Map.Entry<String, List<Fragment>> entry : this.fragmentsByHostName.entrySet()) {
+            List<Fragment> fragments = entry.getValue();
+            for (Fragment fragment : entry.getValue()) {
+                if (removed.contains(fragment.descriptor)) {
+                    fragments = new ArrayList<Fragment>();
+                    for (Fragment candidate : entry.getValue()) {
+                        if (!removed.contains(candidate.descriptor)) {
+                            fragments.add(candidate);
+                        }
+                    }
+                    break;
+                }
+            }
+            if (!fragments.isEmpty()) {
+                fragmentsByHostName.put(entry.getKey(), fragments);
+            }
+        }
+
+        for (Map.Entry<String, List<Fragment>> entry : create(added).fragmentsByHostName.entrySet()) {
+            List<Fragment> existing = fragmentsByHostName.get(entry.getKey());
+            List<Fragment> fragments = existing == null ? new ArrayList<Fragment>() : new ArrayList<Fragment>(existing);
+            fragments.addAll(entry.getValue());
+            fragmentsByHostName.put(entry.getKey(), fragments);
+        }
+        return fragmentsByHostName.isEmpty() ? EMPTY : new FragmentHostIndex(fragmentsByHostName);
+    }
+
+    /**
+     * Returns the descriptors of the fragments that may attach to the host with the supplied symbolic name and
+     * version.
+     *
+     * @param hostName the symbolic name of the host
+     * @param hostVersion the version of the host, or <code>null</code> to match fragments of any version of the host
+     * @return the matching fragments, never <code>null</code>
+     */
+    public Set<ArtifactDescriptor> findFragments(String hostName, Version hostVersion) {
+        List<Fragment> fragments = this.fragmentsByHostName.get(hostName);
+        if (fragments == null) {
+            return Collections.emptySet();
+        }
+        Set<ArtifactDescriptor> attachableFragments = new LinkedHashSet<ArtifactDescriptor>();
+        for (Fragment fragment : fragments) {
+            if (hostVersion == null || fragment.hostVersionRange.includes(hostVersion)) {
+                attachableFragments.add(fragment.descriptor);
+            }
+        }
+        return attachableFragments;
+    }
+
+    private static final class Fragment {
+
+        private final VersionRange hostVersionRange;
+
+        private final ArtifactDescriptor descriptor;
+
+        private Fragment(VersionRange hostVersionRange, ArtifactDescriptor descriptor) {
+            this.hostVersionRange = hostVersionRange;
+            this.descriptor = descriptor;
+        }
+    }
+}
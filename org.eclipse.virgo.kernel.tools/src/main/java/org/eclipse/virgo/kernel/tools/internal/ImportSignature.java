@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools.internal;
+
+import org.osgi.framework.Constants;
+
+import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
+import org.eclipse.virgo.util.osgi.manifest.ImportedBundle;
+import org.eclipse.virgo.util.osgi.manifest.ImportedLibrary;
+import org.eclipse.virgo.util.osgi.manifest.ImportedPackage;
+import org.eclipse.virgo.util.osgi.manifest.RequiredBundle;
+import org.eclipse.virgo.util.osgi.manifest.VersionRange;
+
+/**
+ * A normalized signature of the <code>Import-Package</code>, <code>Import-Bundle</code>, <code>Import-Library</code>
+ * and <code>Require-Bundle</code> clauses of a {@link BundleManifest}. Two manifests with equal signatures have
+ * identical dependencies in any given repository.
+ * <p />
+ * The signature captures every property of a clause that affects dependency location, in a canonical textual form
+ * that is independent of how the header was written, for example its whitespace or the syntax of its version ranges.
+ * The order of the clauses is preserved as it determines the order of the located dependencies.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe: instances are immutable.
+ *
+ */
+public final class ImportSignature {
+
+    private final String canonicalForm;
+
+    private final long hash;
+
+    private ImportSignature(String canonicalForm) {
+        this.canonicalForm = canonicalForm;
+        this.hash = Fnv1a.hash(canonicalForm);
+    }
+
+    /**
+     * Creates the <code>ImportSignature</code> of the supplied manifest.
+     *
+     * @param manifest the manifest
+     * @return the manifest's signature
+     */
+    public static ImportSignature create(BundleManifest manifest) {
+        StringBuilder builder = new StringBuilder();
+
+        for (ImportedPackage importedPackage : manifest.getImportPackage().getImportedPackages()) {
+            appendClause(builder, 'P', importedPackage.getPackageName(), importedPackage.getVersion(), importedPackage.getResolution()).append('\n');
+        }
+        for (ImportedLibrary importedLibrary : manifest.getImportLibrary().getImportedLibraries()) {
+            appendClause(builder, 'L', importedLibrary.getLibrarySymbolicName(), importedLibrary.getVersion(), importedLibrary.getResolution()).append('\n');
+        }
+        for (ImportedBundle importedBundle : manifest.getImportBundle().getImportedBundles()) {
+            appendClause(builder, 'B', importedBundle.getBundleSymbolicName(), importedBundle.getVersion(), importedBundle.getResolution()).append('\n');
+        }
+        for (RequiredBundle requiredBundle : manifest.getRequireBundle().getRequiredBundles()) {
+            String bundleVersion = requiredBundle.getAttributes().get(Constants.BUNDLE_VERSION_ATTRIBUTE);
+            VersionRange versionRange = bundleVersion == null ? VersionRange.NATURAL_NUMBER_RANGE : new VersionRange(bundleVersion);
+            appendClause(builder, 'R', requiredBundle.getBundleSymbolicName(), versionRange, requiredBundle.getResolution()).append(';').append(
+                requiredBundle.getVisibility()).append('\n');
+        }
+
+        return new ImportSignature(builder.toString());
+    }
+
+    /**
+     * Returns the canonical textual form of this signature.
+     *
+     * @return the canonical form
+     */
+    public String getCanonicalForm() {
+        return this.canonicalForm;
+    }
+
+    /**
+     * Returns a 64-bit hash of this signature's canonical form.
+     *
+     * @return the hash
+     */
+    public long getHash() {
+        return this.hash;
+    }
+
+    private static StringBuilder appendClause(StringBuilder builder, char kind, String name, VersionRange versionRange, Object resolution) {
+        return builder.append(kind).append(':').append(name).append(';').append(versionRange.toParseString()).append(';').append(resolution);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (this.hash ^ (this.hash >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ImportSignature)) {
+            return false;
+        }
+        ImportSignature other = (ImportSignature) obj;
+        return this.hash == other.hash && this.canonicalForm.equals(other.canonicalForm);
+    }
+
+    @Override
+    public String toString() {
+        return Long.toHexString(this.hash);
+    }
+}
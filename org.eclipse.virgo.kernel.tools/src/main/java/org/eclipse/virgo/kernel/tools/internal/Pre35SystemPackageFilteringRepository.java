@@ -14,8 +14,6 @@ package org.eclipse.virgo.kernel.tools.internal;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -24,11 +22,8 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.Map.Entry;
-import java.util.jar.JarFile;
-import java.util.zip.ZipEntry;
 
 import org.osgi.framework.BundleContext;
-import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.Version;
 
@@ -66,6 +61,12 @@ public final class Pre35SystemPackageFilteringRepository {
 
     private final ArtifactDescriptor systemBundleDescriptor;
 
+    private final Object indexMonitor = new Object();
+
+    private ExportedPackageIndex mainExportedPackageIndex;
+
+    private ExportedPackageIndex systemExportedPackageIndex;
+
     private static final String SYSTEM_BUNDLE_SYMBOLIC_NAME = "org.eclipse.osgi";
     private static final String REPOSITORY_CONFIG_PATH = File.separatorChar + "config" + File.separatorChar + "org.eclipse.virgo.repository.properties";
 
@@ -163,7 +164,7 @@ public final class Pre35SystemPackageFilteringRepository {
     private Map<String, Version> findExportsFromOsgiImplementationBundle(File searchDirectory, String symbolicName) {
         Map<String, Version> exports = new HashMap<String, Version>();
 
-        BundleManifest bundleManifest = findOsgiImplementationBundle(searchDirectory, symbolicName);
+        BundleManifest bundleManifest = BundleManifestFinder.findBundleManifest(searchDirectory, symbolicName);
 
         if (bundleManifest != null) {
             for (ExportedPackage exportedPackage : bundleManifest.getExportPackage().getExportedPackages()) {
@@ -174,71 +175,84 @@ public final class Pre35SystemPackageFilteringRepository {
 
         return exports;
     }
+    
+    /**
+     * Returns the number of bundles, including the system bundle, and libraries in the index that was most recently
+     * built by {@link #getExportedPackageIndex()}, or <code>0</code> if none has yet been built. Neither queries the
+     * repository nor copies its artifacts.
+     *
+     * @return the number of artifacts
+     */
+    public int getArtifactCount() {
+        synchronized (this.indexMonitor) {
+            ExportedPackageIndex index = this.mainExportedPackageIndex;
+            return index == null ? 0 : index.getBundles().size() + 1 + index.getLibraries().size();
+        }
+    }
 
-    private BundleManifest findOsgiImplementationBundle(File searchDirectory, String symbolicName) {
-        File[] filesInDir = searchDirectory.listFiles();
-        if (filesInDir != null) {
-            for (File fileInDir : filesInDir) {
-                if (fileInDir.getName().endsWith(".jar")) {
-                    Reader reader = null;
-                    try {
-                        JarFile jarFile = new JarFile(fileInDir);
-                        ZipEntry manifestEntry = jarFile.getEntry(JarFile.MANIFEST_NAME);
-                        reader = new InputStreamReader(jarFile.getInputStream(manifestEntry));
-                        BundleManifest bundleManifest = BundleManifestFactory.createBundleManifest(reader);
-                        if (symbolicName.equals(bundleManifest.getBundleSymbolicName().getSymbolicName())) {
-                            return bundleManifest;
-                        }
-                    } catch (IOException ioe) {
-                        if (reader != null) {
-                            try {
-                                reader.close();
-                            } catch (IOException ioe2) {
-                            }
-                        }
-                    }
-                }
+    /**
+     * Returns the {@link ExportedPackageIndex} of the main repository's bundles. The index is rebuilt, and the
+     * repository generation advanced, only when the set of bundles or libraries in the main repository has changed since
+     * the index was last built.
+     *
+     * @return the current index
+     */
+    public ExportedPackageIndex getExportedPackageIndex() {
+        Set<? extends ArtifactDescriptor> bundles = this.mainRepository.createQuery(ArtifactDescriptor.TYPE, BundleBridge.BRIDGE_TYPE).run();
+        Set<? extends ArtifactDescriptor> libraries = getLibraries();
+        long fingerprint = ExportedPackageIndex.fingerprint(bundles) * 31 + ExportedPackageIndex.fingerprint(libraries);
+
+        synchronized (this.indexMonitor) {
+            ExportedPackageIndex index = this.mainExportedPackageIndex;
+            if (index == null || index.getFingerprint() != fingerprint) {
+                long generation = index == null ? 1 : index.getGeneration() + 1;
+                index = ExportedPackageIndex.create(bundles, libraries, fingerprint, generation);
+                this.mainExportedPackageIndex = index;
             }
+            return index;
         }
-        return null;
     }
-    
+
     public Set<ArtifactDescriptor> findByExportedPackage(String packageName, VersionRange versionRange) {
+        return findByExportedPackage(getExportedPackageIndex(), packageName, versionRange);
+    }
+
+    /**
+     * Finds the bundles that export the supplied package at a version within the supplied range, consulting the
+     * supplied index of the main repository. Callers that issue many queries should obtain the index once, using
+     * {@link #getExportedPackageIndex()}, and pass it to every query.
+     *
+     * @param mainIndex the index of the main repository
+     * @param packageName the name of the package
+     * @param versionRange the range of acceptable export versions
+     * @return the descriptors of the matching bundles
+     */
+    public Set<ArtifactDescriptor> findByExportedPackage(ExportedPackageIndex mainIndex, String packageName, VersionRange versionRange) {
         Version version;
         if ((version = systemPackages.get(packageName)) != null) {
         	if (versionRange.includes(version)) {
-        		Set<ArtifactDescriptor> descriptorsFromLib = findByExportedPackage(this.systemPackageRepository, packageName, versionRange);
+        		Set<ArtifactDescriptor> descriptorsFromLib = getSystemExportedPackageIndex().findByExportedPackage(packageName, versionRange);
                 if (descriptorsFromLib.isEmpty()) {
                     return jreProvidedDependenciesDescriptors;
                 } else {
-                    Set<ArtifactDescriptor> systemBundleDescriptors = new HashSet<ArtifactDescriptor>();
-                    for (ArtifactDescriptor descriptor : descriptorsFromLib) {
-                        systemBundleDescriptors.add(descriptor);
-                    }
-                    return systemBundleDescriptors;
+                    return descriptorsFromLib;
                 }
 
         	}
         }
         
-        return findByExportedPackage(this.mainRepository, packageName, versionRange);	    	
+        return mainIndex.findByExportedPackage(packageName, versionRange);	    	
+    }
+
+    private ExportedPackageIndex getSystemExportedPackageIndex() {
+        synchronized (this.indexMonitor) {
+            if (this.systemExportedPackageIndex == null) {
+                Set<? extends ArtifactDescriptor> bundles = this.systemPackageRepository.createQuery(ArtifactDescriptor.TYPE, BundleBridge.BRIDGE_TYPE).run();
+                this.systemExportedPackageIndex = ExportedPackageIndex.create(bundles, 1);
+            }
+            return this.systemExportedPackageIndex;
+        }
     }
-    
-	private Set<ArtifactDescriptor> findByExportedPackage(Repository repository, String packageName, VersionRange versionRange) {
-	    Set<? extends ArtifactDescriptor> allDescriptors = repository.createQuery(Constants.EXPORT_PACKAGE, packageName).run();
-		Set<ArtifactDescriptor> withinVersionRangeDescriptors = new HashSet<ArtifactDescriptor>();
-		for (ArtifactDescriptor descriptor : allDescriptors) {
-			BundleManifest manifest = BundleManifestUtils.createBundleManifest(descriptor);
-			for (ExportedPackage exportedPackage : manifest.getExportPackage().getExportedPackages()) {
-				if (versionRange.includes(exportedPackage.getVersion())) {
-					withinVersionRangeDescriptors.add(descriptor);
-					break;
-				}
-			}
-		}
-	
-		return withinVersionRangeDescriptors;
-	}
 
     private static Repository createRepository(List<RepositoryConfiguration> repositoryConfiguration, BundleContext bundleContext) throws RepositoryCreationException {
 
@@ -283,8 +297,22 @@ public final class Pre35SystemPackageFilteringRepository {
     }
     
     public ArtifactDescriptor get(String type, String name, VersionRange versionRange) {
-		return this.mainRepository.get(type, name, versionRange);
+		return get(getExportedPackageIndex(), type, name, versionRange);
 	}
+
+    /**
+     * Returns the artifact of the supplied type and name with the highest version within the supplied range,
+     * consulting the supplied index of the main repository rather than querying the repository itself.
+     *
+     * @param mainIndex the index of the main repository
+     * @param type the type of the artifact
+     * @param name the symbolic name of the artifact
+     * @param versionRange the range of acceptable versions
+     * @return the descriptor of the matching artifact, or <code>null</code> if there is none
+     */
+    public ArtifactDescriptor get(ExportedPackageIndex mainIndex, String type, String name, VersionRange versionRange) {
+        return mainIndex.getSymbolicNameIndex().get(type, name, versionRange);
+    }
 	
 	public Set<? extends ArtifactDescriptor> getBundles() {
 		Set<? extends ArtifactDescriptor> mainBundles = this.mainRepository.createQuery(ArtifactDescriptor.TYPE, BundleBridge.BRIDGE_TYPE).run();
@@ -0,0 +1,299 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.virgo.kernel.artifact.bundle.BundleBridge;
+import org.eclipse.virgo.kernel.artifact.library.LibraryDefinition;
+import org.eclipse.virgo.medic.eventlog.EventLogger;
+import org.eclipse.virgo.medic.eventlog.Level;
+import org.eclipse.virgo.repository.ArtifactBridge;
+import org.eclipse.virgo.repository.ArtifactDescriptor;
+import org.eclipse.virgo.repository.ArtifactGenerationException;
+
+/**
+ * Keeps the index of a repository up to date with the artifacts that are added to, changed in, or removed from its
+ * search paths, without rebuilding the repository or its index.
+ * <p />
+ * A file that is reported as changed but whose {@link ContentHashGenerator content fingerprint} matches the one
+ * recorded when it was last indexed, such as a jar that has merely been touched or copied over itself, is skipped.
+ * <p />
+ * Changed files are reported by a {@link SearchPathWatcher}, which is created by the first refresh so that a
+ * repository that is never refreshed never watches its search paths. Since nothing was watched before it, the first
+ * refresh, and every refresh if the search paths cannot be watched, considers every file in the search paths.
+ * Descriptors are generated, using the repository's {@link ArtifactBridge ArtifactBridges}, only for the files that
+ * have changed, and the current {@link ExportedPackageIndex} is {@link ExportedPackageIndex#patch patched} to produce
+ * the next generation. The generated descriptors are held in an overlay that takes precedence over the repository's own
+ * descriptors of the same files, so that the repository's contents are reported consistently whether or not the
+ * repository itself has seen the changes. A file that is deleted remains in the overlay only if the repository itself
+ * may still report it.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe. Refreshes are serialized, but the overlay is replaced rather than modified, so applying it never waits
+ * for a refresh.
+ *
+ */
+public final class RepositoryRefresher {
+
+    private static final String WATCH_FAILED_CODE = "KT0001W";
+
+    private final Object monitor = new Object();
+
+    private final Collection<String> searchPaths;
+
+    private final Set<ArtifactBridge> artifactBridges;
+
+    private final EventLogger eventLogger;
+
+    private SearchPathWatcher watcher;
+
+    private boolean watching = true;
+
+    private boolean closed;
+
+    private volatile Map<File, OverlayEntry> overlay = Collections.emptyMap();
+
+    /**
+     * Creates a new <code>RepositoryRefresher</code> for the supplied search paths that generates descriptors using
+     * the supplied bridges.
+     *
+     * @param searchPaths the Ant-style search paths of the repository
+     * @param artifactBridges the bridges used to generate descriptors
+     */
+    public RepositoryRefresher(Collection<String> searchPaths, Set<ArtifactBridge> artifactBridges) {
+        this(searchPaths, artifactBridges, new SilentEventLogger());
+    }
+
+    /**
+     * Creates a new <code>RepositoryRefresher</code> for the supplied search paths that generates descriptors using
+     * the supplied bridges, and logs a failure to watch the search paths to the supplied <code>EventLogger</code>.
+     *
+     * @param searchPaths the Ant-style search paths of the repository
+     * @param artifactBridges the bridges used to generate descriptors
+     * @param eventLogger the logger to use
+     */
+    public RepositoryRefresher(Collection<String> searchPaths, Set<ArtifactBridge> artifactBridges, EventLogger eventLogger) {
+        this.searchPaths = new ArrayList<String>(searchPaths);
+        this.artifactBridges = artifactBridges;
+        this.eventLogger = eventLogger;
+    }
+
+    /**
+     * Returns the supplied descriptors of the supplied type, as reported by the repository, with the overlay applied:
+     * descriptors of files that have been refreshed are replaced by the descriptors generated when they were last
+     * refreshed. If nothing has been refreshed the supplied descriptors are returned unchanged.
+     *
+     * @param descriptors the repository's descriptors
+     * @param type the type of the descriptors
+     * @return the descriptors with the overlay applied
+     */
+    public Set<? extends ArtifactDescriptor> apply(Set<? extends ArtifactDescriptor> descriptors, String type) {
+        Map<File, OverlayEntry> currentOverlay = this.overlay;
+        if (currentOverlay.isEmpty()) {
+            return descriptors;
+        }
+        Set<ArtifactDescriptor> applied = new HashSet<ArtifactDescriptor>();
+        for (ArtifactDescriptor descriptor : descriptors) {
+            File file = toFile(descriptor.getUri());
+            if (file == null || !currentOverlay.containsKey(file)) {
+                applied.add(descriptor);
+            }
+        }
+        for (OverlayEntry entry : currentOverlay.values()) {
+            for (ArtifactDescriptor descriptor : entry.descriptors) {
+                if (type.equals(descriptor.getType())) {
+                    applied.add(descriptor);
+                }
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Re-indexes the files that have changed since the previous refresh. If any artifact has been added, changed or
+     * removed the supplied index is patched to produce the next repository generation, otherwise the supplied index
+     * is returned.
+     *
+     * @param current the current index of the repository
+     * @return the index of the next generation, or <code>current</code> if nothing has changed
+     */
+    public ExportedPackageIndex refresh(ExportedPackageIndex current) {
+        synchronized (this.monitor) {
+            Map<File, List<ArtifactDescriptor>> indexedFiles = new HashMap<File, List<ArtifactDescriptor>>();
+            addIndexedFiles(current.getBundles(), indexedFiles);
+            addIndexedFiles(current.getLibraries(), indexedFiles);
+
+            Set<File> changedFiles = findChangedFiles(indexedFiles.keySet());
+            if (changedFiles.isEmpty()) {
+                return current;
+            }
+
+            Map<File, OverlayEntry> nextOverlay = new HashMap<File, OverlayEntry>(this.overlay);
+            Set<ArtifactDescriptor> removed = new HashSet<ArtifactDescriptor>();
+            Set<ArtifactDescriptor> addedBundles = new HashSet<ArtifactDescriptor>();
+            Set<ArtifactDescriptor> addedLibraries = new HashSet<ArtifactDescriptor>();
+            for (File changedFile : changedFiles) {
+                List<ArtifactDescriptor> previous = indexedFiles.get(changedFile);
+                if (previous != null && isUnchanged(changedFile, previous)) {
+                    continue;
+                }
+                if (previous != null) {
+                    removed.addAll(previous);
+                }
+                List<ArtifactDescriptor> generated = generateArtifactDescriptors(changedFile);
+                for (ArtifactDescriptor descriptor : generated) {
+                    if (BundleBridge.BRIDGE_TYPE.equals(descriptor.getType())) {
+                        addedBundles.add(descriptor);
+                    } else if (LibraryDefinition.LIBRARY_TYPE.equals(descriptor.getType())) {
+                        addedLibraries.add(descriptor);
+                    }
+                }
+                // Previous descriptors that were not generated by a refresh were reported by the repository itself
+                OverlayEntry previousEntry = nextOverlay.get(changedFile);
+                boolean masksRepository = previousEntry == null ? previous != null : previousEntry.masksRepository;
+                if (generated.isEmpty() && !masksRepository) {
+                    nextOverlay.remove(changedFile);
+                } else {
+                    nextOverlay.put(changedFile, new OverlayEntry(generated, masksRepository));
+                }
+            }
+            this.overlay = nextOverlay;
+
+            if (removed.isEmpty() && addedBundles.isEmpty() && addedLibraries.isEmpty()) {
+                return current;
+            }
+
+            Set<ArtifactDescriptor> bundles = new HashSet<ArtifactDescriptor>(current.getBundles());
+            bundles.removeAll(removed);
+            bundles.addAll(addedBundles);
+            Set<ArtifactDescriptor> libraries = new HashSet<ArtifactDescriptor>(current.getLibraries());
+            libraries.removeAll(removed);
+            libraries.addAll(addedLibraries);
+            long fingerprint = ExportedPackageIndex.fingerprint(bundles) * 31 + ExportedPackageIndex.fingerprint(libraries);
+
+            return current.patch(removed, addedBundles, addedLibraries, fingerprint, current.getGeneration() + 1);
+        }
+    }
+
+    /**
+     * Stops watching the repository's search paths.
+     */
+    public void close() {
+        synchronized (this.monitor) {
+            this.closed = true;
+            if (this.watcher != null) {
+                this.watcher.close();
+                this.watcher = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the files that may have changed since the previous refresh. The first refresh starts watching the search
+     * paths and, like every refresh when they cannot be watched, returns every file in them together with the supplied
+     * previously indexed files. Must be called while holding the monitor.
+     */
+    private Set<File> findChangedFiles(Collection<File> indexedFiles) {
+        if (this.watcher != null) {
+            return this.watcher.poll(indexedFiles);
+        }
+        if (this.watching && !this.closed) {
+            try {
+                this.watcher = SearchPathWatcher.create(this.searchPaths);
+            } catch (IOException ioe) {
+                this.watching = false;
+                this.eventLogger.log(WATCH_FAILED_CODE, Level.WARNING, ioe, this.searchPaths);
+            }
+        }
+        return SearchPathWatcher.scan(this.searchPaths, indexedFiles);
+    }
+
+    /**
+     * Returns <code>true</code> if the supplied file's content fingerprint matches that recorded in every one of the
+     * supplied descriptors, generated when it was last indexed, such that it need not be indexed again.
+     */
+    private static boolean isUnchanged(File file, List<ArtifactDescriptor> previous) {
+        String fingerprint = ContentHashGenerator.fingerprint(file);
+        if (fingerprint == null) {
+            return false;
+        }
+        for (ArtifactDescriptor descriptor : previous) {
+            if (!fingerprint.equals(ContentHashGenerator.getFingerprint(descriptor))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<ArtifactDescriptor> generateArtifactDescriptors(File file) {
+        if (!file.exists()) {
+            return Collections.emptyList();
+        }
+        List<ArtifactDescriptor> descriptors = new ArrayList<ArtifactDescriptor>();
+        for (ArtifactBridge artifactBridge : this.artifactBridges) {
+            try {
+                ArtifactDescriptor descriptor = artifactBridge.generateArtifactDescriptor(file);
+                if (descriptor != null) {
+                    descriptors.add(descriptor);
+                }
+            } catch (ArtifactGenerationException e) {
+                // do nothing, the file is not an artifact that this bridge understands
+            }
+        }
+        return descriptors;
+    }
+
+    private static void addIndexedFiles(List<ArtifactDescriptor> descriptors, Map<File, List<ArtifactDescriptor>> indexedFiles) {
+        for (ArtifactDescriptor descriptor : descriptors) {
+            File file = toFile(descriptor.getUri());
+            if (file != null) {
+                List<ArtifactDescriptor> fileDescriptors = indexedFiles.get(file);
+                if (fileDescriptors == null) {
+                    fileDescriptors = new ArrayList<ArtifactDescriptor>(1);
+                    indexedFiles.put(file, fileDescriptors);
+                }
+                fileDescriptors.add(descriptor);
+            }
+        }
+    }
+
+    private static File toFile(URI uri) {
+        if (uri == null || !"file".equals(uri.getScheme())) {
+            return null;
+        }
+        return new File(uri).getAbsoluteFile();
+    }
+
+    private static final class OverlayEntry {
+
+        private final List<ArtifactDescriptor> descriptors;
+
+        private final boolean masksRepository;
+
+        private OverlayEntry(List<ArtifactDescriptor> descriptors, boolean masksRepository) {
+            this.descriptors = descriptors;
+            this.masksRepository = masksRepository;
+        }
+    }
+}
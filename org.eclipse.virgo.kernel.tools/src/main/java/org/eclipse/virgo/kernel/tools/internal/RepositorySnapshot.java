@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools.internal;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.virgo.repository.ArtifactDescriptor;
+import org.eclipse.virgo.util.osgi.manifest.VersionRange;
+
+/**
+ * An immutable snapshot of the contents of a {@link SystemPackageFilteringRepository} in a single repository
+ * generation. Every query of a snapshot is answered from the same generation, however the repository changes, so the
+ * results of a sequence of queries are consistent with one another.
+ * <p />
+ * Generations increase monotonically. A caller that has retained the generation of an earlier snapshot can compare it
+ * with the generation of the current snapshot to learn, cheaply, whether the repository has changed since.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe: instances are immutable. The sets of bundles and libraries are created on first use, and if several
+ * threads create them at once each creates an equal set.
+ *
+ */
+public final class RepositorySnapshot {
+
+    private final SystemPackageFilteringRepository repository;
+
+    private final ExportedPackageIndex mainIndex;
+
+    private final List<ArtifactDescriptor> bundles;
+
+    private volatile Set<ArtifactDescriptor> bundleSet;
+
+    private volatile Set<ArtifactDescriptor> librarySet;
+
+    RepositorySnapshot(SystemPackageFilteringRepository repository, ExportedPackageIndex mainIndex, List<ArtifactDescriptor> bundles) {
+        this.repository = repository;
+        this.mainIndex = mainIndex;
+        this.bundles = bundles;
+    }
+
+    /**
+     * Returns the repository generation that this snapshot describes.
+     *
+     * @return the generation
+     */
+    public long getGeneration() {
+        return this.mainIndex.getGeneration();
+    }
+
+    /**
+     * Returns the index of the main repository in this snapshot's generation.
+     *
+     * @return the index
+     */
+    public ExportedPackageIndex getExportedPackageIndex() {
+        return this.mainIndex;
+    }
+
+    /**
+     * Returns the system bundle followed by the bundles of the main repository, ordered by name and version.
+     *
+     * @return the unmodifiable bundle descriptors
+     */
+    public List<ArtifactDescriptor> getBundles() {
+        return this.bundles;
+    }
+
+    /**
+     * Returns the libraries of the main repository, ordered by name and version.
+     *
+     * @return the unmodifiable library descriptors
+     */
+    public List<ArtifactDescriptor> getLibraries() {
+        return this.mainIndex.getLibraries();
+    }
+
+    /**
+     * Returns the same bundles as {@link #getBundles()}, as a set.
+     *
+     * @return the unmodifiable bundle descriptors
+     */
+    public Set<ArtifactDescriptor> getBundleSet() {
+        Set<ArtifactDescriptor> set = this.bundleSet;
+        if (set == null) {
+            set = Collections.unmodifiableSet(new LinkedHashSet<ArtifactDescriptor>(this.bundles));
+            this.bundleSet = set;
+        }
+        return set;
+    }
+
+    /**
+     * Returns the same libraries as {@link #getLibraries()}, as a set.
+     *
+     * @return the unmodifiable library descriptors
+     */
+    public Set<ArtifactDescriptor> getLibrarySet() {
+        Set<ArtifactDescriptor> set = this.librarySet;
+        if (set == null) {
+            set = Collections.unmodifiableSet(new LinkedHashSet<ArtifactDescriptor>(getLibraries()));
+            this.librarySet = set;
+        }
+        return set;
+    }
+
+    /**
+     * Finds the bundles that export the supplied package at a version within the supplied range.
+     *
+     * @param packageName the name of the package
+     * @param versionRange the range of acceptable export versions
+     * @return the descriptors of the matching bundles
+     * @see SystemPackageFilteringRepository#findByExportedPackage(ExportedPackageIndex, String, VersionRange)
+     */
+    public Set<ArtifactDescriptor> findByExportedPackage(String packageName, VersionRange versionRange) {
+        return this.repository.findByExportedPackage(this.mainIndex, packageName, versionRange);
+    }
+
+    /**
+     * Finds a bundle that exports the supplied package at the highest version within the supplied range.
+     *
+     * @param packageName the name of the package
+     * @param versionRange the range of acceptable export versions
+     * @return the descriptor of the matching bundle, or <code>null</code> if there is none
+     * @see SystemPackageFilteringRepository#findHighestByExportedPackage(ExportedPackageIndex, String, VersionRange)
+     */
+    public ArtifactDescriptor findHighestByExportedPackage(String packageName, VersionRange versionRange) {
+        return this.repository.findHighestByExportedPackage(this.mainIndex, packageName, versionRange);
+    }
+
+    /**
+     * Returns the artifact of the supplied type and name with the highest version within the supplied range.
+     *
+     * @param type the type of the artifact
+     * @param name the symbolic name of the artifact
+     * @param versionRange the range of acceptable versions
+     * @return the descriptor of the matching artifact, or <code>null</code> if there is none
+     */
+    public ArtifactDescriptor get(String type, String name, VersionRange versionRange) {
+        return this.repository.get(this.mainIndex, type, name, versionRange);
+    }
+}
@@ -0,0 +1,383 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools.internal;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Watches the directories of a set of Ant-style repository search paths, such as
+ * <code>/virgo/repository/usr/{artifact}</code> or <code>/workspace/**&#47;*.jar</code>, using a
+ * {@link WatchService}, and reports the files matching the search paths that have been created, modified or deleted.
+ * <p />
+ * The directory that precedes the first wildcard of each search path is watched. If a wildcard appears in a directory
+ * of the search path, that directory's subdirectories are watched too, including those created later. Search path
+ * directories that do not exist when the watcher is created are not watched.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe.
+ *
+ */
+public final class SearchPathWatcher {
+
+    private static final String SEPARATOR = "/";
+
+    private static final String ANY_DIRECTORIES = "**";
+
+    private final Object monitor = new Object();
+
+    private final WatchService watchService;
+
+    private final List<SearchPath> searchPaths;
+
+    private final Map<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+
+    private final Set<Path> watchedDirectories = new HashSet<Path>();
+
+    private SearchPathWatcher(WatchService watchService, List<SearchPath> searchPaths) {
+        this.watchService = watchService;
+        this.searchPaths = searchPaths;
+    }
+
+    /**
+     * Creates a new <code>SearchPathWatcher</code> that watches the supplied search paths.
+     *
+     * @param searchPaths the Ant-style search paths to watch
+     * @return the new watcher
+     * @throws IOException if the directories cannot be watched
+     */
+    public static SearchPathWatcher create(Collection<String> searchPaths) throws IOException {
+        List<SearchPath> parsedSearchPaths = parse(searchPaths);
+        SearchPathWatcher watcher = new SearchPathWatcher(FileSystems.getDefault().newWatchService(), parsedSearchPaths);
+        try {
+            synchronized (watcher.monitor) {
+                for (SearchPath searchPath : parsedSearchPaths) {
+                    watcher.register(searchPath.root, searchPath.recursive, null);
+                }
+            }
+        } catch (IOException ioe) {
+            watcher.close();
+            throw ioe;
+        }
+        return watcher;
+    }
+
+    /**
+     * Returns every file that currently matches the supplied search paths, together with the supplied previously known
+     * files that match them, without watching the search paths.
+     *
+     * @param searchPaths the Ant-style search paths to scan
+     * @param knownFiles the files that are known to match the search paths
+     * @return the files, never <code>null</code>
+     */
+    public static Set<File> scan(Collection<String> searchPaths, Collection<File> knownFiles) {
+        List<SearchPath> parsedSearchPaths = parse(searchPaths);
+        Set<File> files = new HashSet<File>();
+        for (SearchPath searchPath : parsedSearchPaths) {
+            try {
+                walk(searchPath.root, searchPath.recursive, parsedSearchPaths, files, null);
+            } catch (IOException e) {
+                // do nothing, the directory's files cannot be reported
+            }
+        }
+        for (File knownFile : knownFiles) {
+            addIfMatching(knownFile.toPath(), parsedSearchPaths, files);
+        }
+        return files;
+    }
+
+    /**
+     * Returns the files matching the search paths that have changed since the previous poll, without waiting for
+     * further changes. The supplied previously known files that were within a deleted directory are also returned. If
+     * the watch service has lost events the files that currently match the search paths are returned, together with
+     * all of the supplied previously known files that match the search paths.
+     *
+     * @param knownFiles the files that are known to match the search paths
+     * @return the changed files, never <code>null</code>
+     */
+    public Set<File> poll(Collection<File> knownFiles) {
+        synchronized (this.monitor) {
+            Set<File> changedFiles = new HashSet<File>();
+            boolean overflowed = false;
+
+            WatchKey key;
+            while ((key = this.watchService.poll()) != null) {
+                Path directory = this.directories.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW || directory == null) {
+                        overflowed = true;
+                        continue;
+                    }
+                    Path path = directory.resolve((Path) event.context());
+                    if (event.kind() == ENTRY_CREATE && Files.isDirectory(path) && isRecursivelyWatched(path)) {
+                        try {
+                            register(path, true, changedFiles);
+                        } catch (IOException e) {
+                            overflowed = true;
+                        }
+                    }
+                    addIfMatching(path, changedFiles);
+                    if (event.kind() == ENTRY_DELETE) {
+                        for (File knownFile : knownFiles) {
+                            if (knownFile.toPath().startsWith(path)) {
+                                addIfMatching(knownFile.toPath(), changedFiles);
+                            }
+                        }
+                    }
+                }
+                if (!key.reset()) {
+                    this.watchedDirectories.remove(this.directories.remove(key));
+                }
+            }
+
+            if (overflowed) {
+                changedFiles.addAll(scan());
+                for (File knownFile : knownFiles) {
+                    addIfMatching(knownFile.toPath(), changedFiles);
+                }
+            }
+            return changedFiles;
+        }
+    }
+
+    /**
+     * Stops watching the search paths.
+     */
+    public void close() {
+        synchronized (this.monitor) {
+            this.directories.clear();
+            this.watchedDirectories.clear();
+            try {
+                this.watchService.close();
+            } catch (IOException e) {
+                // do nothing
+            }
+        }
+    }
+
+    private Set<File> scan() {
+        Set<File> files = new HashSet<File>();
+        for (SearchPath searchPath : this.searchPaths) {
+            if (Files.isDirectory(searchPath.root)) {
+                try {
+                    register(searchPath.root, searchPath.recursive, files);
+                } catch (IOException e) {
+                    // do nothing, the directory's files cannot be reported
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Watches the supplied directory, and its subdirectories if <code>recursive</code>. If <code>files</code> is not
+     * <code>null</code> the files that are found that match the search paths are added to it.
+     */
+    private void register(Path directory, boolean recursive, Set<File> files) throws IOException {
+        walk(directory, recursive, this.searchPaths, files, new DirectoryVisitor() {
+
+            public void visitDirectory(Path dir) throws IOException {
+                if (watchedDirectories.add(dir)) {
+                    directories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+                }
+            }
+        });
+    }
+
+    /**
+     * Walks the supplied directory, and its subdirectories if <code>recursive</code>, passing each directory to the
+     * supplied visitor, if any. If <code>files</code> is not <code>null</code> the files that are found that match the
+     * supplied search paths are added to it.
+     */
+    private static void walk(final Path directory, final boolean recursive, final List<SearchPath> searchPaths, final Set<File> files,
+        final DirectoryVisitor visitor) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (files != null) {
+                    addIfMatching(dir, searchPaths, files);
+                }
+                if (!recursive && !dir.equals(directory)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                if (visitor != null) {
+                    visitor.visitDirectory(dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (files != null) {
+                    addIfMatching(file, searchPaths, files);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private boolean isRecursivelyWatched(Path directory) {
+        for (SearchPath searchPath : this.searchPaths) {
+            if (searchPath.recursive && directory.startsWith(searchPath.root)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addIfMatching(Path path, Set<File> files) {
+        addIfMatching(path, this.searchPaths, files);
+    }
+
+    private static void addIfMatching(Path path, List<SearchPath> searchPaths, Set<File> files) {
+        String normalizedPath = normalize(path.toAbsolutePath().toString());
+        for (SearchPath searchPath : searchPaths) {
+            if (searchPath.pattern.matcher(normalizedPath).matches()) {
+                files.add(path.toAbsolutePath().toFile());
+                return;
+            }
+        }
+    }
+
+    private static List<SearchPath> parse(Collection<String> searchPaths) {
+        List<SearchPath> parsedSearchPaths = new ArrayList<SearchPath>();
+        for (String searchPath : searchPaths) {
+            parsedSearchPaths.add(SearchPath.parse(searchPath));
+        }
+        return parsedSearchPaths;
+    }
+
+    private static String normalize(String path) {
+        return path.replace(File.separatorChar, '/');
+    }
+
+    private interface DirectoryVisitor {
+
+        void visitDirectory(Path directory) throws IOException;
+    }
+
+    private static final class SearchPath {
+
+        private final Path root;
+
+        private final Pattern pattern;
+
+        private final boolean recursive;
+
+        private SearchPath(Path root, Pattern pattern, boolean recursive) {
+            this.root = root;
+            this.pattern = pattern;
+            this.recursive = recursive;
+        }
+
+        private static SearchPath parse(String searchPath) {
+            String normalizedSearchPath = normalize(new File(searchPath).getAbsolutePath());
+            String[] segments = normalizedSearchPath.split(SEPARATOR);
+
+            int firstWildcard = segments.length;
+            for (int i = 0; i < segments.length; i++) {
+                if (isWildcard(segments[i])) {
+                    firstWildcard = i;
+                    break;
+                }
+            }
+
+            StringBuilder root = new StringBuilder();
+            StringBuilder pattern = new StringBuilder();
+            int rootLength = firstWildcard == segments.length ? segments.length - 1 : firstWildcard;
+            for (int i = 0; i < segments.length; i++) {
+                if (i > 0 && i < rootLength) {
+                    root.append(SEPARATOR);
+                }
+                if (i < rootLength) {
+                    root.append(segments[i]);
+                }
+                if (i > 0 && !ANY_DIRECTORIES.equals(segments[i - 1])) {
+                    pattern.append(SEPARATOR);
+                }
+                appendSegment(segments[i], i == segments.length - 1, pattern);
+            }
+
+            boolean recursive = firstWildcard < segments.length - 1;
+            String rootPath = root.length() == 0 ? SEPARATOR : root.toString();
+            return new SearchPath(new File(rootPath).toPath(), Pattern.compile(pattern.toString()), recursive);
+        }
+
+        private static boolean isWildcard(String segment) {
+            return segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0 || segment.indexOf('{') >= 0;
+        }
+
+        /**
+         * Appends the regular expression that matches the supplied segment. A <code>**</code> segment that is not the
+         * last matches zero or more directories, together with the separator that follows them.
+         */
+        private static void appendSegment(String segment, boolean last, StringBuilder pattern) {
+            if (ANY_DIRECTORIES.equals(segment)) {
+                pattern.append(last ? ".*" : "(?:.*/)?");
+                return;
+            }
+            StringBuilder literal = new StringBuilder();
+            for (int i = 0; i < segment.length(); i++) {
+                char c = segment.charAt(i);
+                if (c == '*' || c == '?' || c == '{') {
+                    appendLiteral(literal, pattern);
+                    if (c == '*') {
+                        pattern.append("[^/]*");
+                    } else if (c == '?') {
+                        pattern.append("[^/]");
+                    } else {
+                        int end = segment.indexOf('}', i);
+                        i = end < 0 ? segment.length() : end;
+                        pattern.append("[^/]+");
+                    }
+                } else {
+                    literal.append(c);
+                }
+            }
+            appendLiteral(literal, pattern);
+        }
+
+        private static void appendLiteral(StringBuilder literal, StringBuilder pattern) {
+            if (literal.length() > 0) {
+                pattern.append(Pattern.quote(literal.toString()));
+                literal.setLength(0);
+            }
+        }
+    }
+}
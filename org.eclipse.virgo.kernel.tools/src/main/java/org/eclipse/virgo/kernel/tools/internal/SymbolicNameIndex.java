@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.eclipse.virgo.repository.ArtifactDescriptor;
+import org.eclipse.virgo.util.osgi.manifest.VersionRange;
+
+/**
+ * An index of a set of {@link ArtifactDescriptor ArtifactDescriptors}, such as the bundles and libraries in a
+ * repository, by type and symbolic name.
+ * <p />
+ * The descriptors with a given type and name are held sorted by version, so the best match for an
+ * <code>Import-Bundle</code>, <code>Require-Bundle</code> or <code>Import-Library</code> is found with a binary
+ * search. As with {@link org.eclipse.virgo.repository.Repository#get(String, String, VersionRange) Repository.get},
+ * the best match is the descriptor with the highest version within the import's range.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe: instances are immutable.
+ *
+ */
+public final class SymbolicNameIndex {
+
+    private final Map<String, Map<String, VersionedDescriptors>> descriptorsByTypeAndName;
+
+    private final long fingerprint;
+
+    private SymbolicNameIndex(Map<String, Map<String, VersionedDescriptors>> descriptorsByTypeAndName, long fingerprint) {
+        this.descriptorsByTypeAndName = descriptorsByTypeAndName;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Creates a new <code>SymbolicNameIndex</code> of the supplied descriptors.
+     *
+     * @param descriptors the descriptors to index
+     * @return the new index
+     */
+    public static SymbolicNameIndex create(Set<? extends ArtifactDescriptor> descriptors) {
+        return create(descriptors, ExportedPackageIndex.fingerprint(descriptors));
+    }
+
+    /**
+     * Creates a new <code>SymbolicNameIndex</code> of the supplied descriptors, recording the supplied fingerprint
+     * rather than the fingerprint of the descriptors.
+     *
+     * @param descriptors the descriptors to index
+     * @param fingerprint the fingerprint of the repository contents
+     * @return the new index
+     */
+    public static SymbolicNameIndex create(Set<? extends ArtifactDescriptor> descriptors, long fingerprint) {
+        Map<String, Map<String, VersionedDescriptors.Builder>> builders = new HashMap<String, Map<String, VersionedDescriptors.Builder>>();
+        for (ArtifactDescriptor descriptor : descriptors) {
+            Map<String, VersionedDescriptors.Builder> buildersByName = builders.get(descriptor.getType());
+            if (buildersByName == null) {
+                buildersByName = new HashMap<String, VersionedDescriptors.Builder>();
+                builders.put(descriptor.getType(), buildersByName);
+            }
+            VersionedDescriptors.Builder builder = buildersByName.get(descriptor.getName());
+            if (builder == null) {
+                builder = new VersionedDescriptors.Builder();
+                buildersByName.put(descriptor.getName(), builder);
+            }
+            builder.add(descriptor.getVersion(), descriptor);
+        }
+
+        Map<String, Map<String, VersionedDescriptors>> descriptorsByTypeAndName = new HashMap<String, Map<String, VersionedDescriptors>>();
+        for (Entry<String, Map<String, VersionedDescriptors.Builder>> type : builders.entrySet()) {
+            Map<String, VersionedDescriptors> descriptorsByName = new HashMap<String, VersionedDescriptors>(type.getValue().size() * 2);
+            for (Entry<String, VersionedDescriptors.Builder> name : type.getValue().entrySet()) {
+                descriptorsByName.put(name.getKey(), name.getValue().build());
+            }
+            descriptorsByTypeAndName.put(type.getKey(), descriptorsByName);
+        }
+
+        return new SymbolicNameIndex(descriptorsByTypeAndName, fingerprint);
+    }
+
+    /**
+     * Creates a new <code>SymbolicNameIndex</code> that differs from this index by the removal and addition of the
+     * supplied descriptors. Only the entries of the affected types and names are rebuilt, the others are shared with
+     * this index, which is unchanged.
+     *
+     * @param removed the descriptors to remove
+     * @param added the descriptors to add
+     * @param fingerprint the fingerprint of the repository contents
+     * @return the new index
+     */
+    public SymbolicNameIndex patch(Set<? extends ArtifactDescriptor> removed, Set<? extends ArtifactDescriptor> added, long fingerprint) {
+        Map<String, Map<String, VersionedDescriptors.Builder>> builders = new HashMap<String, Map<String, VersionedDescriptors.Builder>>();
+        for (ArtifactDescriptor descriptor : removed) {
+            getPatchBuilder(descriptor, builders, removed);
+        }
+        for (ArtifactDescriptor descriptor : added) {
+            getPatchBuilder(descriptor, builders, removed).add(descriptor.getVersion(), descriptor);
+        }
+
+        Map<String, Map<String, VersionedDescriptors>> descriptorsByTypeAndName = new HashMap<String, Map<String, VersionedDescriptors>>(
+            this.descriptorsByTypeAndName);
+        for (Entry<String, Map<String, VersionedDescriptors.Builder>> type : builders.entrySet()) {
+            Map<String, VersionedDescriptors> existing = this.descriptorsByTypeAndName.get(type.getKey());
+            Map<String, VersionedDescriptors> descriptorsByName = existing == null ? new HashMap<String, VersionedDescriptors>()
+                : new HashMap<String, VersionedDescriptors>(existing);
+            for (Entry<String, VersionedDescriptors.Builder> name : type.getValue().entrySet()) {
+                if (name.getValue().isEmpty()) {
+                    descriptorsByName.remove(name.getKey());
+                } else {
+                    descriptorsByName.put(name.getKey(), name.getValue().build());
+                }
+            }
+            descriptorsByTypeAndName.put(type.getKey(), descriptorsByName);
+        }
+
+        return new SymbolicNameIndex(descriptorsByTypeAndName, fingerprint);
+    }
+
+    /**
+     * Returns the builder of the supplied descriptor's type and name, creating it, and seeding it with the
+     * descriptors of this index that have not been removed, if necessary.
+     */
+    private VersionedDescriptors.Builder getPatchBuilder(ArtifactDescriptor descriptor, Map<String, Map<String, VersionedDescriptors.Builder>> builders,
+        Set<? extends ArtifactDescriptor> removed) {
+        Map<String, VersionedDescriptors.Builder> buildersByName = builders.get(descriptor.getType());
+        if (buildersByName == null) {
+            buildersByName = new HashMap<String, VersionedDescriptors.Builder>();
+            builders.put(descriptor.getType(), buildersByName);
+        }
+        VersionedDescriptors.Builder builder = buildersByName.get(descriptor.getName());
+        if (builder == null) {
+            builder = new VersionedDescriptors.Builder();
+            Map<String, VersionedDescriptors> descriptorsByName = this.descriptorsByTypeAndName.get(descriptor.getType());
+            VersionedDescriptors existing = descriptorsByName == null ? null : descriptorsByName.get(descriptor.getName());
+            if (existing != null) {
+                builder.addAll(existing, removed);
+            }
+            buildersByName.put(descriptor.getName(), builder);
+        }
+        return builder;
+    }
+
+    /**
+     * Returns the descriptor of the supplied type and name with the highest version within the supplied range, or
+     * <code>null</code> if there is no such descriptor.
+     *
+     * @param type the type of the artifact
+     * @param name the symbolic name of the artifact
+     * @param versionRange the range of acceptable versions
+     * @return the matching descriptor, or <code>null</code>
+     */
+    public ArtifactDescriptor get(String type, String name, VersionRange versionRange) {
+        Map<String, VersionedDescriptors> descriptorsByName = this.descriptorsByTypeAndName.get(type);
+        if (descriptorsByName == null) {
+            return null;
+        }
+        VersionedDescriptors descriptors = descriptorsByName.get(name);
+        if (descriptors == null) {
+            return null;
+        }
+        return descriptors.findHighest(versionRange);
+    }
+
+    /**
+     * Returns the fingerprint of the descriptors from which this index was built.
+     *
+     * @return the fingerprint
+     */
+    public long getFingerprint() {
+        return this.fingerprint;
+    }
+}
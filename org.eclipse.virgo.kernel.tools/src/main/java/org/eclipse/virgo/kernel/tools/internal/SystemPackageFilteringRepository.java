@@ -14,9 +14,10 @@ package org.eclipse.virgo.kernel.tools.internal;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -24,11 +25,16 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.Map.Entry;
-import java.util.jar.JarFile;
-import java.util.zip.ZipEntry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.osgi.framework.BundleContext;
-import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.Version;
 
@@ -42,10 +48,10 @@ import org.eclipse.virgo.repository.HashGenerator;
 import org.eclipse.virgo.repository.Repository;
 import org.eclipse.virgo.repository.RepositoryCreationException;
 import org.eclipse.virgo.repository.RepositoryFactory;
-import org.eclipse.virgo.repository.builder.ArtifactDescriptorBuilder;
 import org.eclipse.virgo.repository.configuration.ExternalStorageRepositoryConfiguration;
 import org.eclipse.virgo.repository.configuration.PropertiesRepositoryConfigurationReader;
 import org.eclipse.virgo.repository.configuration.RepositoryConfiguration;
+import org.eclipse.virgo.repository.configuration.WatchedStorageRepositoryConfiguration;
 import org.eclipse.virgo.util.math.OrderedPair;
 import org.eclipse.virgo.util.osgi.manifest.VersionRange;
 import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
@@ -53,17 +59,59 @@ import org.eclipse.virgo.util.osgi.manifest.BundleManifestFactory;
 import org.eclipse.virgo.util.osgi.manifest.ExportPackage;
 import org.eclipse.virgo.util.osgi.manifest.ExportedPackage;
 
+/**
+ * A view of the artifacts in a kernel installation, together with any additional search paths, in which packages that
+ * are provided by the system bundle are served by the system bundle, or by the plugin that provides them, rather than
+ * by the bundles in the kernel's repository.
+ * <p />
+ * Startup is made up of four components: the system packages, the repository of the kernel's plugins, the table that
+ * resolves each system package to the plugins that export it, and the repository chain of the kernel's configured
+ * repositories and the additional search paths, whose first generation is indexed as part of starting it. They are
+ * started synchronously by the constructor, unless an <code>Executor</code> is supplied, in which case they are started
+ * in the background, in that order, and the constructor returns immediately. Queries wait only for the components that
+ * they need, so queries for system packages can be answered before the repository chain has started. The
+ * {@link #getReadiness() readiness} future completes once every component has started.
+ * <p />
+ * Each generation of the main repository's index is built off to the side, while queries continue to read the current
+ * generation, and is then published with a single atomic swap. Once started, queries never wait for a new generation to
+ * be built and never query the underlying repositories: a new generation is built only when the repository is
+ * {@link #refresh() refreshed}. A generation is immutable and is reclaimed by the garbage collector once it has been
+ * replaced and the queries that are using it have finished.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe. Once started, queries are lock-free and read only immutable state.
+ *
+ */
 public final class SystemPackageFilteringRepository {
 
-    private final Map<String, Version> systemPackages;
+    private final FutureTask<SystemPackages> systemPackages;
+
+    private final FutureTask<Repository> systemPackageRepository;
+
+    private final FutureTask<SystemPackageTable> systemPackageTable;
+
+    private final FutureTask<Repository> mainRepository;
+
+    private final FutureTask<Void> startup;
+
+    private final Object lifecycleMonitor = new Object();
+
+    private final List<Repository> startedRepositories = new ArrayList<Repository>();
+
+    private boolean shutdown;
+
+    private volatile RepositoryRefresher refresher;
 
-    private final Repository mainRepository;
+    private volatile boolean refresherCoversMainRepository;
 
-    private final Repository systemPackageRepository;
+    private final ReentrantLock generationLock = new ReentrantLock();
 
-    private final Set<ArtifactDescriptor> jreProvidedDependenciesDescriptors;
+    private final AtomicReference<ExportedPackageIndex> mainExportedPackageIndex = new AtomicReference<ExportedPackageIndex>();
 
-    private final ArtifactDescriptor systemBundleDescriptor;
+    private final AtomicReference<RepositorySnapshot> snapshot = new AtomicReference<RepositorySnapshot>();
+
+    private volatile RepositoryFingerprint repositoryFingerprint;
 
     private static final String SYSTEM_BUNDLE_SYMBOLIC_NAME = "org.eclipse.osgi";
     private static final String REPOSITORY_CONFIG_PATH = File.separatorChar + "configuration" + File.separatorChar + "org.eclipse.virgo.repository.properties";
@@ -71,24 +119,147 @@ public final class SystemPackageFilteringRepository {
     private static final String LIB_SEARCH_PATH = File.separatorChar + "lib" + File.separatorChar + "*.jar";
     
     private static final String PLUGINS_SEARCH_PATH = File.separatorChar + "plugins" + File.separatorChar + "*.jar";
+
+    private static final String SYSTEM_PACKAGES_SNAPSHOT_NAME = "system-packages.snapshot";
     
     public SystemPackageFilteringRepository(String serverHomePath, String[] additionalSearchPaths, String indexDirectoryPath,
-        @SuppressWarnings("unused") EventLogger eventLogger, BundleContext bundleContext) throws IOException {
+        EventLogger eventLogger, BundleContext bundleContext) throws IOException {
+        this(serverHomePath, additionalSearchPaths, indexDirectoryPath, eventLogger, bundleContext, null);
+    }
 
-        String repositoryConfigPath = null;
+    /**
+     * Creates a new <code>SystemPackageFilteringRepository</code>. If an <code>Executor</code> is supplied the
+     * repository is started in the background using it, otherwise it is started before the constructor returns.
+     * 
+     * @throws IOException if the repository is started synchronously and fails to start
+     */
+    public SystemPackageFilteringRepository(final String serverHomePath, final String[] additionalSearchPaths, final String indexDirectoryPath,
+        final EventLogger eventLogger, final BundleContext bundleContext, Executor startupExecutor) throws IOException {
+
+        final Set<ArtifactBridge> artifactBridges = createArtifactBridges();
+
+        this.systemPackages = new FutureTask<SystemPackages>(new Callable<SystemPackages>() {
+
+            public SystemPackages call() throws IOException {
+                return createSystemPackages(serverHomePath, indexDirectoryPath);
+            }
+        });
+
+        this.systemPackageRepository = new FutureTask<Repository>(new Callable<Repository>() {
+
+            public Repository call() throws IOException {
+                RepositoryConfiguration systemPackageRepositoryConfiguration = new ExternalStorageRepositoryConfiguration("system-repository", new File(
+                    indexDirectoryPath, "system-repository.index"), artifactBridges, serverHomePath + PLUGINS_SEARCH_PATH, null);
+                return started(createRepository(systemPackageRepositoryConfiguration, bundleContext));
+            }
+        });
+
+        this.systemPackageTable = new FutureTask<SystemPackageTable>(new Callable<SystemPackageTable>() {
+
+            public SystemPackageTable call() throws Exception {
+                SystemPackages packages = getStartedComponent(systemPackages);
+                Set<? extends ArtifactDescriptor> plugins = getStartedComponent(systemPackageRepository).createQuery(ArtifactDescriptor.TYPE,
+                    BundleBridge.BRIDGE_TYPE).run();
+                return SystemPackageTable.create(packages.packages, ExportedPackageIndex.create(plugins, 1),
+                    packages.jreProvidedDependenciesDescriptors);
+            }
+        });
+
+        this.mainRepository = new FutureTask<Repository>(new Callable<Repository>() {
+
+            public Repository call() throws IOException {
+                return started(createMainRepository(serverHomePath, additionalSearchPaths, indexDirectoryPath, artifactBridges, bundleContext,
+                    eventLogger));
+            }
+        });
+
+        this.startup = new FutureTask<Void>(new Callable<Void>() {
+
+            public Void call() throws Exception {
+                systemPackages.run();
+                systemPackageRepository.run();
+                systemPackageTable.run();
+                mainRepository.run();
+                getStartedComponent(systemPackages);
+                getStartedComponent(systemPackageRepository);
+                getStartedComponent(systemPackageTable);
+                getStartedComponent(mainRepository);
+                publishFirstGeneration();
+                return null;
+            }
+        });
+
+        if (startupExecutor == null) {
+            this.startup.run();
+            try {
+                getStartedComponent(this.startup);
+            } catch (IOException ioe) {
+                shutdown();
+                throw ioe;
+            } catch (RuntimeException re) {
+                shutdown();
+                throw re;
+            } catch (Exception e) {
+                shutdown();
+                throw new IllegalStateException("Repository startup failed", e);
+            }
+        } else {
+            startupExecutor.execute(this.startup);
+        }
+    }
+
+    /**
+     * Returns a <code>Future</code> that completes once the repository has started. If startup fails the future's
+     * {@link Future#get() get} method throws an <code>ExecutionException</code> whose cause is the failure.
+     * 
+     * @return the repository's readiness
+     */
+    public Future<Void> getReadiness() {
+        return this.startup;
+    }
+
+    private static SystemPackages createSystemPackages(String serverHomePath, String indexDirectoryPath) throws IOException {
         String serverProfilePath = null;
 
         if (serverHomePath != null) {
-            repositoryConfigPath = serverHomePath + REPOSITORY_CONFIG_PATH;
             serverProfilePath = serverHomePath + File.separator + "configuration" + File.separator + "java6-server.profile";
 
             File serverProfile = new File(serverProfilePath);
             if (!serverProfile.exists()) {
                 serverProfilePath = serverHomePath + File.separator + "configuration" + File.separator + "server.profile";
             }
+        } else {
+            return new SystemPackages(EquinoxOsgiProfileParser.parseProfileForExportedPackages(null));
         }
 
-        Set<ArtifactBridge> artifactBridges = createArtifactBridges();
+        File serverProfile = new File(serverProfilePath);
+        File pluginsDirectory = new File(serverHomePath, "plugins");
+        File snapshotFile = new File(indexDirectoryPath, SYSTEM_PACKAGES_SNAPSHOT_NAME);
+
+        Map<String, Version> systemPackages = SystemPackagesSnapshot.read(snapshotFile, serverProfile, pluginsDirectory);
+        if (systemPackages == null) {
+            List<File> inputs = new ArrayList<File>();
+            inputs.add(serverProfile);
+            inputs.add(pluginsDirectory);
+
+            systemPackages = EquinoxOsgiProfileParser.parseProfileForExportedPackages(serverProfilePath);
+            BundleManifestFinder.FoundBundle osgiImplementationBundle = BundleManifestFinder.findBundle(pluginsDirectory, SYSTEM_BUNDLE_SYMBOLIC_NAME);
+            if (osgiImplementationBundle != null) {
+                systemPackages.putAll(findExports(osgiImplementationBundle.getManifest()));
+                inputs.add(osgiImplementationBundle.getJar());
+            }
+            SystemPackagesSnapshot.write(snapshotFile, systemPackages, inputs);
+        }
+        return new SystemPackages(systemPackages);
+    }
+
+    private Repository createMainRepository(String serverHomePath, String[] additionalSearchPaths, String indexDirectoryPath,
+        Set<ArtifactBridge> artifactBridges, BundleContext bundleContext, EventLogger eventLogger) throws IOException {
+        String repositoryConfigPath = null;
+
+        if (serverHomePath != null) {
+            repositoryConfigPath = serverHomePath + REPOSITORY_CONFIG_PATH;
+        }
 
         PropertiesRepositoryConfigurationReader configurationReader = new PropertiesRepositoryConfigurationReader(new File(indexDirectoryPath),
             artifactBridges, new SilentEventLogger(), null, new File(serverHomePath));
@@ -105,23 +276,93 @@ public final class SystemPackageFilteringRepository {
             }
         }
 
-        try {
-            this.mainRepository = createRepository(repositoryConfiguration, bundleContext);
-            RepositoryConfiguration systemPackageRepositoryConfiguration = new ExternalStorageRepositoryConfiguration("system-repository", new File(
-                indexDirectoryPath, "system-repository.index"), artifactBridges, serverHomePath + PLUGINS_SEARCH_PATH, null);
-            this.systemPackageRepository = createRepository(systemPackageRepositoryConfiguration, bundleContext);
-        } catch (RepositoryCreationException rce) {
-            IOException exc = new IOException("A failure occurred during repository creation");
-            exc.initCause(rce);
-            throw exc;
+        Repository repository = createRepository(repositoryConfiguration, bundleContext);
+
+        RepositoryRefresher mainRefresher = new RepositoryRefresher(getSearchPaths(repositoryConfiguration), artifactBridges, eventLogger);
+        synchronized (this.lifecycleMonitor) {
+            if (!this.shutdown) {
+                this.refresherCoversMainRepository = isSearchedInFileSystem(repositoryConfiguration);
+                this.refresher = mainRefresher;
+                mainRefresher = null;
+            }
+        }
+        if (mainRefresher != null) {
+            mainRefresher.close();
+        }
+        return repository;
+    }
+
+    private static List<String> getSearchPaths(List<RepositoryConfiguration> repositoryConfiguration) {
+        List<String> searchPaths = new ArrayList<String>();
+        for (RepositoryConfiguration configuration : repositoryConfiguration) {
+            if (configuration instanceof ExternalStorageRepositoryConfiguration) {
+                searchPaths.add(((ExternalStorageRepositoryConfiguration) configuration).getSearchPattern());
+            } else if (configuration instanceof WatchedStorageRepositoryConfiguration) {
+                searchPaths.add(((WatchedStorageRepositoryConfiguration) configuration).getDirectoryToWatch().getAbsolutePath() + File.separator + "*");
+            }
         }
+        return searchPaths;
+    }
 
-        systemPackages = EquinoxOsgiProfileParser.parseProfileForExportedPackages(serverProfilePath);
-        systemPackages.putAll(findExportsFromOsgiImplementationBundle(new File(serverHomePath, "plugins"), SYSTEM_BUNDLE_SYMBOLIC_NAME));
+    /**
+     * Returns <code>true</code> if every one of the supplied repositories is searched in the file system, such that
+     * their search paths cover every artifact in the repository chain.
+     */
+    private static boolean isSearchedInFileSystem(List<RepositoryConfiguration> repositoryConfiguration) {
+        for (RepositoryConfiguration configuration : repositoryConfiguration) {
+            if (!(configuration instanceof ExternalStorageRepositoryConfiguration)
+                && !(configuration instanceof WatchedStorageRepositoryConfiguration)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        jreProvidedDependenciesDescriptors = new HashSet<ArtifactDescriptor>();
-        systemBundleDescriptor = new SystemBundleDescriptor(createBundleManifest(this.systemPackages));
-        jreProvidedDependenciesDescriptors.add(systemBundleDescriptor);
+    /**
+     * Records that the supplied repository has started so that it is stopped by {@link #shutdown()}. If the
+     * repository has already been shut down the supplied repository is stopped immediately.
+     */
+    private Repository started(Repository repository) {
+        synchronized (this.lifecycleMonitor) {
+            if (!this.shutdown) {
+                this.startedRepositories.add(repository);
+                return repository;
+            }
+        }
+        repository.stop();
+        throw new CancellationException("The repository has been shut down");
+    }
+
+    /**
+     * Returns the supplied component once it has started, waiting for it if necessary.
+     */
+    private static <T> T awaitComponent(Future<T> component) {
+        try {
+            return getStartedComponent(component);
+        } catch (RuntimeException re) {
+            throw re;
+        } catch (Exception e) {
+            throw new IllegalStateException("Repository startup failed", e);
+        }
+    }
+
+    private static <T> T getStartedComponent(Future<T> component) throws Exception {
+        try {
+            return component.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the repository to start", ie);
+        } catch (CancellationException ce) {
+            throw new IllegalStateException("The repository has been shut down", ce);
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            } else if (cause instanceof CancellationException) {
+                throw new IllegalStateException("The repository has been shut down", cause);
+            }
+            throw (Exception) cause;
+        }
     }
 
 	private List<RepositoryConfiguration> readRepositoryConfiguration(String repositoryConfigPath, PropertiesRepositoryConfigurationReader configurationReader) throws IOException {
@@ -161,96 +402,195 @@ public final class SystemPackageFilteringRepository {
     	return bundleManifest;
     }
 
-    private Map<String, Version> findExportsFromOsgiImplementationBundle(File searchDirectory, String symbolicName) {
+    private static Map<String, Version> findExports(BundleManifest bundleManifest) {
         Map<String, Version> exports = new HashMap<String, Version>();
 
-        BundleManifest bundleManifest = findOsgiImplementationBundle(searchDirectory, symbolicName);
+        for (ExportedPackage exportedPackage : bundleManifest.getExportPackage().getExportedPackages()) {
+            Version version = exportedPackage.getVersion();
+            exports.put(exportedPackage.getPackageName(), version);
+        }
 
-        if (bundleManifest != null) {
-            for (ExportedPackage exportedPackage : bundleManifest.getExportPackage().getExportedPackages()) {
-                Version version = exportedPackage.getVersion();
-                exports.put(exportedPackage.getPackageName(), version);
+        return exports;
+    }
+    
+    /**
+     * Returns the {@link ExportedPackageIndex} of the main repository's bundles in the current repository generation.
+     * The first generation is published by startup, so this waits for the repository to start if necessary, and then
+     * reads the current generation without querying the repository or taking a lock; the generation advances only when
+     * the repository is {@link #refresh() refreshed}.
+     *
+     * @return the current index
+     */
+    public ExportedPackageIndex getExportedPackageIndex() {
+        ExportedPackageIndex published = this.mainExportedPackageIndex.get();
+        if (published == null) {
+            awaitComponent(this.startup);
+            published = this.mainExportedPackageIndex.get();
+        }
+        return published;
+    }
+
+    /**
+     * Indexes the main repository and publishes the result as its first generation. Called once, by startup, after the
+     * main repository has started.
+     */
+    private void publishFirstGeneration() {
+        this.generationLock.lock();
+        try {
+            if (this.mainExportedPackageIndex.get() == null) {
+                this.mainExportedPackageIndex.set(reindex(null));
             }
+        } finally {
+            this.generationLock.unlock();
+        }
+    }
+
+    /**
+     * Queries the main repository and returns a new index of its contents, in the generation after the supplied
+     * index, unless its contents are those of the supplied index, in which case the supplied index is returned. Must be
+     * called while holding the generation lock.
+     */
+    private ExportedPackageIndex reindex(ExportedPackageIndex current) {
+        Set<? extends ArtifactDescriptor> bundles = queryMainRepository(BundleBridge.BRIDGE_TYPE);
+        Set<? extends ArtifactDescriptor> libraries = queryMainRepository(LibraryDefinition.LIBRARY_TYPE);
+        long fingerprint = ExportedPackageIndex.fingerprint(bundles) * 31 + ExportedPackageIndex.fingerprint(libraries);
+        if (current != null && current.getFingerprint() == fingerprint) {
+            return current;
         }
+        long generation = current == null ? 1 : current.getGeneration() + 1;
+        return ExportedPackageIndex.create(bundles, libraries, fingerprint, generation);
+    }
 
-        return exports;
+    /**
+     * Returns a fingerprint of the contents of the repository generation described by the supplied index. Unlike the
+     * index's own fingerprint the repository fingerprint is stable across processes, and also covers the system
+     * packages and the last-modified time and size of every artifact, so that it can be used to validate results that
+     * have been persisted. It is computed once per generation.
+     *
+     * @param mainIndex the index of the main repository
+     * @return the repository fingerprint
+     */
+    public long getRepositoryFingerprint(ExportedPackageIndex mainIndex) {
+        RepositoryFingerprint current = this.repositoryFingerprint;
+        if (current != null && current.index == mainIndex) {
+            return current.value;
+        }
+
+        long fingerprint = contentFingerprint(mainIndex.getBundles());
+        fingerprint = fingerprint * 31 + contentFingerprint(mainIndex.getLibraries());
+        fingerprint = fingerprint * 31 + contentFingerprint(awaitComponent(this.systemPackageRepository).createQuery(ArtifactDescriptor.TYPE, BundleBridge.BRIDGE_TYPE).run());
+        long systemPackagesFingerprint = 0;
+        for (Entry<String, Version> systemPackage : awaitComponent(this.systemPackages).packages.entrySet()) {
+            systemPackagesFingerprint ^= ExportedPackageIndex.mix(Fnv1a.hash(systemPackage.getKey() + ';' + systemPackage.getValue()));
+        }
+        fingerprint = fingerprint * 31 + systemPackagesFingerprint;
+        this.repositoryFingerprint = new RepositoryFingerprint(mainIndex, fingerprint);
+        return fingerprint;
     }
 
-    private BundleManifest findOsgiImplementationBundle(File searchDirectory, String symbolicName) {
-        File[] filesInDir = searchDirectory.listFiles();
-        if (filesInDir != null) {
-            for (File fileInDir : filesInDir) {
-                if (fileInDir.getName().endsWith(".jar")) {
-                    Reader reader = null;
-                    try {
-                        JarFile jarFile = new JarFile(fileInDir);
-                        ZipEntry manifestEntry = jarFile.getEntry(JarFile.MANIFEST_NAME);
-                        reader = new InputStreamReader(jarFile.getInputStream(manifestEntry));
-                        BundleManifest bundleManifest = BundleManifestFactory.createBundleManifest(reader);
-                        if (symbolicName.equals(bundleManifest.getBundleSymbolicName().getSymbolicName())) {
-                            return bundleManifest;
-                        }
-                    } catch (IOException ioe) {
-                        if (reader != null) {
-                            try {
-                                reader.close();
-                            } catch (IOException ioe2) {
-                            }
-                        }
-                    }
-                }
+    private static long contentFingerprint(Collection<? extends ArtifactDescriptor> descriptors) {
+        long fingerprint = 0;
+        for (ArtifactDescriptor descriptor : descriptors) {
+            URI uri = descriptor.getUri();
+            long hash = Fnv1a.hash(String.valueOf(uri) + ';' + descriptor.getVersion());
+            String contentFingerprint = ContentHashGenerator.getFingerprint(descriptor);
+            if (contentFingerprint != null) {
+                hash = hash * 31 + Fnv1a.hash(contentFingerprint);
+            } else if (uri != null && "file".equals(uri.getScheme())) {
+                File file = new File(uri);
+                hash = hash * 31 + file.lastModified();
+                hash = hash * 31 + file.length();
             }
+            fingerprint ^= ExportedPackageIndex.mix(hash);
         }
-        return null;
+        return ExportedPackageIndex.mix(fingerprint ^ ExportedPackageIndex.mix(descriptors.size()));
     }
-    
+
+    /**
+     * Finds the bundles that export the supplied package at a version within the supplied range. A query for a system
+     * package is answered without waiting for the repository chain to start.
+     *
+     * @param packageName the name of the package
+     * @param versionRange the range of acceptable export versions
+     * @return the descriptors of the matching bundles
+     */
     public Set<ArtifactDescriptor> findByExportedPackage(String packageName, VersionRange versionRange) {
-        Version version;
-        if ((version = systemPackages.get(packageName)) != null) {
-        	if (versionRange.includes(version)) {
-        		Set<ArtifactDescriptor> descriptorsFromLib = findByExportedPackage(this.systemPackageRepository, packageName, versionRange);
-                if (descriptorsFromLib.isEmpty()) {
-                    return jreProvidedDependenciesDescriptors;
-                } else {
-                    Set<ArtifactDescriptor> systemBundleDescriptors = new HashSet<ArtifactDescriptor>();
-                    for (ArtifactDescriptor descriptor : descriptorsFromLib) {
-                        systemBundleDescriptors.add(descriptor);
-                    }
-                    return systemBundleDescriptors;
-                }
-
-        	}
+        Set<ArtifactDescriptor> systemExporters = findSystemExporters(packageName, versionRange);
+        if (systemExporters != null) {
+            return systemExporters;
         }
-        
-        return findByExportedPackage(this.mainRepository, packageName, versionRange);	    	
+        return getExportedPackageIndex().findByExportedPackage(packageName, versionRange);
+    }
+
+    /**
+     * Finds the bundles that export the supplied package at a version within the supplied range, consulting the
+     * supplied index of the main repository. Callers that issue many queries should obtain the index once, using
+     * {@link #getExportedPackageIndex()}, and pass it to every query.
+     *
+     * @param mainIndex the index of the main repository
+     * @param packageName the name of the package
+     * @param versionRange the range of acceptable export versions
+     * @return the descriptors of the matching bundles
+     */
+    public Set<ArtifactDescriptor> findByExportedPackage(ExportedPackageIndex mainIndex, String packageName, VersionRange versionRange) {
+        Set<ArtifactDescriptor> systemExporters = findSystemExporters(packageName, versionRange);
+        if (systemExporters != null) {
+            return systemExporters;
+        }
+        return mainIndex.findByExportedPackage(packageName, versionRange);
+    }
+
+    /**
+     * Finds a bundle that exports the supplied package at the highest version within the supplied range, consulting the
+     * supplied index of the main repository. An import of a system package is satisfied by the system bundle or the
+     * plugins that export it, so one of them is returned regardless of the version at which the main repository
+     * exports the package.
+     *
+     * @param mainIndex the index of the main repository
+     * @param packageName the name of the package
+     * @param versionRange the range of acceptable export versions
+     * @return the descriptor of the matching bundle, or <code>null</code> if there is none
+     */
+    public ArtifactDescriptor findHighestByExportedPackage(ExportedPackageIndex mainIndex, String packageName, VersionRange versionRange) {
+        Set<ArtifactDescriptor> systemExporters = findSystemExporters(packageName, versionRange);
+        if (systemExporters != null) {
+            return systemExporters.isEmpty() ? null : systemExporters.iterator().next();
+        }
+        return mainIndex.findHighestByExportedPackage(packageName, versionRange);
     }
-    
-	private Set<ArtifactDescriptor> findByExportedPackage(Repository repository, String packageName, VersionRange versionRange) {
-	    Set<? extends ArtifactDescriptor> allDescriptors = repository.createQuery(Constants.EXPORT_PACKAGE, packageName).run();
-		Set<ArtifactDescriptor> withinVersionRangeDescriptors = new HashSet<ArtifactDescriptor>();
-		for (ArtifactDescriptor descriptor : allDescriptors) {
-			BundleManifest manifest = BundleManifestUtils.createBundleManifest(descriptor);
-			for (ExportedPackage exportedPackage : manifest.getExportPackage().getExportedPackages()) {
-				if (versionRange.includes(exportedPackage.getVersion())) {
-					withinVersionRangeDescriptors.add(descriptor);
-					break;
-				}
-			}
-		}
-	
-		return withinVersionRangeDescriptors;
-	}
 
-    private static Repository createRepository(List<RepositoryConfiguration> repositoryConfiguration, BundleContext bundleContext) throws RepositoryCreationException {
+    /**
+     * Returns the exporters of the supplied package if it is a system package within the supplied range, otherwise
+     * <code>null</code>.
+     */
+    private Set<ArtifactDescriptor> findSystemExporters(String packageName, VersionRange versionRange) {
+        return awaitComponent(this.systemPackageTable).findExporters(packageName, versionRange);
+    }
+
+    private static Repository createRepository(List<RepositoryConfiguration> repositoryConfiguration, BundleContext bundleContext) throws IOException {
 
         RepositoryFactory repositoryFactory = getRepositoryFactory(bundleContext);
-        return repositoryFactory.createRepository(repositoryConfiguration);
+        try {
+            return repositoryFactory.createRepository(repositoryConfiguration);
+        } catch (RepositoryCreationException rce) {
+            throw createRepositoryCreationFailure(rce);
+        }
     }
 
-    private static Repository createRepository(RepositoryConfiguration repositoryConfiguration, BundleContext bundleContext) throws RepositoryCreationException {
+    private static Repository createRepository(RepositoryConfiguration repositoryConfiguration, BundleContext bundleContext) throws IOException {
 
         RepositoryFactory repositoryFactory = getRepositoryFactory(bundleContext);
-        return repositoryFactory.createRepository(repositoryConfiguration);        
+        try {
+            return repositoryFactory.createRepository(repositoryConfiguration);
+        } catch (RepositoryCreationException rce) {
+            throw createRepositoryCreationFailure(rce);
+        }
+    }
+
+    private static IOException createRepositoryCreationFailure(RepositoryCreationException rce) {
+        IOException exc = new IOException("A failure occurred during repository creation");
+        exc.initCause(rce);
+        return exc;
     }
 
     private static RepositoryFactory getRepositoryFactory(BundleContext bundleContext) {
@@ -270,36 +610,195 @@ public final class SystemPackageFilteringRepository {
 
     static Set<ArtifactBridge> createArtifactBridges() {
         Set<ArtifactBridge> artefactBridges = new HashSet<ArtifactBridge>();
-        artefactBridges.add(new BundleBridge(new HashGenerator() {
-            public void generateHash(ArtifactDescriptorBuilder artifactDescriptorBuilder, File artifactFile) {
-                // do nothing
-            }
-        }));
-        artefactBridges.add(new LibraryBridge(new HashGenerator() {
-            public void generateHash(ArtifactDescriptorBuilder artifactDescriptorBuilder, File artifactFile) {
-                // do nothing
-            }
-        }));
+        HashGenerator hashGenerator = new ContentHashGenerator();
+        artefactBridges.add(new BundleBridge(hashGenerator));
+        artefactBridges.add(new LibraryBridge(hashGenerator));
         return artefactBridges;
     }
     
     public ArtifactDescriptor get(String type, String name, VersionRange versionRange) {
-		return this.mainRepository.get(type, name, versionRange);
-	}
-	
-	public Set<? extends ArtifactDescriptor> getBundles() {
-		Set<? extends ArtifactDescriptor> mainBundles = this.mainRepository.createQuery(ArtifactDescriptor.TYPE, BundleBridge.BRIDGE_TYPE).run();
-		Set<ArtifactDescriptor> combined = new HashSet<ArtifactDescriptor>(mainBundles);
-		combined.add(this.systemBundleDescriptor);
-		return combined;
+		return get(getExportedPackageIndex(), type, name, versionRange);
 	}
 
-	public Set<? extends ArtifactDescriptor> getLibraries() {
-		return this.mainRepository.createQuery(ArtifactDescriptor.TYPE, LibraryDefinition.LIBRARY_TYPE).run();
-	}
+    /**
+     * Returns the artifact of the supplied type and name with the highest version within the supplied range,
+     * consulting the supplied index of the main repository rather than querying the repository itself.
+     *
+     * @param mainIndex the index of the main repository
+     * @param type the type of the artifact
+     * @param name the symbolic name of the artifact
+     * @param versionRange the range of acceptable versions
+     * @return the descriptor of the matching artifact, or <code>null</code> if there is none
+     */
+    public ArtifactDescriptor get(ExportedPackageIndex mainIndex, String type, String name, VersionRange versionRange) {
+        return mainIndex.getSymbolicNameIndex().get(type, name, versionRange);
+    }
 	
-	public void shutdown() {
-		this.mainRepository.stop();
-		this.systemPackageRepository.stop();
-	}
+    /**
+     * Returns the bundles in the current repository generation, including the system bundle.
+     *
+     * @return the unmodifiable bundle descriptors
+     */
+    public Set<? extends ArtifactDescriptor> getBundles() {
+        return getSnapshot().getBundleSet();
+    }
+
+    /**
+     * Returns the number of bundles, including the system bundle, and libraries in the repository generation that has
+     * been published, or <code>0</code> if none has yet been published. Neither waits for startup nor copies the
+     * generation's artifacts.
+     *
+     * @return the number of artifacts
+     */
+    public int getArtifactCount() {
+        ExportedPackageIndex published = this.mainExportedPackageIndex.get();
+        return published == null ? 0 : published.getBundles().size() + 1 + published.getLibraries().size();
+    }
+
+    /**
+     * Returns an immutable snapshot of the repository's current generation.
+     *
+     * @return the current snapshot
+     */
+    public RepositorySnapshot getSnapshot() {
+        return getSnapshot(getExportedPackageIndex());
+    }
+
+    /**
+     * Returns an immutable snapshot of the repository generation described by the supplied index of the main
+     * repository. The snapshot is created once per generation.
+     *
+     * @param mainIndex the index of the main repository
+     * @return the snapshot
+     */
+    public RepositorySnapshot getSnapshot(ExportedPackageIndex mainIndex) {
+        RepositorySnapshot current = this.snapshot.get();
+        if (current != null && current.getExportedPackageIndex() == mainIndex) {
+            return current;
+        }
+
+        List<ArtifactDescriptor> bundles = new ArrayList<ArtifactDescriptor>(mainIndex.getBundles().size() + 1);
+        bundles.add(awaitComponent(this.systemPackages).systemBundleDescriptor);
+        bundles.addAll(mainIndex.getBundles());
+        RepositorySnapshot created = new RepositorySnapshot(this, mainIndex, Collections.unmodifiableList(bundles));
+        while (current == null || current.getGeneration() < created.getGeneration()) {
+            if (this.snapshot.compareAndSet(current, created)) {
+                break;
+            }
+            current = this.snapshot.get();
+        }
+        return created;
+    }
+
+    /**
+     * Returns the repository's current generation. Generations increase monotonically, and a new generation begins
+     * only when the repository's bundles or libraries change.
+     *
+     * @return the current generation
+     */
+    public long getGeneration() {
+        return getExportedPackageIndex().getGeneration();
+    }
+
+    /**
+     * Returns the libraries in the current repository generation.
+     *
+     * @return the unmodifiable library descriptors
+     */
+    public Set<? extends ArtifactDescriptor> getLibraries() {
+        return getSnapshot().getLibrarySet();
+    }
+
+    /**
+     * Returns the main repository's artifacts of the supplied type, with the descriptors of any artifacts that have
+     * been refreshed replaced by their refreshed descriptors.
+     */
+    private Set<? extends ArtifactDescriptor> queryMainRepository(String type) {
+        Set<? extends ArtifactDescriptor> descriptors = awaitComponent(this.mainRepository).createQuery(ArtifactDescriptor.TYPE, type).run();
+        RepositoryRefresher currentRefresher = this.refresher;
+        return currentRefresher == null ? descriptors : currentRefresher.apply(descriptors, type);
+    }
+
+    /**
+     * Re-indexes the artifacts in the main repository's search paths, including the additional search paths, that have
+     * been added, changed or removed since the repository started or was last refreshed, and begins a new repository
+     * generation if any have. The search paths' directories are watched from the first refresh onwards, so the first
+     * refresh, and every refresh if they cannot be watched, checks every artifact in them. Only the affected artifacts
+     * are re-read, and the current index is patched, rather than rebuilt, to produce the next generation. The index is
+     * rebuilt from the contents of the main repository only if the repository chain includes a repository, such as a
+     * remote repository, that is not searched in the file system and whose changes therefore cannot be patched.
+     * Queries continue to read the current generation while the next is being built.
+     */
+    public void refresh() {
+        getExportedPackageIndex();
+        this.generationLock.lock();
+        try {
+            ExportedPackageIndex next = this.mainExportedPackageIndex.get();
+            RepositoryRefresher currentRefresher = this.refresher;
+            if (currentRefresher != null) {
+                next = currentRefresher.refresh(next);
+            }
+            if (currentRefresher == null || !this.refresherCoversMainRepository) {
+                next = reindex(next);
+            }
+            this.mainExportedPackageIndex.set(next);
+        } finally {
+            this.generationLock.unlock();
+        }
+    }
+    
+    /**
+     * Stops the repository. If the repository is still starting, any component that has not yet started is
+     * abandoned and any component that is in the process of starting is stopped once it has started.
+     */
+    public void shutdown() {
+        List<Repository> repositories;
+        synchronized (this.lifecycleMonitor) {
+            this.shutdown = true;
+            repositories = new ArrayList<Repository>(this.startedRepositories);
+            this.startedRepositories.clear();
+        }
+        RepositoryRefresher currentRefresher = this.refresher;
+        if (currentRefresher != null) {
+            currentRefresher.close();
+        }
+        this.startup.cancel(false);
+        this.systemPackages.cancel(false);
+        this.systemPackageRepository.cancel(false);
+        this.systemPackageTable.cancel(false);
+        this.mainRepository.cancel(false);
+        for (Repository repository : repositories) {
+            repository.stop();
+        }
+    }
+
+    /**
+     * The repository fingerprint of a single generation.
+     */
+    private static final class RepositoryFingerprint {
+
+        private final ExportedPackageIndex index;
+
+        private final long value;
+
+        private RepositoryFingerprint(ExportedPackageIndex index, long value) {
+            this.index = index;
+            this.value = value;
+        }
+    }
+
+    private static final class SystemPackages {
+
+        private final Map<String, Version> packages;
+
+        private final ArtifactDescriptor systemBundleDescriptor;
+
+        private final Set<ArtifactDescriptor> jreProvidedDependenciesDescriptors;
+
+        private SystemPackages(Map<String, Version> packages) {
+            this.packages = packages;
+            this.systemBundleDescriptor = new SystemBundleDescriptor(createBundleManifest(packages));
+            this.jreProvidedDependenciesDescriptors = Collections.singleton(this.systemBundleDescriptor);
+        }
+    }
 }
@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools.internal;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.osgi.framework.Version;
+
+import org.eclipse.virgo.repository.ArtifactDescriptor;
+import org.eclipse.virgo.util.osgi.manifest.VersionRange;
+
+/**
+ * A precomputed table that maps each system package to the descriptors that satisfy an import of it: the plugins
+ * that export the package or, if there are none, the descriptors of the JRE-provided dependencies.
+ * <p />
+ * The table is built once, when the system packages and the plugins are known, and a lookup does not allocate unless
+ * the plugins export the package at more than one version, in which case the exporters within the import's version
+ * range have to be selected.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe: instances are immutable.
+ *
+ */
+final class SystemPackageTable {
+
+    private final Map<String, SystemPackage> systemPackages;
+
+    private final Set<ArtifactDescriptor> jreProvidedDependenciesDescriptors;
+
+    private SystemPackageTable(Map<String, SystemPackage> systemPackages, Set<ArtifactDescriptor> jreProvidedDependenciesDescriptors) {
+        this.systemPackages = systemPackages;
+        this.jreProvidedDependenciesDescriptors = jreProvidedDependenciesDescriptors;
+    }
+
+    /**
+     * Creates a new <code>SystemPackageTable</code>.
+     *
+     * @param systemPackages the system packages and their versions
+     * @param pluginIndex the index of the packages exported by the plugins
+     * @param jreProvidedDependenciesDescriptors the descriptors that satisfy a system package that is not exported by a
+     *        plugin
+     * @return the new table
+     */
+    static SystemPackageTable create(Map<String, Version> systemPackages, ExportedPackageIndex pluginIndex,
+        Set<ArtifactDescriptor> jreProvidedDependenciesDescriptors) {
+        Map<String, SystemPackage> table = new HashMap<String, SystemPackage>(systemPackages.size() * 2);
+        for (Entry<String, Version> systemPackage : systemPackages.entrySet()) {
+            if (systemPackage.getValue() != null) {
+                Map<ArtifactDescriptor, Version> exporters = pluginIndex.getExporters(systemPackage.getKey());
+                table.put(systemPackage.getKey(), new SystemPackage(systemPackage.getValue(), exporters));
+            }
+        }
+        return new SystemPackageTable(table, jreProvidedDependenciesDescriptors);
+    }
+
+    /**
+     * Returns the descriptors that satisfy an import of the supplied package with the supplied version range if the
+     * package is a system package at a version within the range, otherwise <code>null</code>. The returned set must
+     * not be modified.
+     *
+     * @param packageName the name of the package
+     * @param versionRange the range of acceptable versions
+     * @return the satisfying descriptors, or <code>null</code>
+     */
+    Set<ArtifactDescriptor> findExporters(String packageName, VersionRange versionRange) {
+        SystemPackage systemPackage = this.systemPackages.get(packageName);
+        if (systemPackage == null || !versionRange.includes(systemPackage.version)) {
+            return null;
+        }
+
+        if (systemPackage.exporters.isEmpty()) {
+            return this.jreProvidedDependenciesDescriptors;
+        }
+        if (systemPackage.exportVersion != null) {
+            return versionRange.includes(systemPackage.exportVersion) ? systemPackage.exporters : this.jreProvidedDependenciesDescriptors;
+        }
+
+        Set<ArtifactDescriptor> exporters = new HashSet<ArtifactDescriptor>();
+        for (Entry<ArtifactDescriptor, Version> exporter : systemPackage.exportVersions.entrySet()) {
+            if (versionRange.includes(exporter.getValue())) {
+                exporters.add(exporter.getKey());
+            }
+        }
+        return exporters.isEmpty() ? this.jreProvidedDependenciesDescriptors : exporters;
+    }
+
+    private static final class SystemPackage {
+
+        private final Version version;
+
+        private final Set<ArtifactDescriptor> exporters;
+
+        /**
+         * The version at which every exporter exports the package, or <code>null</code> if they export it at more
+         * than one version.
+         */
+        private final Version exportVersion;
+
+        private final Map<ArtifactDescriptor, Version> exportVersions;
+
+        private SystemPackage(Version version, Map<ArtifactDescriptor, Version> exportVersions) {
+            this.version = version;
+            this.exporters = Collections.unmodifiableSet(new LinkedHashSet<ArtifactDescriptor>(exportVersions.keySet()));
+            this.exportVersions = exportVersions;
+
+            Set<Version> distinctVersions = new HashSet<Version>(exportVersions.values());
+            this.exportVersion = distinctVersions.size() == 1 ? distinctVersions.iterator().next() : null;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.osgi.framework.Version;
+
+/**
+ * A snapshot of a kernel's system packages, persisted in the index directory so that they need not be recomputed from
+ * the kernel's profile and OSGi implementation bundle every time a repository is created.
+ * <p />
+ * The snapshot records the size, last-modified time and a 64-bit hash of the contents of each of the files from
+ * which the system packages were computed. A snapshot is only used if each of those files has the recorded size and
+ * last-modified time or, failing that, the recorded size and hash. The hash of a directory is the hash of its sorted
+ * listing, so the addition or removal of a file invalidates the snapshot.
+ * <p />
+ * The snapshot is read in a single read, and is replaced atomically when it is written. A snapshot that cannot be read
+ * or written is ignored.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe.
+ *
+ */
+final class SystemPackagesSnapshot {
+
+    private static final int MAGIC = 0x56535053;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private SystemPackagesSnapshot() {
+    }
+
+    /**
+     * Reads the system packages from the supplied snapshot file, or returns <code>null</code> if the snapshot does not
+     * exist, cannot be read, was not computed from all of the supplied inputs, or any of its inputs has changed.
+     *
+     * @param snapshotFile the snapshot file
+     * @param requiredInputs the files from which the snapshot must have been computed
+     * @return the system packages, or <code>null</code>
+     */
+    static Map<String, Version> read(File snapshotFile, File... requiredInputs) {
+        if (!snapshotFile.isFile()) {
+            return null;
+        }
+        try {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(snapshotFile.toPath())));
+            if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+
+            List<File> inputs = new ArrayList<File>();
+            boolean touched = false;
+            int inputCount = input.readInt();
+            for (int i = 0; i < inputCount; i++) {
+                File file = new File(input.readUTF());
+                long size = input.readLong();
+                long lastModified = input.readLong();
+                long hash = input.readLong();
+                if (!file.exists() || getSize(file) != size) {
+                    return null;
+                }
+                if (file.lastModified() != lastModified) {
+                    if (hash(file) != hash) {
+                        return null;
+                    }
+                    touched = true;
+                }
+                inputs.add(file);
+            }
+            if (!inputs.containsAll(Arrays.asList(requiredInputs))) {
+                return null;
+            }
+
+            int packageCount = input.readInt();
+            Map<String, Version> systemPackages = new HashMap<String, Version>(packageCount * 2);
+            for (int i = 0; i < packageCount; i++) {
+                String packageName = input.readUTF();
+                systemPackages.put(packageName, input.readBoolean() ? new Version(input.readUTF()) : null);
+            }
+
+            if (touched) {
+                // Record the new last-modified times so that the inputs need not be hashed again
+                write(snapshotFile, systemPackages, inputs);
+            }
+            return systemPackages;
+        } catch (IOException ioe) {
+            return null;
+        } catch (IllegalArgumentException iae) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes a snapshot of the supplied system packages, computed from the supplied inputs, to the supplied snapshot
+     * file.
+     *
+     * @param snapshotFile the snapshot file
+     * @param systemPackages the system packages
+     * @param inputs the files from which the system packages were computed
+     */
+    static void write(File snapshotFile, Map<String, Version> systemPackages, List<File> inputs) {
+        File directory = snapshotFile.getAbsoluteFile().getParentFile();
+        File temporaryFile = new File(directory, snapshotFile.getName() + ".tmp");
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+
+            output.writeInt(inputs.size());
+            for (File input : inputs) {
+                output.writeUTF(input.getPath());
+                output.writeLong(getSize(input));
+                output.writeLong(input.lastModified());
+                output.writeLong(hash(input));
+            }
+
+            output.writeInt(systemPackages.size());
+            for (Entry<String, Version> systemPackage : systemPackages.entrySet()) {
+                output.writeUTF(systemPackage.getKey());
+                Version version = systemPackage.getValue();
+                output.writeBoolean(version != null);
+                if (version != null) {
+                    output.writeUTF(version.toString());
+                }
+            }
+            output.flush();
+
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                return;
+            }
+            FileOutputStream fileOutput = new FileOutputStream(temporaryFile);
+            try {
+                fileOutput.write(bytes.toByteArray());
+                fileOutput.getFD().sync();
+            } finally {
+                fileOutput.close();
+            }
+            Files.move(temporaryFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ioe) {
+            temporaryFile.delete();
+        }
+    }
+
+    private static long getSize(File file) {
+        if (file.isDirectory()) {
+            String[] names = file.list();
+            return names == null ? 0 : names.length;
+        }
+        return file.length();
+    }
+
+    private static long hash(File file) throws IOException {
+        long hash = Fnv1a.OFFSET_BASIS;
+        if (file.isDirectory()) {
+            String[] names = file.list();
+            if (names != null) {
+                Arrays.sort(names);
+                for (String name : names) {
+                    hash = Fnv1a.update(Fnv1a.update(hash, name), '/');
+                }
+            }
+            return hash;
+        }
+
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                hash = Fnv1a.update(hash, buffer, 0, read);
+            }
+        } finally {
+            input.close();
+        }
+        return hash;
+    }
+}
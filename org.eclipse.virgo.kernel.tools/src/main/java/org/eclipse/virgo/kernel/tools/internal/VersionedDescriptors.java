@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.osgi.framework.Version;
+
+import org.eclipse.virgo.repository.ArtifactDescriptor;
+import org.eclipse.virgo.util.osgi.manifest.VersionRange;
+
+/**
+ * A set of artifact descriptors, such as the exporters of a single package or the versions of a single bundle, sorted by
+ * version so that the descriptors within a version range can be found with a binary search.
+ * <p />
+ * Each version's major and minor components are packed into a single <code>long</code>, and its micro component held
+ * in an <code>int</code>, so that most comparisons are made between primitives. Qualifiers are held separately and
+ * are only compared when two versions' numeric components are equal.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * Thread-safe: instances are immutable.
+ *
+ */
+final class VersionedDescriptors {
+
+    private static final Comparator<Entry> ENTRY_VERSION_COMPARATOR = new Comparator<Entry>() {
+
+        public int compare(Entry entry1, Entry entry2) {
+            return entry1.version.compareTo(entry2.version);
+        }
+    };
+
+    private final long[] majorMinors;
+
+    private final int[] micros;
+
+    private final String[] qualifiers;
+
+    private final Version[] versions;
+
+    private final ArtifactDescriptor[] descriptors;
+
+    private VersionedDescriptors(List<Entry> entries) {
+        Collections.sort(entries, ENTRY_VERSION_COMPARATOR);
+
+        int size = entries.size();
+        this.majorMinors = new long[size];
+        this.micros = new int[size];
+        this.qualifiers = new String[size];
+        this.versions = new Version[size];
+        this.descriptors = new ArtifactDescriptor[size];
+
+        for (int i = 0; i < size; i++) {
+            Entry entry = entries.get(i);
+            this.majorMinors[i] = packMajorMinor(entry.version);
+            this.micros[i] = entry.version.getMicro();
+            this.qualifiers[i] = entry.version.getQualifier();
+            this.versions[i] = entry.version;
+            this.descriptors[i] = entry.descriptor;
+        }
+    }
+
+    /**
+     * Returns the descriptors whose versions are within the supplied range.
+     */
+    Set<ArtifactDescriptor> find(VersionRange versionRange) {
+        Set<ArtifactDescriptor> withinVersionRangeDescriptors = new HashSet<ArtifactDescriptor>();
+        int end = ceilingEnd(versionRange);
+        for (int i = floorStart(versionRange); i < end; i++) {
+            withinVersionRangeDescriptors.add(this.descriptors[i]);
+        }
+        return withinVersionRangeDescriptors;
+    }
+
+    /**
+     * Returns the descriptor with the highest version within the supplied range, or <code>null</code> if there is no
+     * such descriptor.
+     */
+    ArtifactDescriptor findHighest(VersionRange versionRange) {
+        int last = ceilingEnd(versionRange) - 1;
+        if (last >= 0 && last >= floorStart(versionRange)) {
+            return this.descriptors[last];
+        }
+        return null;
+    }
+
+    /**
+     * Returns every descriptor mapped to its version, in ascending order of version.
+     */
+    Map<ArtifactDescriptor, Version> getVersions() {
+        Map<ArtifactDescriptor, Version> versions = new LinkedHashMap<ArtifactDescriptor, Version>();
+        for (int i = 0; i < this.descriptors.length; i++) {
+            versions.put(this.descriptors[i], this.versions[i]);
+        }
+        return versions;
+    }
+
+    /**
+     * Returns the index of the first descriptor that is at or above the range's floor.
+     */
+    private int floorStart(VersionRange versionRange) {
+        Version floor = versionRange.getFloor();
+        if (floor == null) {
+            return 0;
+        }
+        return search(floor, !versionRange.isFloorInclusive());
+    }
+
+    /**
+     * Returns the index after the last descriptor that is at or below the range's ceiling.
+     */
+    private int ceilingEnd(VersionRange versionRange) {
+        Version ceiling = versionRange.getCeiling();
+        if (ceiling == null) {
+            return this.descriptors.length;
+        }
+        return search(ceiling, versionRange.isCeilingInclusive());
+    }
+
+    /**
+     * Returns the index of the first descriptor whose version is greater than the supplied version or, if
+     * <code>inclusive</code> is <code>false</code>, greater than or equal to it.
+     */
+    private int search(Version version, boolean inclusive) {
+        long majorMinor = packMajorMinor(version);
+        int micro = version.getMicro();
+        String qualifier = version.getQualifier();
+
+        int low = 0;
+        int high = this.descriptors.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compare(middle, majorMinor, micro, qualifier);
+            if (comparison < 0 || (inclusive && comparison == 0)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int compare(int index, long majorMinor, int micro, String qualifier) {
+        if (this.majorMinors[index] != majorMinor) {
+            return this.majorMinors[index] < majorMinor ? -1 : 1;
+        }
+        if (this.micros[index] != micro) {
+            return this.micros[index] < micro ? -1 : 1;
+        }
+        return this.qualifiers[index].compareTo(qualifier);
+    }
+
+    private static long packMajorMinor(Version version) {
+        return ((long) version.getMajor() << 32) | version.getMinor();
+    }
+
+    /**
+     * Accumulates descriptors while an index is being built.
+     */
+    static final class Builder {
+
+        private final List<Entry> entries = new ArrayList<Entry>();
+
+        void add(Version version, ArtifactDescriptor descriptor) {
+            this.entries.add(new Entry(version == null ? Version.emptyVersion : version, descriptor));
+        }
+
+        /**
+         * Adds the descriptors held by an existing instance, other than those that are excluded, so that the existing
+         * instance can be patched.
+         */
+        void addAll(VersionedDescriptors existing, Set<? extends ArtifactDescriptor> excluded) {
+            for (int i = 0; i < existing.descriptors.length; i++) {
+                if (!excluded.contains(existing.descriptors[i])) {
+                    this.entries.add(new Entry(existing.versions[i], existing.descriptors[i]));
+                }
+            }
+        }
+
+        void addAll(Builder other) {
+            this.entries.addAll(other.entries);
+        }
+
+        boolean isEmpty() {
+            return this.entries.isEmpty();
+        }
+
+        VersionedDescriptors build() {
+            return new VersionedDescriptors(this.entries);
+        }
+    }
+
+    private static final class Entry {
+
+        private final Version version;
+
+        private final ArtifactDescriptor descriptor;
+
+        private Entry(Version version, ArtifactDescriptor descriptor) {
+            this.version = version;
+            this.descriptor = descriptor;
+        }
+    }
+}
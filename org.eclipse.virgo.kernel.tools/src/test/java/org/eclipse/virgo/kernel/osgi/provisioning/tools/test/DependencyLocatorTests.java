@@ -316,6 +316,19 @@ public class DependencyLocatorTests {
         assertEquals(4, bundles.size());
     }
 
+    @Test
+    public void getBundlesReturnsPrivateManifests() {
+
+        Set<? extends BundleDefinition> bundles = locator.getBundles();
+        for (BundleDefinition bundle : bundles) {
+            assertNotNull(bundle.getLocation());
+            BundleManifest manifest = bundle.getManifest();
+            assertNotNull(manifest);
+            manifest.setHeader("X-Modified", "true");
+            assertNull(bundle.getManifest().getHeader("X-Modified"));
+        }
+    }
+
     @Test
     public void getLibraries() {
 
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.repository.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.eclipse.virgo.kernel.artifact.bundle.BundleBridge;
+import org.eclipse.virgo.kernel.repository.BundleDefinition;
+import org.eclipse.virgo.kernel.repository.RepositoryBackedBundleRepository;
+import org.eclipse.virgo.kernel.tools.internal.ContentHashGenerator;
+import org.eclipse.virgo.repository.ArtifactDescriptor;
+import org.eclipse.virgo.repository.Query;
+import org.eclipse.virgo.repository.Repository;
+import org.eclipse.virgo.util.osgi.manifest.VersionRange;
+
+/**
+ */
+public class RepositoryBackedBundleRepositoryTests {
+
+    private static final String BUNDLES_DIRECTORY = "src/test/resources/versioned-exporters/";
+
+    private static final String BUNDLE_NAME = "org.eclipse.virgo.test.versioned";
+
+    private static final String PACKAGE_NAME = "org.eclipse.virgo.test.versioned";
+
+    private final Map<String, URI> locations = new HashMap<String, URI>();
+
+    private RepositoryBackedBundleRepository bundleRepository;
+
+    @Before
+    public void createBundleRepository() throws Exception {
+        BundleBridge bundleBridge = new BundleBridge(new ContentHashGenerator());
+        Set<ArtifactDescriptor> bundles = new HashSet<ArtifactDescriptor>();
+        for (String version : new String[] { "1.0.0", "1.5.0", "2.0.0" }) {
+            ArtifactDescriptor bundle = bundleBridge.generateArtifactDescriptor(new File(BUNDLES_DIRECTORY + BUNDLE_NAME + "-" + version + ".jar"));
+            bundles.add(bundle);
+            this.locations.put(version, bundle.getUri());
+        }
+        this.bundleRepository = new RepositoryBackedBundleRepository(createRepository(bundles));
+    }
+
+    @Test
+    public void exportersOutOfRangeAreNotReturned() {
+        // A definition is created for each returned bundle and no other
+        Set<? extends BundleDefinition> definitions = this.bundleRepository.findByExportedPackage(PACKAGE_NAME, new VersionRange("[1.0.0,1.5.0)"));
+        assertEquals(1, definitions.size());
+        assertEquals(this.locations.get("1.0.0"), definitions.iterator().next().getLocation());
+
+        definitions = this.bundleRepository.findByExportedPackage(PACKAGE_NAME, new VersionRange("[1.5.0,3.0.0)"));
+        assertEquals(2, definitions.size());
+        Set<URI> returnedLocations = new HashSet<URI>();
+        for (BundleDefinition definition : definitions) {
+            returnedLocations.add(definition.getLocation());
+        }
+        assertTrue(returnedLocations.contains(this.locations.get("1.5.0")));
+        assertTrue(returnedLocations.contains(this.locations.get("2.0.0")));
+    }
+
+    @Test
+    public void noExporterInRange() {
+        assertTrue(this.bundleRepository.findByExportedPackage(PACKAGE_NAME, new VersionRange("[3.0.0,4.0.0)")).isEmpty());
+    }
+
+    @Test
+    public void highestBundleInRangeBySymbolicName() {
+        assertEquals(this.locations.get("1.5.0"), this.bundleRepository.findBySymbolicName(BUNDLE_NAME, new VersionRange("[1.0.0,2.0.0)")).getLocation());
+        assertNull(this.bundleRepository.findBySymbolicName(BUNDLE_NAME, new VersionRange("[3.0.0,4.0.0)")));
+    }
+
+    /**
+     * Creates a <code>Repository</code> whose queries for bundles return the supplied descriptors and whose queries for
+     * anything else return nothing.
+     */
+    private static Repository createRepository(final Set<ArtifactDescriptor> bundles) {
+        return (Repository) Proxy.newProxyInstance(Repository.class.getClassLoader(), new Class<?>[] { Repository.class }, new InvocationHandler() {
+
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("createQuery".equals(method.getName())) {
+                    return createQuery(BundleBridge.BRIDGE_TYPE.equals(args[1]) ? bundles : Collections.<ArtifactDescriptor> emptySet());
+                }
+                return null;
+            }
+        });
+    }
+
+    private static Query createQuery(final Set<ArtifactDescriptor> results) {
+        return (Query) Proxy.newProxyInstance(Query.class.getClassLoader(), new Class<?>[] { Query.class }, new InvocationHandler() {
+
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("run".equals(method.getName())) {
+                    return results;
+                }
+                return method.getReturnType() == Query.class ? proxy : null;
+            }
+        });
+    }
+}
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ */
+public class BundleManifestFinderTests {
+
+    private static final String SYSTEM_BUNDLE_SYMBOLIC_NAME = "org.eclipse.osgi";
+
+    private static final File SYSTEM_BUNDLE_JAR = new File("src/test/resources/dependency-locator/plugins/org.eclipse.osgi-3.4.0.v20080529-1200.jar");
+
+    private final File searchDirectory = new File("target/bundle-manifest-finder");
+
+    @Before
+    public void clearSearchDirectory() {
+        File[] files = this.searchDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        this.searchDirectory.mkdirs();
+    }
+
+    @Test
+    public void systemBundleFoundByManifestHeader() throws IOException {
+        // The system bundle's file name gives no hint of it while a decoy's does, so only its manifest identifies it
+        Files.copy(SYSTEM_BUNDLE_JAR.toPath(), new File(this.searchDirectory, "framework.jar").toPath());
+        Files.copy(new File("src/test/resources/versioned-exporters/org.eclipse.virgo.test.versioned-1.0.0.jar").toPath(), new File(
+            this.searchDirectory, "org.eclipse.osgi.decoy.jar").toPath());
+        FileOutputStream corrupt = new FileOutputStream(new File(this.searchDirectory, "corrupt.jar"));
+        try {
+            corrupt.write(new byte[] { 'n', 'o', 't', ' ', 'a', ' ', 'j', 'a', 'r' });
+        } finally {
+            corrupt.close();
+        }
+
+        BundleManifestFinder.FoundBundle found = BundleManifestFinder.findBundle(this.searchDirectory, SYSTEM_BUNDLE_SYMBOLIC_NAME);
+        assertNotNull(found);
+        assertEquals("framework.jar", found.getJar().getName());
+        assertEquals(SYSTEM_BUNDLE_SYMBOLIC_NAME, found.getManifest().getBundleSymbolicName().getSymbolicName());
+        assertEquals(BundleManifestFinder.findBundleManifest(SYSTEM_BUNDLE_JAR.getParentFile(), SYSTEM_BUNDLE_SYMBOLIC_NAME).getBundleVersion(),
+            found.getManifest().getBundleVersion());
+
+        assertNull(BundleManifestFinder.findBundle(this.searchDirectory, "org.eclipse.virgo.test.unknown"));
+    }
+}
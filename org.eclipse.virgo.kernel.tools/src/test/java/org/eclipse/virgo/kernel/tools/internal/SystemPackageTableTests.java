@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.junit.Test;
+import org.osgi.framework.Version;
+
+import org.eclipse.virgo.kernel.artifact.bundle.BundleBridge;
+import org.eclipse.virgo.repository.ArtifactDescriptor;
+import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
+import org.eclipse.virgo.util.osgi.manifest.ExportedPackage;
+import org.eclipse.virgo.util.osgi.manifest.VersionRange;
+
+/**
+ */
+public class SystemPackageTableTests {
+
+    private static final String SERVER_HOME = "src/test/resources/dependency-locator/";
+
+    @Test
+    public void tableMatchesScanOfPlugins() throws Exception {
+        Map<String, Version> systemPackages = EquinoxOsgiProfileParser.parseProfileForExportedPackages(SERVER_HOME + "configuration/java6-server.profile");
+        BundleManifest systemBundleManifest = BundleManifestFinder.findBundleManifest(new File(SERVER_HOME + "plugins"), "org.eclipse.osgi");
+        for (ExportedPackage exportedPackage : systemBundleManifest.getExportPackage().getExportedPackages()) {
+            systemPackages.put(exportedPackage.getPackageName(), exportedPackage.getVersion());
+        }
+
+        BundleBridge bundleBridge = new BundleBridge(new ContentHashGenerator());
+        Set<ArtifactDescriptor> plugins = new HashSet<ArtifactDescriptor>();
+        for (File plugin : new File(SERVER_HOME + "plugins").listFiles()) {
+            plugins.add(bundleBridge.generateArtifactDescriptor(plugin));
+        }
+        Set<ArtifactDescriptor> jreProvidedDependenciesDescriptors = Collections.<ArtifactDescriptor> singleton(new SystemBundleDescriptor(
+            systemBundleManifest));
+
+        SystemPackageTable table = SystemPackageTable.create(systemPackages, ExportedPackageIndex.create(plugins, 1), jreProvidedDependenciesDescriptors);
+
+        assertFalse(systemPackages.isEmpty());
+        for (Entry<String, Version> systemPackage : systemPackages.entrySet()) {
+            if (systemPackage.getValue() == null) {
+                continue;
+            }
+            for (VersionRange versionRange : new VersionRange[] { new VersionRange("0.0.0"), VersionRange.createExactRange(systemPackage.getValue()) }) {
+                Set<ArtifactDescriptor> scanned = scan(plugins, systemPackage.getKey(), versionRange);
+                Set<ArtifactDescriptor> expected = scanned.isEmpty() ? jreProvidedDependenciesDescriptors : scanned;
+                assertEquals(systemPackage.getKey() + " " + versionRange, expected, table.findExporters(systemPackage.getKey(), versionRange));
+            }
+        }
+    }
+
+    /**
+     * Finds the plugins that export the supplied package within the supplied range by reading each of their manifests,
+     * as the repository did before the table was precomputed.
+     */
+    private static Set<ArtifactDescriptor> scan(Set<ArtifactDescriptor> plugins, String packageName, VersionRange versionRange) {
+        Set<ArtifactDescriptor> exporters = new HashSet<ArtifactDescriptor>();
+        for (ArtifactDescriptor plugin : plugins) {
+            for (ExportedPackage exportedPackage : BundleManifestUtils.createBundleManifest(plugin).getExportPackage().getExportedPackages()) {
+                if (exportedPackage.getPackageName().equals(packageName) && versionRange.includes(exportedPackage.getVersion())) {
+                    exporters.add(plugin);
+                }
+            }
+        }
+        return exporters;
+    }
+}
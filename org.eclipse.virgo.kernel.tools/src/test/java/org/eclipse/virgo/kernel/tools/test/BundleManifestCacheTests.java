@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.eclipse.virgo.kernel.artifact.bundle.BundleBridge;
+import org.eclipse.virgo.kernel.tools.internal.BundleManifestCache;
+import org.eclipse.virgo.kernel.tools.internal.ContentHashGenerator;
+import org.eclipse.virgo.repository.ArtifactDescriptor;
+import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
+
+/**
+ */
+public class BundleManifestCacheTests {
+
+    private static final String BUNDLES_DIRECTORY = "src/test/resources/dependency-locator/repository/bundles/";
+
+    private ArtifactDescriptor beans;
+
+    private ArtifactDescriptor context;
+
+    private ArtifactDescriptor core;
+
+    @Before
+    public void createDescriptors() throws Exception {
+        BundleBridge bundleBridge = new BundleBridge(new ContentHashGenerator());
+        this.beans = bundleBridge.generateArtifactDescriptor(new File(BUNDLES_DIRECTORY + "org.springframework.beans-3.0.0.RELEASE.jar"));
+        this.context = bundleBridge.generateArtifactDescriptor(new File(BUNDLES_DIRECTORY + "org.springframework.context-3.0.0.RELEASE.jar"));
+        this.core = bundleBridge.generateArtifactDescriptor(new File(BUNDLES_DIRECTORY + "org.springframework.core-3.0.0.RELEASE.jar"));
+    }
+
+    @Test
+    public void hitsAndMisses() {
+        BundleManifestCache cache = new BundleManifestCache(2);
+
+        BundleManifest manifest = cache.getBundleManifest(this.beans);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        assertSame(manifest, cache.getBundleManifest(this.beans));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvictedAtMaximumSize() {
+        BundleManifestCache cache = new BundleManifestCache(2);
+
+        BundleManifest beansManifest = cache.getBundleManifest(this.beans);
+        BundleManifest contextManifest = cache.getBundleManifest(this.context);
+        assertSame(beansManifest, cache.getBundleManifest(this.beans));
+
+        cache.getBundleManifest(this.core);
+        assertEquals(2, cache.size());
+        assertEquals(3, cache.getMissCount());
+
+        assertSame(beansManifest, cache.getBundleManifest(this.beans));
+        assertEquals(2, cache.getHitCount());
+
+        BundleManifest reloadedContextManifest = cache.getBundleManifest(this.context);
+        assertEquals(4, cache.getMissCount());
+        assertEquals(contextManifest.getBundleSymbolicName().getSymbolicName(), reloadedContextManifest.getBundleSymbolicName().getSymbolicName());
+        assertEquals(2, cache.size());
+    }
+}
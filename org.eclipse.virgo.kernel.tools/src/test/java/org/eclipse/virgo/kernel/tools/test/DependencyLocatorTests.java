@@ -14,24 +14,47 @@ package org.eclipse.virgo.kernel.tools.test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.osgi.framework.FrameworkUtil;
 
+import org.eclipse.virgo.kernel.tools.ArtifactCursor;
+import org.eclipse.virgo.kernel.tools.ArtifactFilter;
+import org.eclipse.virgo.kernel.tools.ArtifactPage;
+import org.eclipse.virgo.kernel.tools.DependencyGraph;
 import org.eclipse.virgo.kernel.tools.DependencyLocationException;
+import org.eclipse.virgo.kernel.tools.DependencyLocationResult;
 import org.eclipse.virgo.kernel.tools.DependencyLocator;
 import org.eclipse.virgo.medic.eventlog.EventLogger;
 import org.eclipse.virgo.medic.eventlog.Level;
@@ -227,6 +250,28 @@ public class DependencyLocatorTests {
         assertTrue(packageNames.get(0).equals("org.springframework.core"));
     }
 
+    @Test
+    public void requireBundleReexportCycle() throws IOException {
+        File cycleDirectory = new File("src/test/resources/require-bundle-cycle").getAbsoluteFile();
+        BundleManifest manifest = BundleManifestFactory.createBundleManifest(new FileReader(new File(cycleDirectory,
+            "manifests/REQUIREBUNDLECYCLE.MF")));
+
+        // The fixtures' bundles require each other with visibility:=reexport
+        DependencyLocator cycleLocator = new DependencyLocator(new File("src/test/resources/dependency-locator").getAbsolutePath(),
+            new String[] { cycleDirectory.getPath() + File.separator + "{bundle}.jar" }, "target/require-bundle-cycle",
+            new NoOpEventLogger(), FrameworkUtil.getBundle(getClass()).getBundleContext());
+        try {
+            Map<File, List<String>> dependencies = cycleLocator.locateDependencies(manifest);
+            assertEquals(2, dependencies.size());
+            assertEquals(Arrays.asList("org.eclipse.virgo.test.cycle.a"), dependencies.get(new File(cycleDirectory,
+                "org.eclipse.virgo.test.cycle.a-1.0.0.jar")));
+            assertEquals(Arrays.asList("org.eclipse.virgo.test.cycle.b"), dependencies.get(new File(cycleDirectory,
+                "org.eclipse.virgo.test.cycle.b-1.0.0.jar")));
+        } finally {
+            cycleLocator.shutdown();
+        }
+    }
+
     @Test
     public void unsatisfiableRequireBundle() throws IOException {
 
@@ -309,6 +354,300 @@ public class DependencyLocatorTests {
         assertEquals("org.osgi.framework", packages.get(0));
 	}
 
+    @Test
+    public void batchLocateDependencies() throws IOException {
+        BundleManifest importPackage = BundleManifestFactory.createBundleManifest(new FileReader(new File(
+            "src/test/resources/dependency-locator/manifests/IMPORTPACKAGE.MF")));
+        BundleManifest importBundle = BundleManifestFactory.createBundleManifest(new FileReader(new File(
+            "src/test/resources/dependency-locator/manifests/IMPORTBUNDLE.MF")));
+        BundleManifest unsatisfiable = BundleManifestFactory.createBundleManifest(new FileReader(new File(
+            "src/test/resources/dependency-locator/manifests/UNSATISFIABLEIMPORTPACKAGE.MF")));
+        BundleManifest overlapping = BundleManifestFactory.createBundleManifest(new StringReader(
+            "Import-Package: org.springframework.beans;version=2.5.4,com.foo.bar\n"));
+
+        List<DependencyLocationResult> results = locator.locateDependencies(Arrays.asList(importPackage, importBundle, unsatisfiable, overlapping));
+        assertEquals(4, results.size());
+        // Three packages, three bundles and one unsatisfiable package, with the overlapping imports looked up once
+        assertEquals(7, locator.getRepositoryLookupCount());
+
+        assertSame(importPackage, results.get(0).getManifest());
+        assertNull(results.get(0).getFailure());
+        assertEquals(locator.locateDependencies(importPackage), results.get(0).getDependencies());
+
+        assertSame(importBundle, results.get(1).getManifest());
+        assertNull(results.get(1).getFailure());
+        assertEquals(locator.locateDependencies(importBundle), results.get(1).getDependencies());
+
+        assertSame(unsatisfiable, results.get(2).getManifest());
+        assertNotNull(results.get(2).getFailure());
+        assertEquals(1, results.get(2).getFailure().getUnsatisfiablePackageImports().length);
+        assertEquals("com.foo.bar", results.get(2).getFailure().getUnsatisfiablePackageImports()[0].getName());
+
+        assertSame(overlapping, results.get(3).getManifest());
+        assertNotNull(results.get(3).getFailure());
+        assertEquals(1, results.get(3).getFailure().getUnsatisfiablePackageImports().length);
+        assertEquals(1, results.get(3).getFailure().getSatisfiedDependencies().size());
+    }
+
+    @Test
+    public void incrementalLocateDependencies() throws IOException {
+        BundleManifest importPackage = BundleManifestFactory.createBundleManifest(new FileReader(new File(
+            "src/test/resources/dependency-locator/manifests/IMPORTPACKAGE.MF")));
+        BundleManifest satisfiableAndUnsatisfiable = BundleManifestFactory.createBundleManifest(new FileReader(new File(
+            "src/test/resources/dependency-locator/manifests/SATISFIABLEANDUNSATISFIABLE.MF")));
+
+        DependencyLocationResult first = locator.locateDependencies(importPackage, null);
+        assertNull(first.getFailure());
+        assertEquals(locator.locateDependencies(importPackage), first.getDependencies());
+
+        // Only the clause added by an edit is looked up, and the other clauses' lookups are reused
+        BundleManifest edited = BundleManifestFactory.createBundleManifest(new StringReader("Import-Package: org.springframework.beans;version=2.5.4,"
+            + "org.springframework.context;version=2.5.4,org.springframework.beans.factory;version=2.5.4,org.springframework.core;version=2.5.4\n"));
+        long lookupCount = locator.getRepositoryLookupCount();
+        DependencyLocationResult afterEdit = locator.locateDependencies(edited, first);
+        assertEquals(lookupCount + 1, locator.getRepositoryLookupCount());
+        assertNull(afterEdit.getFailure());
+        assertEquals(locator.locateDependencies(edited), afterEdit.getDependencies());
+
+        DependencyLocationResult second = locator.locateDependencies(satisfiableAndUnsatisfiable, first);
+        assertNotNull(second.getFailure());
+        try {
+            locator.locateDependencies(satisfiableAndUnsatisfiable);
+            fail();
+        } catch (DependencyLocationException dle) {
+            assertEquals(dle.getSatisfiedDependencies(), second.getFailure().getSatisfiedDependencies());
+            assertEquals(dle.getMessage(), second.getFailure().getMessage());
+        }
+
+        DependencyLocationResult third = locator.locateDependencies(importPackage, second);
+        assertEquals(first.getDependencies(), third.getDependencies());
+    }
+
+    @Test
+    public void parallelLookups() throws IOException {
+        BundleManifest manifest = BundleManifestFactory.createBundleManifest(new FileReader(new File(
+            "src/test/resources/dependency-locator/manifests/SATISFIABLEANDUNSATISFIABLE.MF")));
+
+        DependencyLocationException sequential = null;
+        try {
+            locator.locateDependencies(manifest);
+            fail();
+        } catch (DependencyLocationException dle) {
+            sequential = dle;
+        }
+
+        // A second locator has its own memos, so its lookups are not served from the first locator's resolution memo
+        DependencyLocator parallelLocator = new DependencyLocator(new File("src/test/resources/dependency-locator").getAbsolutePath(),
+            searchPaths, "target/temp", new NoOpEventLogger(), FrameworkUtil.getBundle(getClass()).getBundleContext());
+        CountingExecutorService executor = new CountingExecutorService(new ForkJoinPool());
+        parallelLocator.setLookupExecutor(executor);
+        try {
+            parallelLocator.locateDependencies(manifest);
+            fail();
+        } catch (DependencyLocationException parallel) {
+            assertEquals(sequential.getSatisfiedDependencies(), parallel.getSatisfiedDependencies());
+            assertEquals(sequential.getMessage(), parallel.getMessage());
+        } finally {
+            parallelLocator.shutdown();
+            executor.shutdown();
+        }
+        assertTrue(executor.getExecutedCount() > 0);
+    }
+
+    @Test
+    public void concurrentQueries() throws Exception {
+        final List<BundleManifest> manifests = new ArrayList<BundleManifest>();
+        for (String name : new String[] { "IMPORTPACKAGE.MF", "IMPORTBUNDLE.MF", "IMPORTLIBRARY.MF", "REQUIREBUNDLE.MF" }) {
+            manifests.add(BundleManifestFactory.createBundleManifest(new FileReader(new File(
+                "src/test/resources/dependency-locator/manifests/" + name))));
+        }
+
+        int threadCount = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<List<Map<File, List<String>>>>> futures = new ArrayList<Future<List<Map<File, List<String>>>>>();
+            for (int i = 0; i < threadCount; i++) {
+                futures.add(executor.submit(new Callable<List<Map<File, List<String>>>>() {
+
+                    public List<Map<File, List<String>>> call() throws Exception {
+                        start.await();
+                        List<Map<File, List<String>>> results = new ArrayList<Map<File, List<String>>>();
+                        for (int iteration = 0; iteration < 50; iteration++) {
+                            for (BundleManifest manifest : manifests) {
+                                results.add(locator.locateDependencies(manifest));
+                            }
+                            assertFalse(locator.getBundles().isEmpty());
+                            assertFalse(locator.getLibraries().isEmpty());
+                        }
+                        return results;
+                    }
+                }));
+            }
+            start.countDown();
+
+            List<Map<File, List<String>>> expected = new ArrayList<Map<File, List<String>>>();
+            for (BundleManifest manifest : manifests) {
+                expected.add(locator.locateDependencies(manifest));
+            }
+            for (Future<List<Map<File, List<String>>>> future : futures) {
+                List<Map<File, List<String>>> results = future.get();
+                for (int i = 0; i < results.size(); i++) {
+                    assertEquals(expected.get(i % manifests.size()), results.get(i));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void memoizedLocateDependencies() throws IOException {
+        BundleManifest manifest = BundleManifestFactory.createBundleManifest(new FileReader(new File(
+            "src/test/resources/dependency-locator/manifests/SATISFIABLEANDUNSATISFIABLE.MF")));
+
+        DependencyLocationException first = null;
+        try {
+            locator.locateDependencies(manifest);
+            fail();
+        } catch (DependencyLocationException dle) {
+            first = dle;
+        }
+        long lookupCount = locator.getRepositoryLookupCount();
+        assertTrue(lookupCount > 0);
+
+        try {
+            locator.locateDependencies(manifest);
+            fail();
+        } catch (DependencyLocationException second) {
+            assertNotSame(first, second);
+            assertNotSame(first.getSatisfiedDependencies(), second.getSatisfiedDependencies());
+            assertEquals(first.getSatisfiedDependencies(), second.getSatisfiedDependencies());
+            assertEquals(first.getMessage(), second.getMessage());
+        }
+        assertEquals("the memoized outcome is served without a lookup", lookupCount, locator.getRepositoryLookupCount());
+
+        BundleManifest sameImports = BundleManifestFactory.createBundleManifest(new FileReader(new File(
+            "src/test/resources/dependency-locator/manifests/SATISFIABLEANDUNSATISFIABLE.MF")));
+        sameImports.setHeader("Bundle-SymbolicName", "org.eclipse.virgo.test.same.imports");
+        try {
+            locator.locateDependencies(sameImports);
+            fail();
+        } catch (DependencyLocationException third) {
+            assertEquals(first.getSatisfiedDependencies(), third.getSatisfiedDependencies());
+        }
+        assertEquals("a manifest with the same imports shares the memoized outcome", lookupCount, locator.getRepositoryLookupCount());
+    }
+
+    @Test
+    public void persistentResolutionCache() throws IOException {
+        BundleManifest manifest = BundleManifestFactory.createBundleManifest(new FileReader(new File(
+            "src/test/resources/dependency-locator/manifests/IMPORTPACKAGE.MF")));
+
+        File cacheFile = new File("target/temp/resolutions.cache");
+        assertFalse(cacheFile.exists());
+
+        locator.setPersistentResolutionCacheEnabled(true);
+        Map<File, List<String>> uncached = locator.locateDependencies(manifest);
+        assertEquals(2, uncached.size());
+        assertEquals(0, locator.getPersistentResolutionCacheHitCount());
+        locator.shutdown();
+        assertTrue(cacheFile.length() > 0);
+
+        createDependencyLocator();
+        locator.setPersistentResolutionCacheEnabled(true);
+        assertEquals(uncached, locator.locateDependencies(manifest));
+        assertEquals(1, locator.getPersistentResolutionCacheHitCount());
+
+        locator.setFragmentExportsEnabled(true);
+        locator.locateDependencies(manifest);
+        assertEquals("fragment-aware outcomes are stored separately", 1, locator.getPersistentResolutionCacheHitCount());
+    }
+
+    @Test
+    public void asynchronousStartup() throws Exception {
+        BundleManifest manifest = BundleManifestFactory.createBundleManifest(new FileReader(new File(
+            "src/test/resources/dependency-locator/manifests/IMPORTPACKAGE.MF")));
+        Map<File, List<String>> dependencies = locator.locateDependencies(manifest);
+        locator.shutdown();
+
+        ExecutorService startupExecutor = Executors.newSingleThreadExecutor();
+        try {
+            this.locator = new DependencyLocator(new File("src/test/resources/dependency-locator").getAbsolutePath(), searchPaths,
+                "target/temp", new NoOpEventLogger(), FrameworkUtil.getBundle(getClass()).getBundleContext(), startupExecutor);
+            assertEquals(dependencies, locator.locateDependencies(manifest));
+            locator.getReadiness().get();
+            assertTrue(locator.getReadiness().isDone());
+        } finally {
+            startupExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void systemPackagesSnapshot() throws IOException {
+        BundleManifest manifest = BundleManifestFactory.createBundleManifest(new FileReader(new File(
+            "src/test/resources/dependency-locator/manifests/IMPORTSYSTEMPACKAGESJAVA6.MF")));
+        Map<File, List<String>> dependencies = locator.locateDependencies(manifest);
+        locator.shutdown();
+
+        assertTrue(new File("target/temp/system-packages.snapshot").isFile());
+
+        createDependencyLocator();
+        assertEquals(dependencies, locator.locateDependencies(manifest));
+    }
+
+    @Test
+    public void transitiveDependencies() throws IOException {
+        BundleManifest manifest = BundleManifestFactory.createBundleManifest(new FileReader(new File(
+            "src/test/resources/dependency-locator/manifests/IMPORTPACKAGE.MF")));
+        Map<File, List<String>> dependencies = locator.locateDependencies(manifest);
+
+        DependencyGraph graph = locator.locateTransitiveDependencies(manifest);
+        assertNull(graph.getFailure());
+        assertEquals(dependencies, graph.getDirectDependencies());
+        for (File dependency : dependencies.keySet()) {
+            if (dependency != null) {
+                assertTrue(graph.getBundles().contains(dependency));
+            }
+        }
+        for (File bundle : graph.getBundles()) {
+            assertTrue(graph.getBundles().containsAll(graph.getDependencies(bundle)));
+        }
+
+        List<DependencyGraph> graphs = locator.locateTransitiveDependencies(Arrays.asList(manifest, manifest));
+        assertEquals(graph.getBundles(), graphs.get(0).getBundles());
+        assertEquals(graph.getBundles(), graphs.get(1).getBundles());
+    }
+
+    @Test
+    public void fragmentExports() throws IOException {
+        BundleManifest manifest = BundleManifestFactory.createBundleManifest(new FileReader(new File(
+            "src/test/resources/dependency-locator/manifests/IMPORTBUNDLE.MF")));
+        File fragmentDirectory = new File("src/test/resources/fragment-exports").getAbsoluteFile();
+        File fragment = new File(fragmentDirectory, "org.eclipse.virgo.test.beans.fragment-1.0.0.jar");
+        File legacyFragment = new File(fragmentDirectory, "org.eclipse.virgo.test.beans.legacy.fragment-1.0.0.jar");
+
+        // The fragments are in their own search path so that they are seen only by this test's locator
+        DependencyLocator fragmentLocator = new DependencyLocator(new File("src/test/resources/dependency-locator").getAbsolutePath(),
+            new String[] { searchPaths[0], fragmentDirectory.getPath() + File.separator + "{bundle}.jar" }, "target/fragment-exports",
+            new NoOpEventLogger(), FrameworkUtil.getBundle(getClass()).getBundleContext());
+        try {
+            Map<File, List<String>> dependencies = fragmentLocator.locateDependencies(manifest);
+            assertFalse(dependencies.containsKey(fragment));
+
+            fragmentLocator.setFragmentExportsEnabled(true);
+            Map<File, List<String>> merged = fragmentLocator.locateDependencies(manifest);
+            assertEquals(Arrays.asList("org.eclipse.virgo.test.beans.fragment"), merged.get(fragment));
+            assertFalse("a fragment whose host version range excludes the host must not be merged", merged.containsKey(legacyFragment));
+
+            Map<File, List<String>> withoutFragment = new HashMap<File, List<String>>(merged);
+            withoutFragment.remove(fragment);
+            assertEquals(dependencies, withoutFragment);
+        } finally {
+            fragmentLocator.shutdown();
+        }
+    }
+
     @Test
     public void getBundles() {
 
@@ -316,6 +655,172 @@ public class DependencyLocatorTests {
         assertEquals(4, bundles.size());
     }
 
+    @Test
+    public void generation() {
+        long generation = locator.getGeneration();
+        assertTrue(generation > 0);
+        assertEquals(generation, locator.getBundleCursor().getGeneration());
+        assertEquals(generation, locator.getGeneration());
+    }
+
+    @Test
+    public void refreshWithoutChanges() {
+        long generation = locator.getGeneration();
+        Set<? extends ArtifactDescriptor> bundles = locator.getBundles();
+
+        locator.refresh();
+
+        assertEquals(generation, locator.getGeneration());
+        assertEquals(bundles, locator.getBundles());
+    }
+
+    @Test
+    public void sharedLocators() throws IOException {
+        BundleManifest manifest = BundleManifestFactory.createBundleManifest(new FileReader(new File(
+            "src/test/resources/dependency-locator/manifests/IMPORTPACKAGE.MF")));
+        String kernelHomePath = new File("src/test/resources/dependency-locator").getAbsolutePath();
+
+        DependencyLocator first = DependencyLocator.createShared(kernelHomePath, searchPaths, "target/temp", new NoOpEventLogger(),
+            FrameworkUtil.getBundle(getClass()).getBundleContext(), null);
+        DependencyLocator second = DependencyLocator.createShared(kernelHomePath, searchPaths, "target/temp", new NoOpEventLogger(),
+            FrameworkUtil.getBundle(getClass()).getBundleContext(), null);
+        try {
+            Map<File, List<String>> dependencies = first.locateDependencies(manifest);
+            first.shutdown();
+            first.shutdown();
+            assertEquals(dependencies, second.locateDependencies(manifest));
+        } finally {
+            second.shutdown();
+        }
+    }
+
+    @Test
+    public void refreshSkipsTouchedBundle() throws Exception {
+        File bundles = new File("src/test/resources/dependency-locator/repository/bundles");
+        File searchPathDirectory = new File("target/refresh-search-path").getAbsoluteFile();
+        File stagingDirectory = new File("target/refresh-staging").getAbsoluteFile();
+        deleteDirectory(searchPathDirectory);
+        deleteDirectory(stagingDirectory);
+        assertTrue(searchPathDirectory.mkdirs());
+        assertTrue(stagingDirectory.mkdirs());
+
+        File touched = new File(searchPathDirectory, "touched.jar");
+        File changed = new File(searchPathDirectory, "changed.jar");
+        Files.copy(new File(bundles, "org.springframework.core-3.0.0.RELEASE.jar").toPath(), touched.toPath());
+        Files.copy(new File(bundles, "org.springframework.beans-3.0.0.RELEASE.jar").toPath(), changed.toPath());
+
+        DependencyLocator refreshingLocator = new DependencyLocator(new File("src/test/resources/dependency-locator").getAbsolutePath(),
+            new String[] { searchPathDirectory.getPath() + File.separator + "{bundle}.jar" }, "target/temp", new NoOpEventLogger(),
+            FrameworkUtil.getBundle(getClass()).getBundleContext());
+        try {
+            long generation = refreshingLocator.getGeneration();
+
+            // The first refresh starts watching the search paths, and finds every artifact unchanged
+            refreshingLocator.refresh();
+            assertEquals(generation, refreshingLocator.getGeneration());
+
+            assertTrue(touched.setLastModified(touched.lastModified() + 60000));
+            refreshingLocator.refresh();
+            assertEquals(generation, refreshingLocator.getGeneration());
+
+            // The changed jar is moved into place so that it is seen in a single event, after the touch in the same
+            // directory, so once the change has been seen the touch has been seen too
+            File staged = new File(stagingDirectory, "changed.jar");
+            Files.copy(new File(bundles, "org.springframework.context-3.0.0.RELEASE.jar").toPath(), staged.toPath());
+            Files.move(staged.toPath(), changed.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            long deadline = System.currentTimeMillis() + 30000;
+            while (refreshingLocator.getGeneration() == generation && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+                refreshingLocator.refresh();
+            }
+            assertEquals("only the changed jar begins a new generation", generation + 1, refreshingLocator.getGeneration());
+        } finally {
+            refreshingLocator.shutdown();
+            deleteDirectory(searchPathDirectory);
+            deleteDirectory(stagingDirectory);
+        }
+    }
+
+    /**
+     * An <code>ExecutorService</code> that counts the tasks that it is asked to execute.
+     */
+    private static final class CountingExecutorService extends AbstractExecutorService {
+
+        private final ExecutorService delegate;
+
+        private final AtomicInteger executedCount = new AtomicInteger();
+
+        private CountingExecutorService(ExecutorService delegate) {
+            this.delegate = delegate;
+        }
+
+        public void execute(Runnable command) {
+            this.executedCount.incrementAndGet();
+            this.delegate.execute(command);
+        }
+
+        private int getExecutedCount() {
+            return this.executedCount.get();
+        }
+
+        public void shutdown() {
+            this.delegate.shutdown();
+        }
+
+        public List<Runnable> shutdownNow() {
+            return this.delegate.shutdownNow();
+        }
+
+        public boolean isShutdown() {
+            return this.delegate.isShutdown();
+        }
+
+        public boolean isTerminated() {
+            return this.delegate.isTerminated();
+        }
+
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return this.delegate.awaitTermination(timeout, unit);
+        }
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void pagedBundles() {
+        Set<ArtifactDescriptor> paged = new HashSet<ArtifactDescriptor>();
+        ArtifactCursor cursor = locator.getBundleCursor();
+        long generation = cursor.getGeneration();
+        while (cursor != null) {
+            ArtifactPage page = cursor.nextPage(null, 1);
+            assertTrue(page.getArtifacts().size() <= 1);
+            paged.addAll(page.getArtifacts());
+            cursor = page.getNextCursor();
+            assertTrue(cursor == null || cursor.getGeneration() == generation);
+        }
+        assertEquals(locator.getBundles(), paged);
+
+        final ArtifactDescriptor first = paged.iterator().next();
+        Iterator<ArtifactDescriptor> filtered = locator.iterateBundles(new ArtifactFilter() {
+
+            public boolean accept(ArtifactDescriptor descriptor) {
+                return descriptor.equals(first);
+            }
+        });
+        assertTrue(filtered.hasNext());
+        assertEquals(first, filtered.next());
+        assertFalse(filtered.hasNext());
+    }
+
     @Test
     public void getLibraries() {
 
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Version;
+
+import org.eclipse.virgo.kernel.artifact.bundle.BundleBridge;
+import org.eclipse.virgo.kernel.tools.internal.ContentHashGenerator;
+import org.eclipse.virgo.kernel.tools.internal.ExportedPackageIndex;
+import org.eclipse.virgo.repository.ArtifactDescriptor;
+import org.eclipse.virgo.util.osgi.manifest.VersionRange;
+
+/**
+ */
+public class ExportedPackageIndexTests {
+
+    private static final String BUNDLES_DIRECTORY = "src/test/resources/versioned-exporters/";
+
+    private static final String PACKAGE_NAME = "org.eclipse.virgo.test.versioned";
+
+    private ExportedPackageIndex index;
+
+    @Before
+    public void createIndex() throws Exception {
+        BundleBridge bundleBridge = new BundleBridge(new ContentHashGenerator());
+        Set<ArtifactDescriptor> bundles = new HashSet<ArtifactDescriptor>();
+        for (String version : new String[] { "2.0.0", "1.0.0", "1.5.0" }) {
+            bundles.add(bundleBridge.generateArtifactDescriptor(new File(BUNDLES_DIRECTORY + "org.eclipse.virgo.test.versioned-" + version + ".jar")));
+        }
+        this.index = ExportedPackageIndex.create(bundles, 1);
+    }
+
+    @Test
+    public void highestExporterInRange() {
+        ArtifactDescriptor exporter = this.index.findHighestByExportedPackage(PACKAGE_NAME, new VersionRange("[1.0.0,3.0.0)"));
+        assertEquals(new Version(2, 0, 0), exporter.getVersion());
+    }
+
+    @Test
+    public void rangeExcludingHighestExporter() {
+        ArtifactDescriptor exporter = this.index.findHighestByExportedPackage(PACKAGE_NAME, new VersionRange("[1.0.0,2.0.0)"));
+        assertEquals(new Version(1, 5, 0), exporter.getVersion());
+
+        exporter = this.index.findHighestByExportedPackage(PACKAGE_NAME, new VersionRange("[1.0.0,1.5.0)"));
+        assertEquals(new Version(1, 0, 0), exporter.getVersion());
+    }
+
+    @Test
+    public void noExporterInRange() {
+        assertNull(this.index.findHighestByExportedPackage(PACKAGE_NAME, new VersionRange("[3.0.0,4.0.0)")));
+        assertTrue(this.index.findByExportedPackage(PACKAGE_NAME, new VersionRange("[3.0.0,4.0.0)")).isEmpty());
+        assertNull(this.index.findHighestByExportedPackage("org.eclipse.virgo.test.unexported", new VersionRange("[1.0.0,3.0.0)")));
+    }
+
+    @Test
+    public void exportersInRange() {
+        Set<Version> versions = new HashSet<Version>();
+        for (ArtifactDescriptor exporter : this.index.findByExportedPackage(PACKAGE_NAME, new VersionRange("[1.5.0,2.0.0]"))) {
+            versions.add(exporter.getVersion());
+        }
+        assertEquals(2, versions.size());
+        assertTrue(versions.contains(new Version(1, 5, 0)));
+        assertTrue(versions.contains(new Version(2, 0, 0)));
+    }
+}
@@ -21,6 +21,7 @@ import static org.junit.Assert.fail;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -229,6 +230,28 @@ public class Pre35DependencyLocatorTests {
         assertTrue(packageNames.get(0).equals("org.springframework.core"));
     }
 
+    @Test
+    public void requireBundleReexportCycle() throws IOException {
+        File cycleDirectory = new File("src/test/resources/require-bundle-cycle").getAbsoluteFile();
+        BundleManifest manifest = BundleManifestFactory.createBundleManifest(new FileReader(new File(cycleDirectory,
+            "manifests/REQUIREBUNDLECYCLE.MF")));
+
+        // The fixtures' bundles require each other with visibility:=reexport
+        Pre35DependencyLocator cycleLocator = new Pre35DependencyLocator(new File("src/test/resources/pre35-dependency-locator").getAbsolutePath(),
+            new String[] { cycleDirectory.getPath() + File.separator + "{bundle}.jar" }, "target/require-bundle-cycle",
+            new NoOpEventLogger(), FrameworkUtil.getBundle(getClass()).getBundleContext());
+        try {
+            Map<File, List<String>> dependencies = cycleLocator.locateDependencies(manifest);
+            assertEquals(2, dependencies.size());
+            assertEquals(Arrays.asList("org.eclipse.virgo.test.cycle.a"), dependencies.get(new File(cycleDirectory,
+                "org.eclipse.virgo.test.cycle.a-1.0.0.jar")));
+            assertEquals(Arrays.asList("org.eclipse.virgo.test.cycle.b"), dependencies.get(new File(cycleDirectory,
+                "org.eclipse.virgo.test.cycle.b-1.0.0.jar")));
+        } finally {
+            cycleLocator.shutdown();
+        }
+    }
+
     @Test
     public void unsatisfiableRequireBundle() throws IOException {
 
@@ -313,6 +336,26 @@ public class Pre35DependencyLocatorTests {
         assertEquals("org.osgi.framework", packages.get(0));
 	}
 
+    @Test
+    public void sharedLocators() throws IOException {
+        BundleManifest manifest = BundleManifestFactory.createBundleManifest(new FileReader(new File(
+            "src/test/resources/pre35-dependency-locator/manifests/IMPORTPACKAGE.MF")));
+        String kernelHomePath = new File("src/test/resources/pre35-dependency-locator").getAbsolutePath();
+
+        Pre35DependencyLocator first = Pre35DependencyLocator.createShared(kernelHomePath, searchPaths, "target/temp", new NoOpEventLogger(),
+            FrameworkUtil.getBundle(getClass()).getBundleContext());
+        Pre35DependencyLocator second = Pre35DependencyLocator.createShared(kernelHomePath, searchPaths, "target/temp", new NoOpEventLogger(),
+            FrameworkUtil.getBundle(getClass()).getBundleContext());
+        try {
+            Map<File, List<String>> dependencies = first.locateDependencies(manifest);
+            first.shutdown();
+            first.shutdown();
+            assertEquals(dependencies, second.locateDependencies(manifest));
+        } finally {
+            second.shutdown();
+        }
+    }
+
     @Test
     public void getBundles() {
 
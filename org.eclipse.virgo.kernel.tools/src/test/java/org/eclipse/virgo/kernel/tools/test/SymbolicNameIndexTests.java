@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2010 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.tools.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Version;
+
+import org.eclipse.virgo.kernel.artifact.bundle.BundleBridge;
+import org.eclipse.virgo.kernel.artifact.library.LibraryBridge;
+import org.eclipse.virgo.kernel.artifact.library.LibraryDefinition;
+import org.eclipse.virgo.kernel.tools.internal.ContentHashGenerator;
+import org.eclipse.virgo.kernel.tools.internal.SymbolicNameIndex;
+import org.eclipse.virgo.repository.ArtifactDescriptor;
+import org.eclipse.virgo.util.osgi.manifest.VersionRange;
+
+/**
+ */
+public class SymbolicNameIndexTests {
+
+    private static final String BUNDLES_DIRECTORY = "src/test/resources/versioned-exporters/";
+
+    private static final String BUNDLE_NAME = "org.eclipse.virgo.test.versioned";
+
+    private static final String LIBRARY_NAME = "org.springframework_spring";
+
+    private SymbolicNameIndex index;
+
+    @Before
+    public void createIndex() throws Exception {
+        ContentHashGenerator hashGenerator = new ContentHashGenerator();
+        BundleBridge bundleBridge = new BundleBridge(hashGenerator);
+        Set<ArtifactDescriptor> descriptors = new HashSet<ArtifactDescriptor>();
+        for (String version : new String[] { "2.0.0", "1.0.0", "1.5.0" }) {
+            descriptors.add(bundleBridge.generateArtifactDescriptor(new File(BUNDLES_DIRECTORY + BUNDLE_NAME + "-" + version + ".jar")));
+        }
+        descriptors.add(new LibraryBridge(hashGenerator).generateArtifactDescriptor(new File(
+            "src/test/resources/dependency-locator/manifests/org.springframework_spring_3.0.0.RELEASE.libd")));
+        this.index = SymbolicNameIndex.create(descriptors);
+    }
+
+    @Test
+    public void highestVersionInRange() {
+        assertEquals(new Version(2, 0, 0), this.index.get(BundleBridge.BRIDGE_TYPE, BUNDLE_NAME, new VersionRange("[1.0.0,3.0.0)")).getVersion());
+        assertEquals(new Version(1, 5, 0), this.index.get(BundleBridge.BRIDGE_TYPE, BUNDLE_NAME, new VersionRange("[1.0.0,2.0.0)")).getVersion());
+        assertEquals(new Version(1, 0, 0), this.index.get(BundleBridge.BRIDGE_TYPE, BUNDLE_NAME, new VersionRange("[1.0.0,1.0.0]")).getVersion());
+    }
+
+    @Test
+    public void noVersionInRange() {
+        assertNull(this.index.get(BundleBridge.BRIDGE_TYPE, BUNDLE_NAME, new VersionRange("[3.0.0,4.0.0)")));
+        assertNull(this.index.get(BundleBridge.BRIDGE_TYPE, "org.eclipse.virgo.test.unknown", new VersionRange("[1.0.0,3.0.0)")));
+    }
+
+    @Test
+    public void typesAreIndexedSeparately() {
+        VersionRange anyVersion = new VersionRange("[0.0.0,9.0.0)");
+        assertEquals(LIBRARY_NAME, this.index.get(LibraryDefinition.LIBRARY_TYPE, LIBRARY_NAME, anyVersion).getName());
+        assertNull(this.index.get(BundleBridge.BRIDGE_TYPE, LIBRARY_NAME, anyVersion));
+        assertNull(this.index.get(LibraryDefinition.LIBRARY_TYPE, BUNDLE_NAME, anyVersion));
+    }
+}